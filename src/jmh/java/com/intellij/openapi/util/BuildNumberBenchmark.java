@@ -0,0 +1,81 @@
+package com.intellij.openapi.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares parsing build numbers by splitting on a regex, the single pass parser and the cached
+ * {@link BuildNumber#fromString(String)}, and comparing parsed copies against cached instances. Lives in the same
+ * package to reach the package private parsers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BuildNumberBenchmark {
+    private static final String[] VERSIONS = {"223.8836.41", "IU-231.9011.34", "232.*", "193.2956.37", "241.14494.240"};
+
+    private BuildNumber[] copies;
+    private BuildNumber[] cached;
+    private BuildNumber[] cachedAgain;
+
+    @Setup
+    public void setup() {
+        copies = new BuildNumber[VERSIONS.length];
+        cached = new BuildNumber[VERSIONS.length];
+        cachedAgain = new BuildNumber[VERSIONS.length];
+        for (int i = 0; i < VERSIONS.length; i++) {
+            copies[i] = BuildNumber.parseSplit(VERSIONS[i], null, null);
+            cached[i] = BuildNumber.fromString(VERSIONS[i]);
+            cachedAgain[i] = BuildNumber.fromString(VERSIONS[i]);
+        }
+    }
+
+    @Benchmark
+    public void parseSplit(Blackhole blackhole) {
+        for (String version : VERSIONS) {
+            blackhole.consume(BuildNumber.parseSplit(version, null, null));
+        }
+    }
+
+    @Benchmark
+    public void parseSimple(Blackhole blackhole) {
+        for (String version : VERSIONS) {
+            blackhole.consume(BuildNumber.parseSimple(version, null));
+        }
+    }
+
+    @Benchmark
+    public void fromStringCached(Blackhole blackhole) {
+        for (String version : VERSIONS) {
+            blackhole.consume(BuildNumber.fromString(version));
+        }
+    }
+
+    @Benchmark
+    public void compareCopies(Blackhole blackhole) {
+        for (int i = 0; i < VERSIONS.length; i++) {
+            blackhole.consume(copies[i].compareTo(cached[i]));
+        }
+    }
+
+    @Benchmark
+    public void compareCached(Blackhole blackhole) {
+        for (int i = 0; i < VERSIONS.length; i++) {
+            blackhole.consume(cached[i].compareTo(cachedAgain[i]));
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package dev.bmac.gradle.intellij.xml;
+
+import com.google.common.base.Strings;
+import com.google.common.io.ByteStreams;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares reading and writing updatePlugins.xml with the StAX and JAXB codecs. Run with the gc profiler to compare
+ * allocations per operation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PluginsCodecBenchmark {
+
+    @Param({"stax", "jaxb"})
+    public String codecName;
+
+    @Param({"1000", "10000"})
+    public int entries;
+
+    private PluginsCodec codec;
+    private PluginsElement plugins;
+    private byte[] content;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        codec = "jaxb".equals(codecName) ? JaxbPluginsCodec.INSTANCE : StaxPluginsCodec.INSTANCE;
+        plugins = new PluginsElement();
+        String changeNotes = Strings.repeat("<li>Fixed an issue with <b>something</b> &amp; more</li>\n", 40);
+        for (int i = 0; i < entries; i++) {
+            plugins.getPlugins().add(new PluginElement("plugin" + (i % 500), "1." + i, "<p>Description " + i + "</p>",
+                    changeNotes, "Plugin " + i, "211." + i, null, "./plugin" + i + "/plugin-1." + i + ".zip"));
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8)) {
+            StaxPluginsCodec.INSTANCE.write(plugins, writer);
+        }
+        content = out.toByteArray();
+    }
+
+    @Benchmark
+    public PluginsElement read() throws IOException {
+        return codec.read(new ByteArrayInputStream(content));
+    }
+
+    @Benchmark
+    public void write() throws IOException {
+        try (Writer writer = new OutputStreamWriter(ByteStreams.nullOutputStream(), StandardCharsets.UTF_8)) {
+            codec.write(plugins, writer);
+        }
+    }
+}
@@ -1,6 +1,8 @@
 // Copyright 2000-2021 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license that can be found in the jetbrains-license.txt file.
 package com.intellij.openapi.util;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
@@ -16,16 +18,69 @@ public final class BuildNumber implements Comparable<BuildNumber> {
 
     public static final int SNAPSHOT_VALUE = Integer.MAX_VALUE;
 
+    //Added - instances are immutable, so the parsed build numbers can be shared
+    private static final Cache<String, BuildNumber> CACHE = CacheBuilder.newBuilder().maximumSize(1024).build();
+
+    //Added - the number of components which fit in the packed encoding, 32 bits each
+    private static final int PACKED_COMPONENTS = 4;
+
     private final String myProductCode;
     private final int [] myComponents;
+    //Added - order preserving encoding of the components, see isPacked
+    private final boolean myPacked;
+    private final long myPackedHigh;
+    private final long myPackedLow;
 
     public BuildNumber(@NotNull String productCode, int baselineVersion, int buildNumber) {
-        this(productCode, new int[]{baselineVersion, buildNumber});
+        this(productCode, new int[]{baselineVersion, buildNumber}, true);
     }
 
+    //Changed - copies the components, as instances are shared through the cache and must not change
     public BuildNumber(@NotNull String productCode, int ... components) {
+        this(productCode, components.clone(), true);
+    }
+
+    //Added - takes ownership of the components without copying them, for arrays created by this class
+    private BuildNumber(@NotNull String productCode, int[] components, boolean owned) {
         myProductCode = productCode;
         myComponents = components;
+
+        //Added - each component is stored unsigned as the value plus one, or all ones for *. Missing components are zero
+        //so shorter build numbers sort first. Components after a * are ignored, like compareTo does.
+        boolean packed = components.length <= PACKED_COMPONENTS;
+        long[] slots = new long[PACKED_COMPONENTS];
+        for (int i = 0; packed && i < components.length; i++) {
+            if (components[i] == SNAPSHOT_VALUE) {
+                slots[i] = 0xFFFFFFFFL;
+                break;
+            }
+            if (components[i] < 0) {
+                packed = false;
+            }
+            slots[i] = components[i] + 1L;
+        }
+        myPacked = packed;
+        myPackedHigh = packed ? slots[0] << 32 | slots[1] : 0;
+        myPackedLow = packed ? slots[2] << 32 | slots[3] : 0;
+    }
+
+    /**
+     * Added to allow comparing build numbers as primitives.
+     *
+     * @return true if the build number has at most four non negative components, in which case comparing
+     * {@link #getPackedHigh()} and then {@link #getPackedLow()} as unsigned longs orders the same as
+     * {@link #compareTo(BuildNumber)}. The product code is not part of the encoding, as it is not compared either.
+     */
+    public boolean isPacked() {
+        return myPacked;
+    }
+
+    public long getPackedHigh() {
+        return myPackedHigh;
+    }
+
+    public long getPackedLow() {
+        return myPackedLow;
     }
 
 
@@ -48,15 +103,103 @@ public final class BuildNumber implements Comparable<BuildNumber> {
         return builder.toString();
     }
 
+    //Changed - results are cached as the same few build numbers are parsed for every entry of updatePlugins.xml
     public static @Nullable BuildNumber fromString(@Nullable String version) {
         if (version == null) {
             return null;
         }
         version = version.trim();
-        return version.isEmpty() ? null : fromString(version, null, null);
+        if (version.isEmpty()) {
+            return null;
+        }
+        BuildNumber buildNumber = CACHE.getIfPresent(version);
+        if (buildNumber == null) {
+            buildNumber = fromString(version, null, null);
+            if (buildNumber != null) {
+                CACHE.put(version, buildNumber);
+            }
+        }
+        return buildNumber;
     }
 
+    //Changed - tries the single pass parser before splitting the version
     public static @Nullable BuildNumber fromString(@NotNull String version, @Nullable String pluginName, @Nullable String productCodeIfAbsentInVersion) {
+        BuildNumber buildNumber = parseSimple(version, productCodeIfAbsentInVersion);
+        return buildNumber != null ? buildNumber : parseSplit(version, pluginName, productCodeIfAbsentInVersion);
+    }
+
+    /**
+     * Added to parse the usual build numbers such as IU-223.8836.41 or 223.* in a single pass, without a regex or
+     * substrings for the components.
+     *
+     * @return the build number, or null if the version is not in a simple form and needs {@link #parseSplit}
+     */
+    static @Nullable BuildNumber parseSimple(@NotNull String version, @Nullable String productCodeIfAbsentInVersion) {
+        int productSeparator = version.indexOf('-');
+        String productCode;
+        int i;
+        if (productSeparator > 0) {
+            productCode = version.substring(0, productSeparator);
+            i = productSeparator + 1;
+        }
+        else {
+            productCode = productCodeIfAbsentInVersion != null ? productCodeIfAbsentInVersion : "";
+            i = 0;
+        }
+
+        int length = version.length();
+        int[] components = new int[4];
+        int count = 0;
+        boolean dotted = false;
+        while (true) {
+            if (i >= length) {
+                // empty component, left to parseSplit
+                return null;
+            }
+            int component;
+            if (version.charAt(i) == '*') {
+                component = SNAPSHOT_VALUE;
+                i++;
+            }
+            else {
+                int start = i;
+                component = 0;
+                while (i < length && version.charAt(i) >= '0' && version.charAt(i) <= '9') {
+                    if (i - start == 9) {
+                        return null;
+                    }
+                    component = component * 10 + version.charAt(i) - '0';
+                    i++;
+                }
+                if (i == start) {
+                    return null;
+                }
+            }
+            if (count == components.length) {
+                components = Arrays.copyOf(components, count * 2);
+            }
+            components[count++] = component;
+            if (i == length) {
+                break;
+            }
+            if (version.charAt(i) != '.') {
+                return null;
+            }
+            dotted = true;
+            i++;
+            if (component == SNAPSHOT_VALUE) {
+                // nothing after a * is used
+                break;
+            }
+        }
+
+        if (!dotted) {
+            return fromSingleNumber(productCode, components[0]);
+        }
+        return new BuildNumber(productCode, count == components.length ? components : Arrays.copyOf(components, count), true);
+    }
+
+    static @Nullable BuildNumber parseSplit(@NotNull String version, @Nullable String pluginName, @Nullable String productCodeIfAbsentInVersion) {
         String code = version;
         int productSeparator = code.indexOf('-');
         String productCode;
@@ -87,18 +230,21 @@ public final class BuildNumber implements Comparable<BuildNumber> {
                     break;
                 }
             }
-            return new BuildNumber(productCode, intComponentsList);
+            return new BuildNumber(productCode, intComponentsList, true);
         }
         else {
-            int buildNumber = parseBuildNumber(version, code, pluginName);
-            if (buildNumber <= 2000) {
-                // it's probably a baseline, not a build number
-                return new BuildNumber(productCode, buildNumber, 0);
-            }
+            return fromSingleNumber(productCode, parseBuildNumber(version, code, pluginName));
+        }
+    }
 
-            int baselineVersion = getBaseLineForHistoricBuilds(buildNumber);
-            return new BuildNumber(productCode, baselineVersion, buildNumber);
+    private static BuildNumber fromSingleNumber(String productCode, int buildNumber) {
+        if (buildNumber <= 2000) {
+            // it's probably a baseline, not a build number
+            return new BuildNumber(productCode, buildNumber, 0);
         }
+
+        int baselineVersion = getBaseLineForHistoricBuilds(buildNumber);
+        return new BuildNumber(productCode, baselineVersion, buildNumber);
     }
 
     private static int parseBuildNumber(String version, @NotNull String code, String pluginName) {
@@ -116,6 +262,12 @@ public final class BuildNumber implements Comparable<BuildNumber> {
 
     @Override
     public int compareTo(@NotNull BuildNumber o) {
+        if (this == o) return 0;
+        //Changed - compares the packed encoding when both have one
+        if (myPacked && o.myPacked) {
+            int result = Long.compareUnsigned(myPackedHigh, o.myPackedHigh);
+            return result != 0 ? result : Long.compareUnsigned(myPackedLow, o.myPackedLow);
+        }
         int[] c1 = myComponents;
         int[] c2 = o.myComponents;
 
@@ -168,7 +320,7 @@ public final class BuildNumber implements Comparable<BuildNumber> {
             }
             componentsCopy[i] = SNAPSHOT_VALUE - 1;
         }
-        return new BuildNumber(myProductCode, componentsCopy);
+        return new BuildNumber(myProductCode, componentsCopy, true);
     }
 
     // http://www.jetbrains.org/intellij/sdk/docs/basics/getting_started/build_number_ranges.html
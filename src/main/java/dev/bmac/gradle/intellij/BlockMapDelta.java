@@ -0,0 +1,172 @@
+package dev.bmac.gradle.intellij;
+
+import com.google.gson.Gson;
+import com.jetbrains.plugin.blockmap.core.BlockMap;
+import com.jetbrains.plugin.blockmap.core.FastCDC;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * What an IDE downloads to update a plugin from a previous version using the blockmaps of both versions. Chunks of the
+ * new version with a digest found anywhere in the previous version are copied from the installed file, all others are
+ * downloaded.
+ *
+ * Serialized with Gson as the machine-readable report of the reportBlockMapDelta task.
+ */
+public class BlockMapDelta {
+    static final int LARGEST_REGIONS = 10;
+
+    //Null if there is no previous version, everything is then downloaded
+    @Nullable
+    private final String previousVersion;
+    private final int chunks;
+    private final int reusedChunks;
+    private final double chunkReuseRatio;
+    private final long totalBytes;
+    private final long downloadBytes;
+    private final long reusedBytes;
+    //Runs of consecutive downloaded chunks, largest first
+    private final List<Region> largestChangedRegions;
+
+    private BlockMapDelta(@Nullable String previousVersion, int chunks, int reusedChunks, long totalBytes,
+                          long downloadBytes, List<Region> largestChangedRegions) {
+        this.previousVersion = previousVersion;
+        this.chunks = chunks;
+        this.reusedChunks = reusedChunks;
+        this.chunkReuseRatio = chunks == 0 ? 1 : (double) reusedChunks / chunks;
+        this.totalBytes = totalBytes;
+        this.downloadBytes = downloadBytes;
+        this.reusedBytes = totalBytes - downloadBytes;
+        this.largestChangedRegions = largestChangedRegions;
+    }
+
+    /**
+     * @param previous the blockmap of the previous version, or null to report a download of the whole file
+     */
+    static BlockMapDelta compare(@Nullable String previousVersion, @Nullable BlockMap previous, BlockMap current) {
+        Set<String> previousDigests = new HashSet<>();
+        if (previous != null) {
+            for (FastCDC.Chunk chunk : previous.getChunks()) {
+                previousDigests.add(chunk.getHash());
+            }
+        }
+        List<FastCDC.Chunk> chunks = current.getChunks();
+        List<Region> regions = new ArrayList<>();
+        int reused = 0;
+        long total = 0;
+        long download = 0;
+        Region region = null;
+        for (FastCDC.Chunk chunk : chunks) {
+            total += chunk.getLength();
+            if (previousDigests.contains(chunk.getHash())) {
+                reused++;
+                region = null;
+                continue;
+            }
+            download += chunk.getLength();
+            if (region == null) {
+                region = new Region(chunk.getOffset());
+                regions.add(region);
+            }
+            region.add(chunk.getLength());
+        }
+        regions.sort(Comparator.comparingLong(Region::getLength).reversed()
+                .thenComparingLong(Region::getOffset));
+        List<Region> largest = new ArrayList<>(regions.subList(0, Math.min(LARGEST_REGIONS, regions.size())));
+        return new BlockMapDelta(previousVersion, chunks.size(), reused, total, download, largest);
+    }
+
+    /**
+     * Reads the blockmap from a blockmap archive written by the generateBlockMap task
+     */
+    static BlockMap read(InputStream archive, Gson gson) throws IOException {
+        ZipInputStream zis = new ZipInputStream(archive);
+        ZipEntry entry;
+        while ((entry = zis.getNextEntry()) != null) {
+            if (GenerateBlockMapTask.BLOCKMAP_ENTRY_NAME.equals(entry.getName())) {
+                return gson.fromJson(new InputStreamReader(zis, StandardCharsets.UTF_8), BlockMap.class);
+            }
+        }
+        throw new IOException("No " + GenerateBlockMapTask.BLOCKMAP_ENTRY_NAME + " in the blockmap archive");
+    }
+
+    @Nullable
+    public String getPreviousVersion() {
+        return previousVersion;
+    }
+
+    public int getChunks() {
+        return chunks;
+    }
+
+    public int getReusedChunks() {
+        return reusedChunks;
+    }
+
+    public double getChunkReuseRatio() {
+        return chunkReuseRatio;
+    }
+
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    public long getDownloadBytes() {
+        return downloadBytes;
+    }
+
+    public long getReusedBytes() {
+        return reusedBytes;
+    }
+
+    public List<Region> getLargestChangedRegions() {
+        return Collections.unmodifiableList(largestChangedRegions);
+    }
+
+    /**
+     * Bytes of the new version downloaded in one piece
+     */
+    public static class Region {
+        private final long offset;
+        private long length;
+        private int chunks;
+
+        Region(long offset) {
+            this.offset = offset;
+        }
+
+        private void add(long chunkLength) {
+            length += chunkLength;
+            chunks++;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+
+        public long getLength() {
+            return length;
+        }
+
+        public int getChunks() {
+            return chunks;
+        }
+
+        @Override
+        public String toString() {
+            return length + " bytes at offset " + offset + " (" + chunks + " chunks)";
+        }
+    }
+}
@@ -0,0 +1,296 @@
+package dev.bmac.gradle.intellij;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.jetbrains.plugin.blockmap.core.BlockMap;
+import dev.bmac.gradle.intellij.repos.Repo;
+import dev.bmac.gradle.intellij.xml.PluginElement;
+import dev.bmac.gradle.intellij.xml.PluginsElement;
+import dev.bmac.gradle.intellij.xml.PluginsCodec;
+import org.gradle.api.GradleException;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.internal.ConventionTask;
+import org.gradle.api.model.ObjectFactory;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputFile;
+import org.gradle.api.tasks.Optional;
+import org.gradle.api.tasks.OutputFile;
+import org.gradle.api.tasks.TaskAction;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.math.BigInteger;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reports how much of the plugin an IDE downloads when updating from the previously published version, by comparing
+ * the new blockmap with the blockmap of the entry of the plugin in updatePlugins.xml with the highest version below the
+ * published one, or the configured previous version. Uses the repository settings of the uploadPlugin task unless
+ * configured otherwise.
+ */
+public class BlockMapDeltaTask extends ConventionTask {
+    public static final String TASK_NAME = "reportBlockMapDelta";
+
+    private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
+
+    //The (encoded) url of the repository where updatePlugins.xml is placed
+    @Input
+    public final Property<String> url;
+    //Name of the plugin update file (optional)
+    @Input
+    @Optional
+    public final Property<String> updateFile;
+    //The authentication header to add (optional)
+    @Input
+    @Optional
+    public final Property<String> authentication;
+    //The type of repository (optional)
+    @Input
+    @Optional
+    public final Property<PluginUploader.RepoType> repoType;
+    //The plugin name, the folder the previous version was uploaded to
+    @Input
+    public final Property<String> pluginName;
+    //The plugin unique id
+    @Input
+    public final Property<String> pluginId;
+    //Version being published, entries with this version are not compared against
+    @Input
+    public final Property<String> version;
+    //Version to compare against, defaults to the highest version below the one being published (optional)
+    @Input
+    @Optional
+    public final Property<String> previousVersion;
+    //The blockmap of the version being published
+    @InputFile
+    public final RegularFileProperty blockmapFile;
+    //The report, in JSON
+    @OutputFile
+    public final RegularFileProperty reportFile;
+
+    @Inject
+    public BlockMapDeltaTask(ObjectFactory objectFactory) {
+        url = objectFactory.property(String.class);
+        updateFile = objectFactory.property(String.class);
+        authentication = objectFactory.property(String.class);
+        repoType = objectFactory.property(PluginUploader.RepoType.class);
+        pluginName = objectFactory.property(String.class);
+        pluginId = objectFactory.property(String.class);
+        version = objectFactory.property(String.class);
+        previousVersion = objectFactory.property(String.class);
+        blockmapFile = objectFactory.fileProperty();
+        reportFile = objectFactory.fileProperty()
+                .convention(getProject().getLayout().getBuildDirectory().file("reports/blockmap-delta.json"));
+        //The previous version is read from the repository, which can change without the inputs changing
+        getOutputs().upToDateWhen(task -> false);
+    }
+
+    @TaskAction
+    public void execute() {
+        String repoUrl = url.get().endsWith("/") ? url.get().substring(0, url.get().length() - 1) : url.get();
+        Repo repo = PluginUploader.createRepo(repoUrl, authentication.getOrNull(),
+                repoType.getOrElse(PluginUploader.RepoType.REST_POST), getLogger());
+        try {
+            BlockMap current;
+            try (InputStream is = new FileInputStream(blockmapFile.getAsFile().get())) {
+                current = BlockMapDelta.read(is, GSON);
+            }
+
+            PluginElement previous = findPrevious(readUpdates(repo));
+            BlockMap previousBlockMap = null;
+            if (previous == null) {
+                getLogger().lifecycle("No previous version of {} found, updates download the whole plugin",
+                        pluginId.get());
+            } else {
+                previousBlockMap = readBlockMap(repo, previous);
+                if (previousBlockMap == null) {
+                    getLogger().warn("No blockmap found for version {} of {}, updates from it download the whole plugin",
+                            previous.getVersion(), pluginId.get());
+                }
+            }
+
+            BlockMapDelta delta = BlockMapDelta.compare(previousBlockMap == null ? null : previous.getVersion(),
+                    previousBlockMap, current);
+            log(delta);
+            try (Writer writer = new OutputStreamWriter(new FileOutputStream(reportFile.getAsFile().get()),
+                    StandardCharsets.UTF_8)) {
+                GSON.toJson(delta, writer);
+            }
+        } catch (IOException | UncheckedIOException e) {
+            throw new GradleException("Failed to report the blockmap delta: " + e.getMessage(), e);
+        }
+    }
+
+    private void log(BlockMapDelta delta) {
+        if (delta.getPreviousVersion() != null) {
+            getLogger().lifecycle(String.format("Updating %s from %s downloads %d of %d bytes (%.1f%%), %d of %d chunks "
+                            + "(%.1f%%) are reused", pluginId.get(), delta.getPreviousVersion(),
+                    delta.getDownloadBytes(), delta.getTotalBytes(),
+                    delta.getTotalBytes() == 0 ? 0 : 100.0 * delta.getDownloadBytes() / delta.getTotalBytes(),
+                    delta.getReusedChunks(), delta.getChunks(), 100 * delta.getChunkReuseRatio()));
+        }
+        for (BlockMapDelta.Region region : delta.getLargestChangedRegions()) {
+            getLogger().info("Changed: {}", region);
+        }
+    }
+
+    private PluginsElement readUpdates(Repo repo) throws IOException {
+        return repo.get(updateFile.getOrElse(UploadPluginTask.UPDATE_PLUGINS_FILENAME), update -> {
+            if (!update.exists()) {
+                return new PluginsElement();
+            }
+            try {
+                return PluginsCodec.get().read(update.getInputStream());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    /**
+     * @return the entry of the plugin with the previous version if it is set, otherwise the entry with the highest
+     * version below the published one. Of entries with the same version, the last one is used.
+     */
+    @Nullable
+    private PluginElement findPrevious(PluginsElement updates) {
+        PluginElement previous = null;
+        for (PluginElement plugin : updates.getPlugins()) {
+            if (!pluginId.get().equals(plugin.getId()) || plugin.getVersion() == null) {
+                continue;
+            }
+            if (previousVersion.isPresent()) {
+                if (previousVersion.get().equals(plugin.getVersion())) {
+                    previous = plugin;
+                }
+            } else if (compareVersions(plugin.getVersion(), version.get()) < 0 &&
+                    (previous == null || compareVersions(plugin.getVersion(), previous.getVersion()) >= 0)) {
+                previous = plugin;
+            }
+        }
+        if (previous == null && previousVersion.isPresent()) {
+            getLogger().warn("Version {} of {} was not found in {}", previousVersion.get(), pluginId.get(),
+                    updateFile.getOrElse(UploadPluginTask.UPDATE_PLUGINS_FILENAME));
+        }
+        return previous;
+    }
+
+    /**
+     * Compares plugin versions split at '.', '-', '_' and '+'. Numeric parts are compared as numbers and other parts
+     * alphabetically, ignoring case. A non numeric part sorts before a numeric or missing one, so 1.0-beta comes before
+     * 1.0 and 1.0.1, while missing numeric parts count as 0.
+     */
+    static int compareVersions(String first, String second) {
+        String[] firstParts = first.split("[.\\-_+]");
+        String[] secondParts = second.split("[.\\-_+]");
+        for (int i = 0; i < Math.max(firstParts.length, secondParts.length); i++) {
+            String a = i < firstParts.length ? firstParts[i] : "0";
+            String b = i < secondParts.length ? secondParts[i] : "0";
+            boolean aNumeric = isNumeric(a);
+            boolean bNumeric = isNumeric(b);
+            int result;
+            if (aNumeric && bNumeric) {
+                result = new BigInteger(a).compareTo(new BigInteger(b));
+            } else if (aNumeric != bNumeric) {
+                result = aNumeric ? 1 : -1;
+            } else {
+                result = a.compareToIgnoreCase(b);
+            }
+            if (result != 0) {
+                return result;
+            }
+        }
+        return 0;
+    }
+
+    private static boolean isNumeric(String part) {
+        return !part.isEmpty() && part.chars().allMatch(c -> c >= '0' && c <= '9');
+    }
+
+    /**
+     * Reads the blockmap uploaded next to the plugin file of the entry
+     * @return the blockmap, or null if there is none
+     */
+    @Nullable
+    private BlockMap readBlockMap(Repo repo, PluginElement plugin) throws IOException {
+        String fileName = getFileName(plugin.getUrl());
+        if (fileName == null) {
+            return null;
+        }
+        return repo.get(pluginName.get() + "/" + fileName + GenerateBlockMapTask.BLOCKMAP_FILE_SUFFIX, blockmap -> {
+            if (!blockmap.exists()) {
+                return null;
+            }
+            try {
+                return BlockMapDelta.read(blockmap.getInputStream(), GSON);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    /**
+     * @return the unescaped last path segment of the download url, or null if there is none
+     */
+    @Nullable
+    static String getFileName(@Nullable String downloadUrl) {
+        if (downloadUrl == null || downloadUrl.endsWith("/")) {
+            return null;
+        }
+        String escaped = downloadUrl.substring(downloadUrl.lastIndexOf('/') + 1);
+        try {
+            //The url is escaped as a fragment which leaves '+' as is
+            return URLDecoder.decode(escaped.replace("+", "%2B"), StandardCharsets.UTF_8.name());
+        } catch (IllegalArgumentException | IOException e) {
+            return escaped;
+        }
+    }
+
+    public Property<String> getUrl() {
+        return url;
+    }
+
+    public Property<String> getUpdateFile() {
+        return updateFile;
+    }
+
+    public Property<String> getAuthentication() {
+        return authentication;
+    }
+
+    public Property<PluginUploader.RepoType> getRepoType() {
+        return repoType;
+    }
+
+    public Property<String> getPluginName() {
+        return pluginName;
+    }
+
+    public Property<String> getPluginId() {
+        return pluginId;
+    }
+
+    public Property<String> getVersion() {
+        return version;
+    }
+
+    public Property<String> getPreviousVersion() {
+        return previousVersion;
+    }
+
+    public RegularFileProperty getBlockmapFile() {
+        return blockmapFile;
+    }
+
+    public RegularFileProperty getReportFile() {
+        return reportFile;
+    }
+}
@@ -0,0 +1,103 @@
+package dev.bmac.gradle.intellij;
+
+import com.intellij.openapi.util.BuildNumber;
+
+import java.util.Arrays;
+
+/**
+ * Map from build numbers to values, sorted by build number. Keys are kept in parallel arrays of their packed encoding
+ * (see {@link BuildNumber#isPacked()}) so lookups compare primitives, falling back to
+ * {@link BuildNumber#compareTo(BuildNumber)} for build numbers without one.
+ *
+ * Build numbers which compare equal are the same key, putting a value for an equal key replaces the previous value.
+ *
+ * @param <V> type of the values
+ */
+public class BuildNumberMap<V> {
+    private BuildNumber[] keys = new BuildNumber[8];
+    private long[] high = new long[8];
+    private long[] low = new long[8];
+    private Object[] values = new Object[8];
+    private int size;
+
+    /**
+     * @return the previous value of the key, or null if there was none
+     */
+    public V put(BuildNumber key, V value) {
+        int index = indexOf(key);
+        if (index >= 0) {
+            V previous = valueAt(index);
+            keys[index] = key;
+            values[index] = value;
+            return previous;
+        }
+        index = -index - 1;
+        if (size == keys.length) {
+            int capacity = size * 2;
+            keys = Arrays.copyOf(keys, capacity);
+            high = Arrays.copyOf(high, capacity);
+            low = Arrays.copyOf(low, capacity);
+            values = Arrays.copyOf(values, capacity);
+        }
+        System.arraycopy(keys, index, keys, index + 1, size - index);
+        System.arraycopy(high, index, high, index + 1, size - index);
+        System.arraycopy(low, index, low, index + 1, size - index);
+        System.arraycopy(values, index, values, index + 1, size - index);
+        keys[index] = key;
+        high[index] = key.getPackedHigh();
+        low[index] = key.getPackedLow();
+        values[index] = value;
+        size++;
+        return null;
+    }
+
+    /**
+     * @return the position of the key, or (-(insertion point) - 1) if it is not in the map, the same as
+     * {@link Arrays#binarySearch(Object[], Object)}
+     */
+    public int indexOf(BuildNumber key) {
+        int from = 0;
+        int to = size - 1;
+        while (from <= to) {
+            int middle = (from + to) >>> 1;
+            int result = compare(middle, key);
+            if (result < 0) {
+                from = middle + 1;
+            } else if (result > 0) {
+                to = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -(from + 1);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public BuildNumber keyAt(int index) {
+        checkIndex(index);
+        return keys[index];
+    }
+
+    @SuppressWarnings("unchecked")
+    public V valueAt(int index) {
+        checkIndex(index);
+        return (V) values[index];
+    }
+
+    private int compare(int index, BuildNumber key) {
+        if (key.isPacked() && keys[index].isPacked()) {
+            int result = Long.compareUnsigned(high[index], key.getPackedHigh());
+            return result != 0 ? result : Long.compareUnsigned(low[index], key.getPackedLow());
+        }
+        return keys[index].compareTo(key);
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package dev.bmac.gradle.intellij;
+
+import org.gradle.api.GradleException;
+import org.gradle.api.internal.ConventionTask;
+import org.gradle.api.model.ObjectFactory;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.Optional;
+import org.gradle.api.tasks.TaskAction;
+
+import javax.inject.Inject;
+import java.io.IOException;
+
+/**
+ * Folds the fragments published with the FRAGMENTS update mode into updatePlugins.xml. Uses the repository settings
+ * of the uploadPlugin task unless configured otherwise.
+ */
+public class CompactUpdatesTask extends ConventionTask {
+    public static final String TASK_NAME = "compactPluginUpdates";
+
+    //The (encoded) url of the repository where updatePlugins.xml is placed
+    @Input
+    public final Property<String> url;
+    //Name of the plugin update file (optional)
+    @Input
+    @Optional
+    public final Property<String> updateFile;
+    //The authentication header to add (optional)
+    @Input
+    @Optional
+    public final Property<String> authentication;
+    //The type of repository (optional)
+    @Input
+    @Optional
+    public final Property<PluginUploader.RepoType> repoType;
+    //Maximum number of attempts for each repository operation, including the first (optional)
+    @Input
+    @Optional
+    public final Property<Integer> retryMaxAttempts;
+    //Upper bound of the randomized wait after the first failed attempt, doubling for each further attempt (optional)
+    @Input
+    @Optional
+    public final Property<Long> retryInitialDelayMs;
+    //Upper bound of any wait between attempts (optional)
+    @Input
+    @Optional
+    public final Property<Long> retryMaxDelayMs;
+    //Time after the first attempt after which no further attempts are made (optional)
+    @Input
+    @Optional
+    public final Property<Long> retryDeadlineMs;
+
+    @Inject
+    public CompactUpdatesTask(ObjectFactory objectFactory) {
+        url = objectFactory.property(String.class);
+        updateFile = objectFactory.property(String.class);
+        authentication = objectFactory.property(String.class);
+        repoType = objectFactory.property(PluginUploader.RepoType.class);
+        retryMaxAttempts = objectFactory.property(Integer.class);
+        retryInitialDelayMs = objectFactory.property(Long.class);
+        retryMaxDelayMs = objectFactory.property(Long.class);
+        retryDeadlineMs = objectFactory.property(Long.class);
+    }
+
+    @TaskAction
+    public void execute() {
+        String repoUrl = url.get().endsWith("/") ? url.get().substring(0, url.get().length() - 1) : url.get();
+        String update = updateFile.getOrElse(UploadPluginTask.UPDATE_PLUGINS_FILENAME);
+        FragmentCompactor compactor = new FragmentCompactor(PluginUploader.createRepo(repoUrl,
+                authentication.getOrNull(), repoType.getOrElse(PluginUploader.RepoType.REST_POST), getLogger()),
+                update, getLogger());
+        try {
+            compactor.compact(new RetryPolicy(retryMaxAttempts.getOrElse(RetryPolicy.DEFAULT_MAX_ATTEMPTS),
+                    retryInitialDelayMs.getOrElse(RetryPolicy.DEFAULT_INITIAL_DELAY_MS),
+                    retryMaxDelayMs.getOrElse(RetryPolicy.DEFAULT_MAX_DELAY_MS),
+                    retryDeadlineMs.getOrElse(RetryPolicy.DEFAULT_DEADLINE_MS)));
+        } catch (IOException e) {
+            throw new GradleException(e.getMessage(), e);
+        }
+    }
+
+    public Property<String> getUrl() {
+        return url;
+    }
+
+    public Property<String> getUpdateFile() {
+        return updateFile;
+    }
+
+    public Property<String> getAuthentication() {
+        return authentication;
+    }
+
+    public Property<PluginUploader.RepoType> getRepoType() {
+        return repoType;
+    }
+
+    public Property<Integer> getRetryMaxAttempts() {
+        return retryMaxAttempts;
+    }
+
+    public Property<Long> getRetryInitialDelayMs() {
+        return retryInitialDelayMs;
+    }
+
+    public Property<Long> getRetryMaxDelayMs() {
+        return retryMaxDelayMs;
+    }
+
+    public Property<Long> getRetryDeadlineMs() {
+        return retryDeadlineMs;
+    }
+}
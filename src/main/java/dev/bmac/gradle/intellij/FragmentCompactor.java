@@ -0,0 +1,222 @@
+package dev.bmac.gradle.intellij;
+
+import com.github.rholder.retry.RetryException;
+import dev.bmac.gradle.intellij.repos.Repo;
+import dev.bmac.gradle.intellij.xml.PluginElement;
+import dev.bmac.gradle.intellij.xml.PluginsCodec;
+import dev.bmac.gradle.intellij.xml.PluginsElement;
+import org.gradle.api.logging.Logger;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Collectors;
+
+/**
+ * Folds publish fragments into updatePlugins.xml.
+ *
+ * In the FRAGMENTS update mode each publish writes its plugin entry to its own immutable file below
+ * {@code <updateFile>.d/<pluginId>/}, named after the publish time so fragments can be applied in the order they
+ * were published. Compaction applies all pending fragments to updatePlugins.xml with the same rules as a regular
+ * publish, writes it back only if it was not changed in the meantime (ETag) and then deletes the fragments, oldest
+ * first. Applying a fragment a second time gives the same result, so compaction can run concurrently and be retried
+ * after any failure; the worst case is fragments which are applied again by the next compaction.
+ */
+class FragmentCompactor {
+    static final String FRAGMENTS_DIRECTORY_SUFFIX = ".d/";
+
+    private final Repo repo;
+    private final String updateFile;
+    private final Logger logger;
+
+    FragmentCompactor(Repo repo, String updateFile, Logger logger) {
+        this.repo = repo;
+        this.updateFile = updateFile;
+        this.logger = logger;
+    }
+
+    static String getFragmentsDirectory(String updateFile) {
+        return updateFile + FRAGMENTS_DIRECTORY_SUFFIX;
+    }
+
+    static String getPluginFragmentsDirectory(String updateFile, String pluginId) {
+        return getFragmentsDirectory(updateFile) + sanitize(pluginId) + "/";
+    }
+
+    /**
+     * @param publishedAt the publish time in milliseconds, used to order the fragments
+     * @return the path of the fragment for a publish of the plugin version
+     */
+    static String getFragmentPath(String updateFile, String pluginId, String version, long publishedAt) {
+        return getPluginFragmentsDirectory(updateFile, pluginId) + String.format("%013d", publishedAt) + "-" +
+                sanitize(version) + ".xml";
+    }
+
+    /**
+     * @return true if the fragment file is for the plugin version
+     */
+    static boolean isFragmentOf(String fragmentPath, String version) {
+        return fragmentPath.endsWith("-" + sanitize(version) + ".xml");
+    }
+
+    private static String sanitize(String value) {
+        return value.replaceAll("[^A-Za-z0-9._-]", "_");
+    }
+
+    /**
+     * Compacts the pending fragments, retrying when updatePlugins.xml was changed by another process
+     * @return the number of fragments applied
+     */
+    int compact(RetryPolicy retryPolicy) throws IOException {
+        try {
+            return retryPolicy.<Integer>newRetryer(PluginUploader::isRetryable, null).call(this::compactOnce);
+        } catch (ExecutionException | RetryException e) {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            if (e instanceof RetryException && ((RetryException) e).getLastFailedAttempt().hasException()) {
+                cause = ((RetryException) e).getLastFailedAttempt().getExceptionCause();
+            }
+            throw new IOException("Failed to compact " + updateFile + ": " + cause.getMessage(), cause);
+        }
+    }
+
+    /**
+     * Applies the pending fragments once
+     * @return the number of fragments applied
+     * @throws ConflictException if updatePlugins.xml was changed by another process
+     */
+    int compactOnce() throws IOException {
+        //The update file must be read before listing fragments, otherwise fragments deleted by a concurrent compaction
+        //after it wrote the update file could be applied on top of newer fragments.
+        PluginUploader.VersionedUpdates updates = readUpdates();
+        if (updates.exists && updates.eTag == null) {
+            throw new IllegalStateException("The repository did not return an ETag for " + updateFile +
+                    " which is required to compact fragments.");
+        }
+        //Fragments are deleted once updatePlugins.xml is written, a write overwriting a concurrent one would lose them
+        if (!repo.supportsConditionalReplace() || (!updates.exists && !repo.supportsConditionalCreate())) {
+            throw new IllegalStateException("The repository does not reject writes with a stale If-Match ETag or an" +
+                    " If-None-Match precondition, which is required to compact fragments.");
+        }
+        List<String> fragments = listFragments();
+        if (fragments.isEmpty()) {
+            logger.info("No fragments to compact into " + updateFile);
+            return 0;
+        }
+
+        List<String> applied = new ArrayList<>(fragments.size());
+        for (String fragment : fragments) {
+            PluginsElement fragmentPlugins = readFragment(fragment);
+            if (fragmentPlugins == null) {
+                continue;
+            }
+            for (PluginElement plugin : fragmentPlugins.getPlugins()) {
+                PluginUpdatesUtil.updateOrAdd(plugin, updates.plugins.getPlugins(), logger);
+            }
+            applied.add(fragment);
+        }
+
+        File file = writeUpdates(updates.plugins, applied.size());
+        try {
+            if (!repo.conditionalUpload(updateFile, file, "application/xml", updates.exists ? updates.eTag : null)) {
+                throw new ConflictException(updateFile + " was modified by another process while compacting it.");
+            }
+        } finally {
+            file.delete();
+        }
+        logger.lifecycle("Compacted " + applied.size() + " fragments into " + updateFile);
+
+        for (String fragment : applied) {
+            try {
+                repo.delete(fragment);
+            } catch (IOException e) {
+                //Newer fragments must not be deleted before older ones, they will be applied again next time
+                logger.warn("Failed to delete compacted fragment " + fragment + ", it will be applied again by the next" +
+                        " compaction", e);
+                break;
+            }
+        }
+        return applied.size();
+    }
+
+    /**
+     * @return the fragment paths, oldest first
+     */
+    List<String> listFragments() throws IOException {
+        return repo.list(getFragmentsDirectory(updateFile)).stream()
+                .filter(path -> path.endsWith(".xml"))
+                .sorted(Comparator.comparing((String path) -> path.substring(path.lastIndexOf('/') + 1))
+                        .thenComparing(Comparator.naturalOrder()))
+                .collect(Collectors.toList());
+    }
+
+    private PluginUploader.VersionedUpdates readUpdates() throws IOException {
+        return repo.get(updateFile, update -> {
+            if (!update.exists()) {
+                return new PluginUploader.VersionedUpdates(new PluginsElement(), false, null);
+            }
+            try {
+                return new PluginUploader.VersionedUpdates(PluginsCodec.get().read(update.getInputStream()),
+                        true, update.getETag());
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+    }
+
+    private PluginsElement readFragment(String fragment) throws IOException {
+        try {
+            return repo.get(fragment, object -> {
+                if (!object.exists()) {
+                    //Compacted by another process since it was listed
+                    return null;
+                }
+                try {
+                    return PluginsCodec.get().read(object.getInputStream());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            logger.error("Skipping fragment " + fragment + " which could not be read", e.getCause());
+            return null;
+        }
+    }
+
+    private File writeUpdates(PluginsElement updates, int fragments) throws IOException {
+        File file = File.createTempFile("updatePlugins", null);
+        file.deleteOnExit();
+
+        try (FileWriter fw = new FileWriter(file)) {
+            DateFormat df = new SimpleDateFormat("yyyy-MM-dd hh:mm:ss z");
+            df.setTimeZone(TimeZone.getTimeZone("GMT"));
+            fw.append("<!-- File updated on ")
+                    .append(df.format(new Date()))
+                    .append(" compacting ")
+                    .append(String.valueOf(fragments))
+                    .append(" fragments using plugin uploader version ")
+                    .append(PluginUploader.getPluginVersion())
+                    .append(" -->\n");
+
+            PluginsCodec.get().write(updates, fw);
+        }
+        return file;
+    }
+
+    /**
+     * Thrown when updatePlugins.xml was modified while compacting, compaction should be retried
+     */
+    static class ConflictException extends IOException {
+        ConflictException(String message) {
+            super(message);
+        }
+    }
+}
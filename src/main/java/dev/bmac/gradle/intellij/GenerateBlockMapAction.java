@@ -0,0 +1,129 @@
+package dev.bmac.gradle.intellij;
+
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.gson.Gson;
+import com.jetbrains.plugin.blockmap.core.BlockMap;
+import com.jetbrains.plugin.blockmap.core.FileHash;
+import org.gradle.api.GradleException;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.gradle.api.provider.Property;
+import org.gradle.workers.WorkAction;
+import org.gradle.workers.WorkParameters;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Generates the blockmap and hash file of the generateBlockMap task, run through the Gradle worker API
+ */
+public abstract class GenerateBlockMapAction implements WorkAction<GenerateBlockMapAction.Parameters> {
+    private static final Logger LOGGER = Logging.getLogger(GenerateBlockMapAction.class);
+    private static final int READ_BLOCK_SIZE = 1024 * 1024;
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+    private static final Gson GSON = new Gson();
+
+    public interface Parameters extends WorkParameters {
+        RegularFileProperty getFile();
+
+        RegularFileProperty getBlockmapFile();
+
+        RegularFileProperty getBlockmapHashFile();
+
+        Property<Integer> getParallelism();
+
+        Property<Integer> getCompressionLevel();
+    }
+
+    @Override
+    public void execute() {
+        Parameters parameters = getParameters();
+        File inputFile = parameters.getFile().getAsFile().get();
+        try {
+            if (parameters.getParallelism().get() > 1) {
+                LOGGER.warn("The parallelism of generateBlockMap is no longer used, the chunks of {} are hashed on"
+                        + " one thread", inputFile);
+            }
+            generate(inputFile, parameters.getCompressionLevel().get(),
+                    parameters.getBlockmapFile().getAsFile().get(), parameters.getBlockmapHashFile().getAsFile().get());
+        } catch (Exception e) {
+            Throwables.throwIfUnchecked(e);
+            throw new GradleException("Failed to generate the blockmap of " + inputFile, e);
+        }
+    }
+
+    static void generate(File inputFile, int compressionLevel, File blockmapFile, File hashFile)
+            throws Exception {
+        BlockMap blockMap;
+        FileHash fh;
+        //The file is read once, the file hash is computed on another thread alongside the blockmap
+        ExecutorService executor = Executors.newSingleThreadExecutor(
+                new ThreadFactoryBuilder().setNameFormat("blockmap-file-hash-%d").setDaemon(true).build());
+        try (FileChannel channel = FileChannel.open(inputFile.toPath(), StandardOpenOption.READ);
+             TeeInputStream in = new TeeInputStream(channel, READ_BLOCK_SIZE)) {
+            Future<FileHash> fileHash = executor.submit(() -> {
+                try (InputStream branch = in.getBranch()) {
+                    return new FileHash(branch, GenerateBlockMapTask.ALGORITHM);
+                }
+            });
+            blockMap = new BlockMap(in, GenerateBlockMapTask.ALGORITHM);
+            in.finish();
+            try {
+                fh = fileHash.get();
+            } catch (ExecutionException e) {
+                Throwables.throwIfInstanceOf(e.getCause(), Exception.class);
+                throw e;
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        writeBlockMap(blockMap, blockmapFile, compressionLevel);
+        writeFileHash(fh, hashFile);
+    }
+
+    /**
+     * Writes the blockmap archive, the same blockmap always gives the same bytes so the output can be cached
+     */
+    static void writeBlockMap(BlockMap blockMap, File target, int compressionLevel) throws IOException {
+        //Buffered on both sides of the deflater, which writes in small blocks
+        try (ZipOutputStream zos = new ZipOutputStream(
+                new BufferedOutputStream(new FileOutputStream(target), WRITE_BUFFER_SIZE));
+             Writer writer = new BufferedWriter(new OutputStreamWriter(zos, StandardCharsets.UTF_8),
+                     WRITE_BUFFER_SIZE)) {
+            zos.setLevel(compressionLevel);
+            ZipEntry zipEntry = new ZipEntry(GenerateBlockMapTask.BLOCKMAP_ENTRY_NAME);
+            //Rather than the current time
+            zipEntry.setTimeLocal(ZipNormalizer.ENTRY_TIME);
+            zos.putNextEntry(zipEntry);
+            //Serialized from the object rather than through a JSON tree, the chunks are still all held in memory
+            GSON.toJson(blockMap, BlockMap.class, writer);
+        }
+    }
+
+    static void writeFileHash(FileHash fileHash, File target) throws IOException {
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(target),
+                StandardCharsets.UTF_8))) {
+            GSON.toJson(fileHash, writer);
+        }
+    }
+
+}
@@ -1,20 +1,15 @@
 package dev.bmac.gradle.intellij;
 
-import com.google.gson.Gson;
-import com.jetbrains.plugin.blockmap.core.BlockMap;
-import com.jetbrains.plugin.blockmap.core.FileHash;
 import org.gradle.api.file.RegularFileProperty;
 import org.gradle.api.internal.ConventionTask;
 import org.gradle.api.model.ObjectFactory;
+import org.gradle.api.provider.Property;
 import org.gradle.api.tasks.*;
+import org.gradle.workers.WorkerExecutor;
 
 import javax.inject.Inject;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.OutputStreamWriter;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
+import java.util.zip.Deflater;
 
 /**
  * Gradle task to generate a blockmap and hash file to be uploaded in the uploadPlugin task.
@@ -29,11 +24,9 @@ public class GenerateBlockMapTask extends ConventionTask {
     static final String ALGORITHM = "SHA-256";
     static final String BLOCKMAP_ENTRY_NAME = "blockmap.json";
 
-    private static final Gson GSON = new Gson();
-
-    //The plugin file to upload
+    //The plugin file to upload, only its content changes the outputs
     @InputFile
-    @PathSensitive(PathSensitivity.RELATIVE)
+    @PathSensitive(PathSensitivity.NONE)
     public final RegularFileProperty file;
 
     @OutputFile
@@ -42,8 +35,22 @@ public class GenerateBlockMapTask extends ConventionTask {
     @OutputFile
     public final RegularFileProperty blockmapHashFile;
 
+    /**
+     * @deprecated the chunks are hashed by the blockmap library on one thread, values above 1 only log a warning
+     */
+    @Internal
+    @Deprecated
+    public final Property<Integer> parallelism;
+    //Deflate level of the blockmap archive (optional)
+    @Input
+    @Optional
+    public final Property<Integer> compressionLevel;
+
+    private final WorkerExecutor workerExecutor;
+
     @Inject
-    public GenerateBlockMapTask(ObjectFactory objectFactory) {
+    public GenerateBlockMapTask(ObjectFactory objectFactory, WorkerExecutor workerExecutor) {
+        this.workerExecutor = workerExecutor;
         file = objectFactory.fileProperty();
 
         blockmapFile = objectFactory.fileProperty()
@@ -57,23 +64,21 @@ public class GenerateBlockMapTask extends ConventionTask {
                     File inputFile = file.get().getAsFile();
                     return new File(inputFile.getParent(), inputFile.getName() + HASH_FILE_SUFFIX);
                 })));
+
+        parallelism = objectFactory.property(Integer.class).convention(1);
+        compressionLevel = objectFactory.property(Integer.class).convention(Deflater.DEFAULT_COMPRESSION);
     }
 
     @TaskAction
-    public void execute() throws Exception {
-        BlockMap bm = new BlockMap(new FileInputStream(file.getAsFile().get()), ALGORITHM);
-        try (ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(blockmapFile.getAsFile().get()));
-             OutputStreamWriter osw = new OutputStreamWriter(zos)) {
-            ZipEntry zipEntry = new ZipEntry(BLOCKMAP_ENTRY_NAME);
-            zos.putNextEntry(zipEntry);
-            GSON.toJson(bm, osw);
-        }
-
-        FileHash fh = new FileHash(new FileInputStream(file.getAsFile().get()), ALGORITHM);
-        try (FileOutputStream fos = new FileOutputStream(blockmapHashFile.getAsFile().get());
-            OutputStreamWriter osw = new OutputStreamWriter(fos)) {
-            GSON.toJson(fh, osw);
-        }
+    public void execute() {
+        //Hashed on a worker so other tasks, and the blockmaps of other plugins, can run meanwhile
+        workerExecutor.noIsolation().submit(GenerateBlockMapAction.class, parameters -> {
+            parameters.getFile().set(file);
+            parameters.getBlockmapFile().set(blockmapFile);
+            parameters.getBlockmapHashFile().set(blockmapHashFile);
+            parameters.getParallelism().set(parallelism);
+            parameters.getCompressionLevel().set(compressionLevel);
+        });
     }
 
     public RegularFileProperty getFile() {
@@ -87,4 +92,13 @@ public class GenerateBlockMapTask extends ConventionTask {
     public RegularFileProperty getBlockmapHashFile() {
         return blockmapHashFile;
     }
+
+    @Deprecated
+    public Property<Integer> getParallelism() {
+        return parallelism;
+    }
+
+    public Property<Integer> getCompressionLevel() {
+        return compressionLevel;
+    }
 }
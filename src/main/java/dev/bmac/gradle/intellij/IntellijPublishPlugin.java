@@ -2,6 +2,7 @@ package dev.bmac.gradle.intellij;
 
 import org.gradle.api.Plugin;
 import org.gradle.api.Project;
+import org.gradle.api.provider.Provider;
 import org.gradle.api.tasks.TaskProvider;
 
 /**
@@ -17,15 +18,44 @@ public class IntellijPublishPlugin implements Plugin<Project> {
                 project.getTasks().register(PluginUploader.TASK_NAME, UploadPluginTask.class);
         TaskProvider<GenerateBlockMapTask> generateBlockMapTaskTaskProvider =
                 project.getTasks().register(GenerateBlockMapTask.TASK_NAME, GenerateBlockMapTask.class);
+        Provider<PublishCoordinatorService> publishCoordinator = project.getGradle().getSharedServices()
+                .registerIfAbsent(PublishCoordinatorService.SERVICE_NAME, PublishCoordinatorService.class, spec -> {});
 
         uploadPluginTaskTaskProvider.configure(it -> {
             it.dependsOn(generateBlockMapTaskTaskProvider);
             it.blockmapFile.set(generateBlockMapTaskTaskProvider.get().blockmapFile);
             it.blockmapHashFile.set(generateBlockMapTaskTaskProvider.get().blockmapHashFile);
+            it.publishCoordinator.set(publishCoordinator);
+            it.usesService(publishCoordinator);
         });
 
         generateBlockMapTaskTaskProvider.configure(it -> {
             it.file.set(uploadPluginTaskTaskProvider.get().file);
         });
+
+        project.getTasks().register(CompactUpdatesTask.TASK_NAME, CompactUpdatesTask.class, it -> {
+            it.url.convention(uploadPluginTaskTaskProvider.flatMap(upload -> upload.url));
+            it.updateFile.convention(uploadPluginTaskTaskProvider.flatMap(upload -> upload.updateFile));
+            it.authentication.convention(uploadPluginTaskTaskProvider.flatMap(upload -> upload.authentication));
+            it.repoType.convention(uploadPluginTaskTaskProvider.flatMap(upload -> upload.repoType));
+            it.retryMaxAttempts.convention(uploadPluginTaskTaskProvider.flatMap(upload -> upload.retryMaxAttempts));
+            it.retryInitialDelayMs.convention(uploadPluginTaskTaskProvider.flatMap(upload -> upload.retryInitialDelayMs));
+            it.retryMaxDelayMs.convention(uploadPluginTaskTaskProvider.flatMap(upload -> upload.retryMaxDelayMs));
+            it.retryDeadlineMs.convention(uploadPluginTaskTaskProvider.flatMap(upload -> upload.retryDeadlineMs));
+        });
+
+        //Optional, the normalized file has to be set as the file of uploadPlugin
+        project.getTasks().register(NormalizeArchiveTask.TASK_NAME, NormalizeArchiveTask.class);
+
+        project.getTasks().register(BlockMapDeltaTask.TASK_NAME, BlockMapDeltaTask.class, it -> {
+            it.url.convention(uploadPluginTaskTaskProvider.flatMap(upload -> upload.url));
+            it.updateFile.convention(uploadPluginTaskTaskProvider.flatMap(upload -> upload.updateFile));
+            it.authentication.convention(uploadPluginTaskTaskProvider.flatMap(upload -> upload.authentication));
+            it.repoType.convention(uploadPluginTaskTaskProvider.flatMap(upload -> upload.repoType));
+            it.pluginName.convention(uploadPluginTaskTaskProvider.flatMap(upload -> upload.pluginName));
+            it.pluginId.convention(uploadPluginTaskTaskProvider.flatMap(upload -> upload.pluginId));
+            it.version.convention(uploadPluginTaskTaskProvider.flatMap(upload -> upload.version));
+            it.blockmapFile.convention(generateBlockMapTaskTaskProvider.flatMap(generate -> generate.blockmapFile));
+        });
     }
 }
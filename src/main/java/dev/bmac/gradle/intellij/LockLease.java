@@ -0,0 +1,148 @@
+package dev.bmac.gradle.intellij;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import javax.annotation.Nullable;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.time.Instant;
+
+/**
+ * Content of the updatePlugins.xml lock file. The lock is a lease owned by one process which is valid for ttl
+ * milliseconds after it was last renewed. The owner renews the lease while it holds the lock, so a lease which was not
+ * renewed in time belongs to a process which died and can be taken over by another process.
+ *
+ * Locks written by older versions of this plugin only contain the lock id. Those are parsed as leases which never
+ * expire, keeping the previous behaviour of requiring them to be deleted manually.
+ */
+class LockLease {
+    private static final Gson GSON = new Gson();
+
+    private String id;
+    private String owner;
+    private long acquiredAt;
+    //Renewed by the heartbeat while the lock is held
+    private volatile long renewedAt;
+    private long ttl;
+    //The ETag of the lock file this lease was read from, not part of the lock content
+    private transient String eTag;
+    //Set when another process took over the lock while this process held it
+    private transient volatile boolean lost;
+
+    private LockLease(String id, String owner, long acquiredAt, long renewedAt, long ttl) {
+        this.id = id;
+        this.owner = owner;
+        this.acquiredAt = acquiredAt;
+        this.renewedAt = renewedAt;
+        this.ttl = ttl;
+    }
+
+    /**
+     * Creates a new lease owned by this process
+     * @param id the lock id
+     * @param ttl milliseconds the lease is valid for after it was acquired or renewed
+     * @param now the current time in milliseconds
+     */
+    static LockLease create(String id, long ttl, long now) {
+        return new LockLease(id, getOwnerName(), now, now, ttl);
+    }
+
+    /**
+     * Parses the lock file content
+     * @param content the content of the lock file
+     * @param eTag the ETag of the lock file if known
+     */
+    static LockLease parse(String content, @Nullable String eTag) {
+        LockLease lease = null;
+        if (content.trim().startsWith("{")) {
+            try {
+                lease = GSON.fromJson(content, LockLease.class);
+            } catch (JsonParseException e) {
+                //Fall through and treat the content as a legacy lock id
+            }
+        }
+        if (lease == null || lease.id == null) {
+            lease = new LockLease(content, null, 0, 0, 0);
+        }
+        lease.eTag = eTag;
+        return lease;
+    }
+
+    String getId() {
+        return id;
+    }
+
+    @Nullable
+    String getOwner() {
+        return owner;
+    }
+
+    @Nullable
+    String getETag() {
+        return eTag;
+    }
+
+    long getTtl() {
+        return ttl;
+    }
+
+    /**
+     * @return true if the lease has a ttl and was not renewed within it
+     */
+    boolean isExpired(long now) {
+        return ttl > 0 && now - renewedAt > ttl;
+    }
+
+    /**
+     * @return true if both leases are for the same lock
+     */
+    boolean isSameLock(@Nullable LockLease other) {
+        return other != null && id.equals(other.id);
+    }
+
+    void renew(long now) {
+        renewedAt = now;
+    }
+
+    /**
+     * @return a copy of this lease renewed at the given time, to write before renewing this lease
+     */
+    LockLease renewedAt(long now) {
+        return new LockLease(id, owner, acquiredAt, now, ttl);
+    }
+
+    /**
+     * Marks the lease as taken over by another process, the lock must no longer be used
+     */
+    void markLost() {
+        lost = true;
+    }
+
+    boolean isLost() {
+        return lost;
+    }
+
+    String serialize() {
+        return GSON.toJson(this);
+    }
+
+    @Override
+    public String toString() {
+        if (ttl <= 0) {
+            return "lock " + id;
+        }
+        return "lock " + id + " owned by " + owner + " acquired at " + Instant.ofEpochMilli(acquiredAt) +
+                " and last renewed at " + Instant.ofEpochMilli(renewedAt);
+    }
+
+    static String getOwnerName() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            host = "unknown";
+        }
+        return System.getProperty("user.name") + "@" + host;
+    }
+}
@@ -0,0 +1,273 @@
+package dev.bmac.gradle.intellij;
+
+import com.google.common.io.ByteSource;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import dev.bmac.gradle.intellij.repos.Repo;
+import org.gradle.api.logging.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Predicate;
+
+/**
+ * A queue of processes waiting for the updatePlugins.xml lock, stored as a single object next to the lock. Waiters add
+ * a ticket to the end of the queue and only the process at the head of the queue tries to take the lock, so processes
+ * get the lock in the order they arrived instead of whoever happens to poll at the right time.
+ *
+ * Every change to the queue is a compare-and-set of the whole object using conditional writes, so the repository
+ * must support them. Waiters refresh the heartbeat of their ticket while polling and the process at the head refreshes
+ * it with {@link #refresh} until it leaves the queue, tickets which were not refreshed within the ttl belong to
+ * processes which died and are removed by the other waiters. Whether a ticket was refreshed is judged by when this
+ * process saw its heartbeat change, as the clocks of other machines may differ from this one. The queue only orders
+ * the waiters, the lock itself still guarantees exclusive access.
+ */
+class LockQueue {
+    static final String QUEUE_FILE_EXTENSION = ".queue";
+    //Attempts at writing the queue before giving up, each failed attempt means another process changed the queue
+    private static final int MAX_UPDATE_ATTEMPTS = 100;
+    private static final Gson GSON = new Gson();
+
+    private final Repo repo;
+    private final String path;
+    private final long ticketTtlMs;
+    private final long pollIntervalMs;
+    private final Logger logger;
+    //When this process last saw the heartbeat of each ticket change, measured by its own clock
+    private final Map<String, Observation> observed = new HashMap<>();
+
+    /**
+     * @param repo the repository the queue is stored in
+     * @param path the path of the queue object
+     * @param ticketTtlMs time after which a ticket which was not refreshed is removed
+     * @param pollIntervalMs time between checks of the queue while waiting
+     */
+    LockQueue(Repo repo, String path, long ticketTtlMs, long pollIntervalMs, Logger logger) {
+        this.repo = repo;
+        this.path = path;
+        this.ticketTtlMs = ticketTtlMs;
+        this.pollIntervalMs = pollIntervalMs;
+        this.logger = logger;
+    }
+
+    /**
+     * Adds a new ticket to the end of the queue
+     * @return the ticket of this process
+     */
+    Ticket enqueue() throws IOException {
+        long now = System.currentTimeMillis();
+        Ticket ticket = new Ticket(UUID.randomUUID().toString(), now);
+        update(queue -> {
+            queue.tickets.add(ticket);
+            return true;
+        });
+        return ticket;
+    }
+
+    /**
+     * Waits until the ticket is at the head of the queue. Stale tickets are removed and the heartbeat of this ticket
+     * is refreshed while waiting.
+     * @param timeoutMs the maximum time to wait
+     * @throws TimeoutException if the ticket did not reach the head of the queue in time
+     */
+    void awaitTurn(Ticket ticket, long timeoutMs) throws IOException, InterruptedException, TimeoutException {
+        long start = System.currentTimeMillis();
+        int lastPosition = -1;
+        while (true) {
+            long now = System.currentTimeMillis();
+            Queue queue = update(current -> {
+                boolean changed = current.tickets.removeIf(t -> !t.id.equals(ticket.id) && isStale(t, now));
+                Ticket own = current.find(ticket.id);
+                if (own == null) {
+                    //Another process considered this ticket stale, rejoin at the end of the queue
+                    logger.warn("Ticket " + ticket.id + " was removed from the lock queue, rejoining the queue");
+                    ticket.heartbeatAt = now;
+                    current.tickets.add(ticket);
+                    changed = true;
+                } else if (now - own.heartbeatAt >= ticketTtlMs / 3) {
+                    own.heartbeatAt = now;
+                    changed = true;
+                }
+                return changed;
+            });
+            observed.keySet().removeIf(id -> queue.find(id) == null);
+            int position = queue.indexOf(ticket.id);
+            if (position == 0) {
+                return;
+            }
+            if (position != lastPosition) {
+                logger.lifecycle("Waiting for the " + path + " lock, " + position + " ahead in the queue");
+                lastPosition = position;
+            }
+            if (System.currentTimeMillis() - start >= timeoutMs) {
+                throw new TimeoutException("Timed out waiting for the " + path + " lock with " + position +
+                        " ahead in the queue");
+            }
+            Thread.sleep(pollIntervalMs);
+        }
+    }
+
+    /**
+     * Refreshes the heartbeat of the ticket, which must be done periodically once it is at the head of the queue so
+     * other waiters do not remove it as stale while the lock is held
+     */
+    void refresh(Ticket ticket) throws IOException {
+        long now = System.currentTimeMillis();
+        update(queue -> {
+            Ticket own = queue.find(ticket.id);
+            if (own == null) {
+                logger.warn("Ticket " + ticket.id + " was removed from the lock queue while at its head");
+                return false;
+            }
+            own.heartbeatAt = now;
+            return true;
+        });
+    }
+
+    /**
+     * @return true if the heartbeat of the ticket did not change for the ttl since this process first saw its current
+     * value. Only the clock of this process is used, the heartbeat is only compared for changes.
+     */
+    private boolean isStale(Ticket ticket, long now) {
+        Observation observation = observed.get(ticket.id);
+        if (observation == null || observation.heartbeatAt != ticket.heartbeatAt) {
+            observed.put(ticket.id, new Observation(ticket.heartbeatAt, now));
+            return false;
+        }
+        return now - observation.seenAt > ticketTtlMs;
+    }
+
+    /**
+     * Removes the ticket from the queue
+     */
+    void dequeue(Ticket ticket) throws IOException {
+        update(queue -> queue.tickets.removeIf(t -> t.id.equals(ticket.id)));
+    }
+
+    /**
+     * Applies the change to the latest queue and writes it back if it was not modified in the meantime, repeating
+     * until the write succeeds.
+     * @param change modifies the queue and returns true if it needs to be written
+     * @return the queue after the change
+     */
+    private Queue update(Predicate<Queue> change) throws IOException {
+        for (int attempt = 0; attempt < MAX_UPDATE_ATTEMPTS; attempt++) {
+            Queue queue = read();
+            if (!change.test(queue)) {
+                return queue;
+            }
+            if (write(queue)) {
+                return queue;
+            }
+            logger.debug("Lock queue was modified by another process, retrying");
+        }
+        throw new IOException("Failed to update " + path + " after " + MAX_UPDATE_ATTEMPTS + " attempts");
+    }
+
+    private Queue read() throws IOException {
+        try {
+            return repo.get(path, object -> {
+                if (!object.exists()) {
+                    return new Queue();
+                }
+                ByteSource bs = new ByteSource() {
+                    @Override
+                    public InputStream openStream() {
+                        return object.getInputStream();
+                    }
+                };
+                Queue queue;
+                try {
+                    queue = GSON.fromJson(bs.asCharSource(StandardCharsets.UTF_8).read(), Queue.class);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                } catch (JsonParseException e) {
+                    logger.warn("Lock queue " + path + " is corrupt, replacing it", e);
+                    queue = null;
+                }
+                if (queue == null) {
+                    queue = new Queue();
+                }
+                if (queue.tickets == null) {
+                    queue.tickets = new ArrayList<>();
+                }
+                queue.exists = true;
+                queue.eTag = object.getETag();
+                return queue;
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private boolean write(Queue queue) throws IOException {
+        if (queue.exists && queue.eTag == null) {
+            throw new IOException("The repository did not return an ETag for " + path +
+                    ", the lock queue requires conditional writes");
+        }
+        File queueFile = Files.createTempFile("lock", "queue").toFile();
+        try {
+            Files.write(queueFile.toPath(), GSON.toJson(queue).getBytes(StandardCharsets.UTF_8));
+            return repo.conditionalUpload(path, queueFile, "application/json", queue.exists ? queue.eTag : null);
+        } finally {
+            queueFile.delete();
+        }
+    }
+
+    static class Ticket {
+        private String id;
+        private String owner;
+        private long enqueuedAt;
+        private long heartbeatAt;
+
+        private Ticket(String id, long now) {
+            this.id = id;
+            this.owner = LockLease.getOwnerName();
+            this.enqueuedAt = now;
+            this.heartbeatAt = now;
+        }
+
+        String getId() {
+            return id;
+        }
+    }
+
+    private static class Observation {
+        private final long heartbeatAt;
+        private final long seenAt;
+
+        private Observation(long heartbeatAt, long seenAt) {
+            this.heartbeatAt = heartbeatAt;
+            this.seenAt = seenAt;
+        }
+    }
+
+    private static class Queue {
+        private List<Ticket> tickets = new ArrayList<>();
+        private transient boolean exists;
+        private transient String eTag;
+
+        private Ticket find(String id) {
+            return tickets.stream().filter(t -> t.id.equals(id)).findFirst().orElse(null);
+        }
+
+        private int indexOf(String id) {
+            for (int i = 0; i < tickets.size(); i++) {
+                if (tickets.get(i).id.equals(id)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+}
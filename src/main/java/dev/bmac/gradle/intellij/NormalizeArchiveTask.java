@@ -0,0 +1,79 @@
+package dev.bmac.gradle.intellij;
+
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.internal.ConventionTask;
+import org.gradle.api.model.ObjectFactory;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.CacheableTask;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputFile;
+import org.gradle.api.tasks.Optional;
+import org.gradle.api.tasks.OutputFile;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
+import org.gradle.api.tasks.TaskAction;
+
+import javax.inject.Inject;
+import java.io.File;
+import java.util.zip.Deflater;
+
+/**
+ * Gradle task rewriting the plugin archive so unchanged content gives the same bytes in every version, letting the
+ * blockmap of the next version reuse more of it. Not part of uploadPlugin by default, the normalized file has to be
+ * used as the file of uploadPlugin (and signed after normalizing if the plugin is signed).
+ */
+@CacheableTask
+public class NormalizeArchiveTask extends ConventionTask {
+
+    public static final String TASK_NAME = "normalizePluginArchive";
+
+    //The plugin archive to normalize
+    @InputFile
+    @PathSensitive(PathSensitivity.NONE)
+    public final RegularFileProperty file;
+    //Deflate level of the entries which are compressed (optional)
+    @Input
+    @Optional
+    public final Property<Integer> compressionLevel;
+    //Stores nested jars and zips uncompressed so they are the same bytes when unchanged (optional)
+    @Input
+    @Optional
+    public final Property<Boolean> storeArchives;
+
+    @OutputFile
+    public final RegularFileProperty normalizedFile;
+
+    @Inject
+    public NormalizeArchiveTask(ObjectFactory objectFactory) {
+        file = objectFactory.fileProperty();
+        compressionLevel = objectFactory.property(Integer.class).convention(Deflater.DEFAULT_COMPRESSION);
+        storeArchives = objectFactory.property(Boolean.class).convention(true);
+
+        normalizedFile = objectFactory.fileProperty()
+                .convention(getProject().getLayout().getBuildDirectory().file(file.map(regularFile ->
+                        "normalized/" + regularFile.getAsFile().getName())));
+    }
+
+    @TaskAction
+    public void execute() throws Exception {
+        File target = normalizedFile.getAsFile().get();
+        target.getParentFile().mkdirs();
+        new ZipNormalizer(compressionLevel.get(), storeArchives.get()).normalize(file.getAsFile().get(), target);
+    }
+
+    public RegularFileProperty getFile() {
+        return file;
+    }
+
+    public Property<Integer> getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    public Property<Boolean> getStoreArchives() {
+        return storeArchives;
+    }
+
+    public RegularFileProperty getNormalizedFile() {
+        return normalizedFile;
+    }
+}
@@ -1,20 +1,13 @@
 package dev.bmac.gradle.intellij;
 
 import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
 import com.intellij.openapi.util.BuildNumber;
 import dev.bmac.gradle.intellij.xml.IdeaVersionElement;
 import dev.bmac.gradle.intellij.xml.PluginElement;
-import dev.bmac.gradle.intellij.xml.PluginsElement;
+import dev.bmac.gradle.intellij.xml.PluginList;
 import org.gradle.api.logging.Logger;
 
-import javax.xml.bind.JAXBContext;
-import javax.xml.bind.JAXBException;
-import javax.xml.bind.Marshaller;
-import javax.xml.bind.Unmarshaller;
-import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 import java.util.Objects;
 
 /**
@@ -22,23 +15,6 @@ import java.util.Objects;
  */
 public class PluginUpdatesUtil {
     public static final BuildNumber MIN_VERSION = Objects.requireNonNull(BuildNumber.fromString("193.2956.37"));
-    public static final Marshaller MARSHALLER;
-    public static final Unmarshaller UNMARSHALLER;
-
-    static {
-        try {
-            JAXBContext contextObj = JAXBContext.newInstance(PluginsElement.class);
-            MARSHALLER = contextObj.createMarshaller();
-            MARSHALLER.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
-            MARSHALLER.setProperty(Marshaller.JAXB_FRAGMENT, Boolean.TRUE);
-
-            UNMARSHALLER = contextObj.createUnmarshaller();
-        } catch (JAXBException e) {
-            throw new RuntimeException(e);
-        }
-    }
-
-
 
     /**
      * Updates or adds a plugin entry to the repo list. This has two different strategies based on the since-build of
@@ -94,7 +70,7 @@ public class PluginUpdatesUtil {
             plugins.add(plugin);
         } else {
             boolean addEntry = true;
-            Map<BuildNumber, PluginElement> buildNumberMap = Maps.newHashMap();
+            BuildNumberMap<PluginElement> buildNumberMap = new BuildNumberMap<>();
             for (Integer existingPosition : existingEntries) {
                 PluginElement existingPlugin = plugins.get(existingPosition);
                 //The same since since-build version or null version info (singly entry mode)
@@ -122,20 +98,11 @@ public class PluginUpdatesUtil {
 
             logger.debug("Creating new plugin version and updating existing entries to ensure no version conflict (if any exist)");
 
-            ArrayList<BuildNumber> buildNumbers = new ArrayList<>(buildNumberMap.keySet());
-            buildNumbers.add(plugin.getVersionInfo().getSinceBuild());
-            buildNumbers.sort(BuildNumber::compareTo);
-            int position = 0;
-            for (BuildNumber bn : buildNumbers) {
-                if (bn.equals(plugin.getVersionInfo().getSinceBuild())) {
-                    break;
-                }
-                position++;
-            }
+            //Entries with the same since-build were updated above, so it is not in the map
+            int position = -buildNumberMap.indexOf(plugin.getVersionInfo().getSinceBuild()) - 1;
 
             if (position > 0) {
-                BuildNumber prior = buildNumbers.get(position - 1);
-                PluginElement priorPlugin = buildNumberMap.get(prior);
+                PluginElement priorPlugin = buildNumberMap.valueAt(position - 1);
                 if (priorPlugin.getVersionInfo().getUntilBuild() == null ||
                                 priorPlugin.getVersionInfo().getUntilBuild().compareTo(plugin.getVersionInfo().getSinceBuild()) >= 0) {
                     BuildNumber priorUntil = plugin.getVersionInfo().getSinceBuild().minusOne();
@@ -144,9 +111,9 @@ public class PluginUpdatesUtil {
                     priorPlugin.getVersionInfo().setUntilBuild(priorUntil);
                 }
             }
-            if (position < buildNumbers.size() - 1) {
-                BuildNumber after = buildNumbers.get(position + 1);
-                PluginElement afterPlugin = buildNumberMap.get(after);
+            if (position < buildNumberMap.size()) {
+                BuildNumber after = buildNumberMap.keyAt(position);
+                PluginElement afterPlugin = buildNumberMap.valueAt(position);
                 if (plugin.getVersionInfo().getUntilBuild() == null ||
                         plugin.getVersionInfo().getUntilBuild().compareTo(after) >= 0) {
                     BuildNumber afterPrior = after.minusOne();
@@ -171,6 +138,9 @@ public class PluginUpdatesUtil {
     }
 
     private static List<Integer> getExistingEntries(PluginElement pluginElement, List<PluginElement> plugins) {
+        if (plugins instanceof PluginList) {
+            return ((PluginList) plugins).positionsOf(pluginElement.getId());
+        }
         List<Integer> entries = Lists.newArrayList();
         for (int i = 0; i < plugins.size(); i++) {
             if (plugins.get(i).getId().equals(pluginElement.getId())) {
@@ -4,39 +4,57 @@ import com.github.rholder.retry.Attempt;
 import com.github.rholder.retry.RetryException;
 import com.github.rholder.retry.RetryListener;
 import com.github.rholder.retry.Retryer;
-import com.github.rholder.retry.RetryerBuilder;
-import com.github.rholder.retry.StopStrategies;
-import com.github.rholder.retry.WaitStrategies;
+import com.google.common.collect.Lists;
 import com.google.common.io.ByteSource;
+import com.google.common.io.ByteStreams;
 import com.google.common.io.CharStreams;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.sun.istack.Nullable;
 import dev.bmac.gradle.intellij.repos.Repo;
+import dev.bmac.gradle.intellij.repos.RepoException;
 import dev.bmac.gradle.intellij.repos.RestRepo;
 import dev.bmac.gradle.intellij.repos.S3Repo;
 import dev.bmac.gradle.intellij.xml.PluginElement;
+import dev.bmac.gradle.intellij.xml.PluginsCodec;
 import dev.bmac.gradle.intellij.xml.PluginsElement;
+import dev.bmac.gradle.intellij.xml.PluginsPatchReader;
+import dev.bmac.gradle.intellij.xml.StaxPluginsCodec;
 import org.gradle.api.GradleException;
 import org.gradle.api.logging.Logger;
 import org.jetbrains.annotations.NotNull;
 
-import javax.xml.bind.JAXBException;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.TimeZone;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
 
 /**
  * Business logic to manage and upload files related to intellij plugins, such as updatePlugins.xml, plugin archive,
@@ -51,9 +69,12 @@ public class PluginUploader {
 
     static final String UNKNOWN_VERSION = "UNKNOWN";
     static final String LOCK_FILE_EXTENSION = ".lock";
+    //Upper bound on threads used when uploading the plugin artifacts concurrently
+    static final int MAX_UPLOAD_THREADS = 3;
+    //Time a lock lease stays valid after it was last renewed
+    public static final long DEFAULT_LOCK_TTL_MS = TimeUnit.MINUTES.toMillis(2);
 
     private final int timeoutMs;
-    private final int retryTimes;
     private final Logger logger;
 
     private final String url;
@@ -76,6 +97,16 @@ public class PluginUploader {
     private final boolean skipReleaseCheck = Boolean.parseBoolean(System.getProperty(RELEASE_CHECK_PROPERTY, "false"));
     private final Repo repo;
 
+    private boolean concurrentUploads = false;
+    private UpdateMode updateMode = UpdateMode.LOCK;
+    private boolean atomicLock = false;
+    private long lockTtlMs = DEFAULT_LOCK_TTL_MS;
+    private RetryPolicy retryPolicy;
+    private boolean queuedLock = false;
+    private boolean compactFragments = true;
+    private PublishCoordinator publishCoordinator;
+    private boolean patchUpdates = false;
+
     public PluginUploader(int timeoutMs, int retryTimes, Logger logger,
                           @NotNull String url, String downloadUrlPrefix, Boolean absoluteDownloadUrls,
                           @NotNull String pluginName, @NotNull File file, @NotNull String updateFile,
@@ -84,7 +115,8 @@ public class PluginUploader {
                           @NotNull RepoType repoType, File blockmapFile, File hashFile) throws Exception {
 
         this.timeoutMs = timeoutMs;
-        this.retryTimes = retryTimes;
+        this.retryPolicy = new RetryPolicy(retryTimes, timeoutMs,
+                Math.max(timeoutMs, RetryPolicy.DEFAULT_MAX_DELAY_MS), RetryPolicy.DEFAULT_DEADLINE_MS);
         this.logger = logger;
         this.url = url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
         this.pluginName = pluginName;
@@ -106,6 +138,99 @@ public class PluginUploader {
         this.repo = getRepoType();
     }
 
+    /**
+     * Uploads the plugin archive, blockmap and hash file in parallel rather than one after another.
+     * @param concurrentUploads true to upload the artifacts concurrently
+     */
+    public void setConcurrentUploads(boolean concurrentUploads) {
+        this.concurrentUploads = concurrentUploads;
+    }
+
+    /**
+     * Configures multipart uploads for large files. Only applies to S3 repositories.
+     * @param threshold files larger than this many bytes are uploaded in parts
+     * @param partSize the size in bytes of each part
+     * @param partConcurrency the number of parts uploaded in parallel
+     */
+    public void setMultipartUpload(long threshold, long partSize, int partConcurrency) {
+        if (repo instanceof S3Repo) {
+            ((S3Repo) repo).setMultipartUpload(threshold, partSize, partConcurrency);
+        }
+    }
+
+    /**
+     * Sets how concurrent modifications to updatePlugins.xml are prevented.
+     * @param updateMode the update mode to use
+     */
+    public void setUpdateMode(UpdateMode updateMode) {
+        this.updateMode = updateMode;
+    }
+
+    /**
+     * Acquires the lock with a single create-only-if-absent write when the repository supports it, falling back to
+     * the read-write-read protocol otherwise.
+     * @param atomicLock true to use conditional creates for the lock
+     */
+    public void setAtomicLock(boolean atomicLock) {
+        this.atomicLock = atomicLock;
+    }
+
+    /**
+     * Sets how long the lock stays valid without being renewed. The lock is renewed every third of this time while it is
+     * held, other processes will take over a lock which has not been renewed within this time.
+     * @param lockTtlMs the lease time in milliseconds
+     */
+    public void setLockTtl(long lockTtlMs) {
+        if (lockTtlMs <= 0) {
+            throw new IllegalArgumentException("Lock ttl must be positive");
+        }
+        this.lockTtlMs = lockTtlMs;
+    }
+
+    /**
+     * Sets how failed repository operations are retried. Defaults to the retry times and timeout passed to the
+     * constructor, used as max attempts and initial delay.
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    /**
+     * Waits for the lock in a queue so processes get the lock in the order they asked for it. Requires a repository
+     * supporting conditional writes, falling back to polling the lock otherwise. Only applies to the LOCK update mode.
+     * @param queuedLock true to wait for the lock in a queue
+     */
+    public void setQueuedLock(boolean queuedLock) {
+        this.queuedLock = queuedLock;
+    }
+
+    /**
+     * Compacts the pending fragments into updatePlugins.xml after publishing a fragment. Only applies to the FRAGMENTS
+     * update mode.
+     * @param compactFragments false to leave compaction to the compact task
+     */
+    public void setCompactFragments(boolean compactFragments) {
+        this.compactFragments = compactFragments;
+    }
+
+    /**
+     * Hands the updatePlugins.xml update to a coordinator which applies it together with other publishes to the same
+     * file in a single update. Does not apply to the FRAGMENTS update mode.
+     * @param publishCoordinator the coordinator to use, or null to update the file directly
+     */
+    public void setPublishCoordinator(@Nullable PublishCoordinator publishCoordinator) {
+        this.publishCoordinator = publishCoordinator;
+    }
+
+    /**
+     * Only parses the entries of the plugin being published when updating updatePlugins.xml, all other entries are
+     * copied unchanged. Always uses the StAX codec.
+     * @param patchUpdates true to patch updatePlugins.xml instead of rewriting it
+     */
+    public void setPatchUpdates(boolean patchUpdates) {
+        this.patchUpdates = patchUpdates;
+    }
+
     /**
      * Main execution
      */
@@ -118,71 +243,247 @@ public class PluginUploader {
             throw new RuntimeException("updateFile can not be null");
         }
 
-        if (!updatePluginXml) {
-            //Prevent replacing an already published version based on the plugin xml.
-            try {
-                getPluginsThrowIfOverwrite();
-            } catch (FatalException e) {
-                throw new GradleException(e.getMessage(), e);
-            }
+        //Prevent replacing an already published version based on the plugin xml.
+        try {
+            getPluginsThrowIfOverwrite();
+        } catch (FatalException e) {
+            throw new GradleException(e.getMessage(), e);
+        }
+
+        //The plugin artifacts are uploaded to versioned paths, so they are uploaded before taking the lock
+        //which then only needs to be held while updatePlugins.xml is updated.
+        callWithRetries(() -> {
             uploadPlugin();
-        } else {
-            final AtomicReference<Throwable> firstException = new AtomicReference<>();
-            Retryer<Void> retryer = RetryerBuilder.<Void>newBuilder()
-                    .retryIfException(e -> !(e instanceof FatalException))
-                    .withStopStrategy(StopStrategies.stopAfterAttempt(retryTimes))
-                    .withWaitStrategy(WaitStrategies.fixedWait(timeoutMs, TimeUnit.MILLISECONDS))
-                    .withRetryListener(new RetryListener() {
-                        @Override
-                        public <V> void onRetry(Attempt<V> attempt) {
-                            if (attempt.hasException()) {
-                                firstException.compareAndSet(null, attempt.getExceptionCause());
-                            }
-                        }
-                    })
-                    .build();
-            try {
-                retryer.call(() -> {
-                    postPluginAndUpdateXml();
+            return null;
+        });
+
+        if (updatePluginXml) {
+            if (updateMode == UpdateMode.FRAGMENTS) {
+                callWithRetries(() -> {
+                    uploadFragment();
                     return null;
                 });
-            } catch (ExecutionException | RetryException e) {
-                Throwable cause = firstException.get();
-                if (cause instanceof FatalException) {
-                    throw new GradleException(cause.getMessage(), cause);
+                if (compactFragments) {
+                    compactFragments();
                 }
-                throw new GradleException("Failed to publish plugin", cause != null ? cause : e);
+            } else if (publishCoordinator != null) {
+                publishCoordinator.publish(this);
+            } else {
+                updateXml(Collections.singleton(pluginId), this::applyUpdate);
             }
         }
     }
 
     /**
-     * Creates a lock, grabs the current updatePlugins.xml, ensures there is not a version conflict,
-     * uploads the plugin file, uploads the updated updatePlugins.xml and deletes the lock at the end
-     * @throws RetryableException
-     * @throws FatalException
+     * Adds the entries of all the publishes to updatePlugins.xml in a single update, using the repository, update mode,
+     * lock and retry settings of this publish. Publishes of a version which is already published are left out, the
+     * others are still applied.
+     * @param publishes the publishes to the same updatePlugins.xml as this one
+     * @return the publishes which were left out, mapped to the reason
      */
-    void postPluginAndUpdateXml() throws RetryableException, FatalException {
-        String lock = uploadLockThrows();
+    Map<PluginUploader, String> updateXml(List<PluginUploader> publishes) {
+        Map<PluginUploader, String> rejected = new LinkedHashMap<>();
+        Set<String> pluginIds = publishes.stream().map(publish -> publish.pluginId)
+                .collect(Collectors.toCollection(LinkedHashSet::new));
+        updateXml(pluginIds, plugins -> {
+            //Every attempt reads the latest file, so the publishes are checked again each time
+            rejected.clear();
+            for (PluginUploader publish : publishes) {
+                try {
+                    publish.applyUpdate(plugins);
+                } catch (FatalException e) {
+                    rejected.put(publish, e.getMessage());
+                }
+            }
+            return rejected.size() < publishes.size();
+        });
+        return rejected;
+    }
 
+    /**
+     * Applies the change to updatePlugins.xml with the configured update mode, retrying failed attempts
+     * @param pluginIds the ids of the plugins the change updates
+     * @param change the change to apply to the latest plugins xml
+     */
+    private void updateXml(Set<String> pluginIds, UpdatesChange change) {
+        LockQueue lockQueue = getLockQueue();
+        LockQueue.Ticket ticket = lockQueue == null ? null : awaitLockTurn(lockQueue);
+        //The ticket stays at the head of the queue while the lock is taken and held, which can outlast its ttl
+        ScheduledExecutorService ticketHeartbeat = ticket == null ? null
+                : startHeartbeat(lockTtlMs, () -> refreshLockTurn(lockQueue, ticket));
         try {
-            PluginsElement plugins = getPluginsThrowIfOverwrite();
+            callWithRetries(() -> {
+                switch (updateMode) {
+                    case LOCK:
+                        updateXmlWithLock(pluginIds, change);
+                        break;
+                    case OPTIMISTIC:
+                        updateXmlOptimistic(pluginIds, change);
+                        break;
+                    default:
+                        throw new IllegalStateException("Update mode not implemented for " + updateMode.name());
+                }
+                return null;
+            });
+        } finally {
+            if (ticket != null) {
+                stopHeartbeat(ticketHeartbeat);
+                leaveLockQueue(lockQueue, ticket);
+            }
+        }
+    }
 
-            uploadPlugin();
+    /**
+     * Adds the entry of this publish to the plugins xml
+     * @throws FatalException if the version is already published
+     */
+    private boolean applyUpdate(PluginsElement plugins) throws FatalException {
+        throwIfOverwrite(plugins);
+        PluginElement plugin = new PluginElement(pluginId, version, description, changeNotes, pluginName,
+                sinceBuild, untilBuild, file, downloadUrlPrefix);
+        PluginUpdatesUtil.updateOrAdd(plugin, plugins.getPlugins(), logger);
+        return true;
+    }
+
+    /**
+     * @return key identifying the updatePlugins.xml this publish updates, publishes with the same key can be batched
+     */
+    String getUpdateFileKey() {
+        return repoType.name() + ":" + url + "/" + updateFile;
+    }
+
+    /**
+     * Folds the pending fragments into updatePlugins.xml. The fragment is already published at this point, so a
+     * failure only delays when it shows up in updatePlugins.xml until the next compaction.
+     */
+    private void compactFragments() {
+        try {
+            new FragmentCompactor(repo, updateFile, logger).compact(retryPolicy);
+        } catch (IOException e) {
+            logger.warn("Failed to compact fragments into " + updateFile + ". The plugin was published and will be added" +
+                    " by the next compaction", e);
+        }
+    }
+
+    /**
+     * @return the queue to wait in for the lock, or null if the lock is not queued
+     */
+    @Nullable
+    private LockQueue getLockQueue() {
+        if (!queuedLock || updateMode != UpdateMode.LOCK) {
+            return null;
+        }
+        try {
+            //The queue is created with If-None-Match and every later change is a compare-and-set with If-Match
+            if (!repo.supportsConditionalCreate() || !repo.supportsConditionalReplace()) {
+                logger.warn("The repository does not support conditional writes which are required for queuing for the" +
+                        " lock, falling back to polling the lock");
+                return null;
+            }
+        } catch (IOException e) {
+            logger.warn("Failed to check whether the repository supports conditional writes, falling back to polling" +
+                    " the lock", e);
+            return null;
+        }
+        return new LockQueue(repo, updateFile + LOCK_FILE_EXTENSION + LockQueue.QUEUE_FILE_EXTENSION, lockTtlMs,
+                timeoutMs, logger);
+    }
+
+    /**
+     * Joins the lock queue and waits until this process is at the head of it
+     * @return the ticket of this process in the queue
+     */
+    private LockQueue.Ticket awaitLockTurn(LockQueue lockQueue) {
+        LockQueue.Ticket ticket;
+        try {
+            ticket = lockQueue.enqueue();
+        } catch (IOException e) {
+            throw new GradleException("Failed to join the lock queue", e);
+        }
+        try {
+            lockQueue.awaitTurn(ticket, retryPolicy.getDeadlineMs());
+            return ticket;
+        } catch (IOException | TimeoutException e) {
+            leaveLockQueue(lockQueue, ticket);
+            throw new GradleException("Failed waiting for the lock: " + e.getMessage(), e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            leaveLockQueue(lockQueue, ticket);
+            throw new GradleException("Interrupted while waiting for the lock", e);
+        }
+    }
+
+    private void refreshLockTurn(LockQueue lockQueue, LockQueue.Ticket ticket) {
+        try {
+            lockQueue.refresh(ticket);
+        } catch (IOException e) {
+            logger.warn("Failed to refresh ticket " + ticket.getId() + " in the lock queue, will try again", e);
+        }
+    }
+
+    private void leaveLockQueue(LockQueue lockQueue, LockQueue.Ticket ticket) {
+        try {
+            lockQueue.dequeue(ticket);
+        } catch (IOException e) {
+            logger.warn("Failed to remove ticket " + ticket.getId() + " from the lock queue, it will be removed by other" +
+                    " processes once it is stale", e);
+        }
+    }
+
+    /**
+     * Calls the callable, retrying on any non fatal exception.
+     * @param callable the operation to retry
+     */
+    private void callWithRetries(Callable<Void> callable) {
+        final AtomicReference<Throwable> firstException = new AtomicReference<>();
+        Retryer<Void> retryer = retryPolicy.newRetryer(PluginUploader::isRetryable, new RetryListener() {
+            @Override
+            public <V> void onRetry(Attempt<V> attempt) {
+                if (attempt.hasException()) {
+                    firstException.compareAndSet(null, attempt.getExceptionCause());
+                }
+            }
+        });
+        try {
+            retryer.call(callable);
+        } catch (ExecutionException | RetryException e) {
+            Throwable cause = firstException.get();
+            if (cause instanceof FatalException) {
+                throw new GradleException(cause.getMessage(), cause);
+            }
+            throw new GradleException("Failed to publish plugin", cause != null ? cause : e);
+        }
+    }
 
-            PluginElement plugin = new PluginElement(pluginId, version, description, changeNotes, pluginName,
-                    sinceBuild, untilBuild, file, downloadUrlPrefix);
-            PluginUpdatesUtil.updateOrAdd(plugin, plugins.getPlugins(), logger);
+    /**
+     * Creates a lock, grabs the current updatePlugins.xml, applies the change, which ensures there is not a version
+     * conflict, uploads the updated updatePlugins.xml and deletes the lock at the end.
+     * The plugin artifacts are expected to be uploaded before calling this to keep the lock short-lived.
+     * @throws RetryableException
+     * @throws FatalException
+     */
+    void updateXmlWithLock(Set<String> pluginIds, UpdatesChange change) throws RetryableException, FatalException {
+        LockLease lock = uploadLockThrows();
+        ScheduledExecutorService heartbeat = startHeartbeat(lock.getTtl(), () -> renewLock(lock));
 
-            uploadUpdates(plugins);
+        boolean updated = false;
+        try {
+            PluginsElement plugins = getVersionedUpdates(pluginIds).plugins;
+            if (change.apply(plugins)) {
+                //Another process may hold the lock by now, writing would overwrite its update
+                if (lock.isLost() || lock.isExpired(System.currentTimeMillis())) {
+                    throw new RetryableException("The lock on " + updateFile + " was lost before updating it." +
+                            " Another process may hold it now.");
+                }
+                uploadUpdates(plugins, describe(pluginIds));
+                updated = true;
+            }
         } finally {
+            stopHeartbeat(heartbeat);
             if (lock != null) {
-                if (lock.equals(getLock())) {
-                    Retryer<Object> retryer = RetryerBuilder.newBuilder()
-                            .retryIfExceptionOfType(IOException.class)
-                            .withStopStrategy(StopStrategies.stopAfterAttempt(retryTimes))
-                            .withWaitStrategy(WaitStrategies.fixedWait(timeoutMs, TimeUnit.MILLISECONDS))
-                            .build();
+                if (lock.isSameLock(getLock())) {
+                    Retryer<Object> retryer = retryPolicy.newRetryer(
+                            e -> e instanceof IOException && isRetryable(e), null);
                     try {
                         retryer.call(() -> {
                             deleteLock();
@@ -191,7 +492,7 @@ public class PluginUploader {
                     } catch (ExecutionException | RetryException e) {
                         throw new FatalException("Failed to delete " + updateFile + LOCK_FILE_EXTENSION + ". File must be cleaned up manually on repository", e);
                     }
-                } else {
+                } else if (updated) {
                     throw new FatalException("The lock value changed during execution. This is bad! The release may be invalid");
                 }
             }
@@ -199,69 +500,264 @@ public class PluginUploader {
     }
 
     /**
-     * Uploads the plugin file
+     * Decides if a failed attempt is worth retrying. Lock contention and network failures are retried, as are errors
+     * returned by the repository which are transient (timeouts, throttling and server errors). Other failures, such
+     * as authentication errors or a conflicting release, fail the same way on every attempt.
      */
-    void uploadPlugin() {
+    static boolean isRetryable(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof FatalException || cause instanceof InterruptedException
+                    || cause instanceof InterruptedIOException) {
+                return false;
+            }
+            if (cause instanceof RetryableException) {
+                return true;
+            }
+            if (cause instanceof RepoException) {
+                return ((RepoException) cause).isTransient();
+            }
+            if (cause instanceof IOException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Grabs the current updatePlugins.xml along with its ETag, ensures there is not a version conflict and uploads the
+     * updated file only if it was not modified in the meantime. If another process changed the file, a
+     * RetryableException is thrown so the whole read-modify-write is retried against the latest version.
+     * @throws RetryableException
+     * @throws FatalException
+     */
+    void updateXmlOptimistic(Set<String> pluginIds, UpdatesChange change)
+            throws IOException, RetryableException, FatalException {
+        throwIfNoConditionalReplace(UpdateMode.OPTIMISTIC);
+        VersionedUpdates updates = getVersionedUpdates(pluginIds);
+        if (updates.exists && updates.eTag == null) {
+            throw new FatalException("The repository did not return an ETag for " + updateFile +
+                    " which is required for the " + UpdateMode.OPTIMISTIC.name() + " update mode.");
+        }
+        if (!change.apply(updates.plugins)) {
+            return;
+        }
+
+        if (!uploadUpdates(updates.plugins, updates.eTag, describe(pluginIds))) {
+            throw new RetryableException(updateFile + " was modified by another process while updating it.");
+        }
+    }
+
+    /**
+     * The update mode relies on the repository rejecting writes with a stale ETag, on a repository ignoring If-Match
+     * concurrent updates would overwrite each other without notice
+     * @throws IOException if the repository could not be probed, which is retried
+     * @throws FatalException if the repository does not enforce If-Match
+     */
+    private void throwIfNoConditionalReplace(UpdateMode mode) throws IOException, FatalException {
+        if (!repo.supportsConditionalReplace()) {
+            throw new FatalException("The repository does not reject writes with a stale If-Match ETag, which is" +
+                    " required for the " + mode.name() + " update mode. Use the " + UpdateMode.LOCK.name() +
+                    " update mode instead.");
+        }
+    }
+
+    /**
+     * Uploads the plugin entry as a new fragment, which is folded into updatePlugins.xml by the next compaction. No lock
+     * is needed as every publish writes its own file.
+     * @throws FatalException if a fragment for the version is already pending, unless the release check is disabled
+     */
+    void uploadFragment() throws FatalException {
         try {
-            repo.upload(pluginName + "/" + file.getName(), file, "application/zip");
-            repo.upload(pluginName + "/" + blockmapFile.getName(), blockmapFile, "application/zip");
-            repo.upload(pluginName + "/" + hashFile.getName(), hashFile, "application/json");
+            //Checked before publishing, fragments which can't be compacted safely would never show up
+            throwIfNoConditionalReplace(UpdateMode.FRAGMENTS);
+            if (!skipReleaseCheck) {
+                boolean pending = repo.list(FragmentCompactor.getPluginFragmentsDirectory(updateFile, pluginId)).stream()
+                        .anyMatch(path -> FragmentCompactor.isFragmentOf(path, version));
+                if (pending) {
+                    throw new FatalException("Plugin '" + pluginId + "' with version " + version + " already published" +
+                            " to repository and waiting to be compacted. Publish attempt aborted to prevent overwriting" +
+                            " the release. See the readme of this plugin for more info.");
+                }
+            }
+
+            PluginsElement fragment = new PluginsElement();
+            fragment.getPlugins().add(new PluginElement(pluginId, version, description, changeNotes, pluginName,
+                    sinceBuild, untilBuild, file, downloadUrlPrefix));
+            File fragmentFile = File.createTempFile("fragment", ".xml");
+            try {
+                try (FileWriter fw = new FileWriter(fragmentFile)) {
+                    PluginsCodec.get().write(fragment, fw);
+                }
+                repo.upload(FragmentCompactor.getFragmentPath(updateFile, pluginId, version, System.currentTimeMillis()),
+                        fragmentFile, "application/xml");
+            } finally {
+                fragmentFile.delete();
+            }
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
 
+    /**
+     * Uploads the plugin file, blockmap and hash file
+     */
+    void uploadPlugin() {
+        List<Artifact> artifacts = Lists.newArrayList(
+                new Artifact(file, "application/zip"),
+                new Artifact(blockmapFile, "application/zip"),
+                new Artifact(hashFile, "application/json"));
+        if (concurrentUploads) {
+            uploadConcurrently(artifacts);
+        } else {
+            try {
+                for (Artifact artifact : artifacts) {
+                    artifact.upload();
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    /**
+     * Uploads the artifacts on a bounded pool, waiting for all of them to finish. Every failed or cancelled upload
+     * is logged individually, the first failure is thrown with the remaining ones attached as suppressed exceptions.
+     * @param artifacts the artifacts to upload
+     */
+    private void uploadConcurrently(List<Artifact> artifacts) {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(artifacts.size(), MAX_UPLOAD_THREADS),
+                new ThreadFactoryBuilder().setNameFormat("plugin-upload-%d").setDaemon(true).build());
+        try {
+            Map<Artifact, Future<?>> uploads = new LinkedHashMap<>();
+            for (Artifact artifact : artifacts) {
+                uploads.put(artifact, executor.submit(() -> {
+                    artifact.upload();
+                    return null;
+                }));
+            }
+
+            RuntimeException failure = null;
+            for (Map.Entry<Artifact, Future<?>> upload : uploads.entrySet()) {
+                String name = upload.getKey().file.getName();
+                Throwable cause;
+                try {
+                    upload.getValue().get();
+                    continue;
+                } catch (ExecutionException e) {
+                    cause = e.getCause();
+                    logger.error("Failed to upload '" + name + "'", cause);
+                } catch (CancellationException e) {
+                    cause = e;
+                    logger.error("Upload of '" + name + "' was cancelled");
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    uploads.values().forEach(future -> future.cancel(true));
+                    cause = e;
+                    logger.error("Interrupted while uploading '" + name + "', cancelling remaining uploads");
+                }
+                RuntimeException artifactFailure = new RuntimeException("Failed to upload " + name, cause);
+                if (failure == null) {
+                    failure = artifactFailure;
+                } else {
+                    failure.addSuppressed(artifactFailure);
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
     /**
      * Uploads the updatePlugins.xml file adding a comment on top to indicate the time, this gradle plugins version,
      * and plugin used to update the file
      * @param updates The updatePlugins.xml POJO to marshal
+     * @param updating description of the change for the comment on top of the file
      */
-    void uploadUpdates(PluginsElement updates) {
+    void uploadUpdates(PluginsElement updates, String updating) {
         try {
-            File file = File.createTempFile("updatePlugins", null);
-            file.deleteOnExit();
-
-            try (FileWriter fw = new FileWriter(file)) {
-
-                Date now = Calendar.getInstance().getTime();
-                DateFormat df = new SimpleDateFormat("yyyy-MM-dd hh:mm:ss z");
-                df.setTimeZone(TimeZone.getTimeZone("GMT"));
-                String dateString = df.format(now);
-                String pluginVersion = getPluginVersion();
-                fw.append("<!-- File updated on ")
-                        .append(dateString)
-                        .append(" updating '")
-                        .append(pluginId)
-                        .append("' using plugin uploader version ")
-                        .append(pluginVersion)
-                        .append(" -->\n");
-
-                PluginUpdatesUtil.MARSHALLER.marshal(updates, fw);
-            }
+            repo.upload(updateFile, writeUpdates(updates, updating), "application/xml");
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
 
-            repo.upload(updateFile, file, "application/xml");
-        } catch (IOException | JAXBException e) {
+    /**
+     * Uploads the updatePlugins.xml file only if it was not modified since it was read
+     * @param updates The updatePlugins.xml POJO to marshal
+     * @param eTag the ETag updatePlugins.xml had when it was read, or null if it did not exist
+     * @param updating description of the change for the comment on top of the file
+     * @return true if the file was uploaded, false if it was modified in the meantime
+     */
+    private boolean uploadUpdates(PluginsElement updates, @Nullable String eTag, String updating) {
+        try {
+            return repo.conditionalUpload(updateFile, writeUpdates(updates, updating), "application/xml", eTag);
+        } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
 
+    /**
+     * Writes the updatePlugins.xml to a temporary file
+     * @param updates The updatePlugins.xml POJO to marshal
+     * @param updating description of the change for the comment on top of the file
+     * @return the temporary file
+     */
+    private File writeUpdates(PluginsElement updates, String updating) throws IOException {
+        File file = File.createTempFile("updatePlugins", null);
+        file.deleteOnExit();
+
+        try (FileWriter fw = new FileWriter(file)) {
+
+            Date now = Calendar.getInstance().getTime();
+            DateFormat df = new SimpleDateFormat("yyyy-MM-dd hh:mm:ss z");
+            df.setTimeZone(TimeZone.getTimeZone("GMT"));
+            String dateString = df.format(now);
+            String pluginVersion = getPluginVersion();
+            fw.append("<!-- File updated on ")
+                    .append(dateString)
+                    .append(" updating ")
+                    .append(updating)
+                    .append(" using plugin uploader version ")
+                    .append(pluginVersion)
+                    .append(" -->\n");
+
+            getCodec().write(updates, fw);
+        }
+        return file;
+    }
+
     /**
      * Grabs the latest updatePlugin.xml from the repo and unmarshaling it.
      * Returns an empty POJO if the file does not exist in the repo
      * @return The unmarshaled file from the repo or an empty one if it does not exist
      */
     PluginsElement getUpdates() {
+        return getVersionedUpdates(Collections.singleton(pluginId)).plugins;
+    }
+
+    /**
+     * Grabs the latest updatePlugin.xml from the repo along with the ETag it was read at.
+     * @param pluginIds the plugins which need to be parsed, others are kept unparsed when patching
+     * @return The unmarshaled file from the repo or an empty one if it does not exist
+     */
+    VersionedUpdates getVersionedUpdates(Set<String> pluginIds) {
         try {
             return repo.get(updateFile, update -> {
                 if (update.exists()) {
                     try {
-                        return (PluginsElement) PluginUpdatesUtil.UNMARSHALLER.unmarshal(update.getInputStream());
-                    } catch (JAXBException e) {
+                        PluginsElement plugins = patchUpdates
+                                ? PluginsPatchReader.read(ByteStreams.toByteArray(update.getInputStream()), pluginIds)
+                                : getCodec().read(update.getInputStream());
+                        return new VersionedUpdates(plugins, true, update.getETag());
+                    } catch (IOException e) {
                         throw new RuntimeException(e);
                     }
                 } else {
                     logger.info("No " + updateFile + " found. Creating new file.");
-                    return new PluginsElement();
+                    return new VersionedUpdates(new PluginsElement(), false, null);
                 }
             });
         } catch (IOException e) {
@@ -271,10 +767,10 @@ public class PluginUploader {
 
     /**
      * Grabs the lock file from the repo and returns the contents
-     * @return The locks content or null if it does not exist.
+     * @return The lock lease or null if it does not exist.
      */
     @Nullable
-    String getLock() {
+    LockLease getLock() {
         try {
             return repo.get(updateFile + LOCK_FILE_EXTENSION, l -> {
                 if (l.exists()) {
@@ -285,7 +781,7 @@ public class PluginUploader {
                         }
                     };
                     try {
-                        return bs.asCharSource(StandardCharsets.UTF_8).read();
+                        return LockLease.parse(bs.asCharSource(StandardCharsets.UTF_8).read(), l.getETag());
                     } catch (IOException e) {
                         throw new RuntimeException(e);
                     }
@@ -303,23 +799,53 @@ public class PluginUploader {
      * Note: This does not throw exceptions. It is expected to check the lock after this method is called to verify this
      * process acquired the lock.
      */
-    void setLock(String lockValue) {
-        File lockFile = null;
+    void setLock(LockLease lease) {
         try {
-            lockFile = Files.createTempFile(pluginId, "lock").toFile();
-            try (FileOutputStream fos = new FileOutputStream(lockFile)) {
-                fos.write(lockValue.getBytes(StandardCharsets.UTF_8));
-            }
-            repo.upload(updateFile + LOCK_FILE_EXTENSION, lockFile, "text/plain");
+            uploadLock(lease);
         } catch (IOException e) {
             logger.error("Failed to upload lock file which will cause this process to fail when we read back the lock", e);
+        }
+    }
+
+    private void uploadLock(LockLease lease) throws IOException {
+        File lockFile = writeLockFile(lease);
+        try {
+            repo.upload(updateFile + LOCK_FILE_EXTENSION, lockFile, "text/plain");
         } finally {
-            if (lockFile != null) {
-                lockFile.delete();
-            }
+            lockFile.delete();
         }
     }
 
+    /**
+     * Creates the lock on the server only if it does not already exist
+     * @return true if this process created the lock, false if a lock already exists
+     */
+    boolean createLock(LockLease lease) throws IOException {
+        return replaceLock(lease, null);
+    }
+
+    /**
+     * Writes the lock on the server only if the current lock matches the ETag
+     * @param eTag the ETag of the lock being replaced, or null if the lock must not exist
+     * @return true if the lock was written, false if the lock was changed by another process
+     */
+    private boolean replaceLock(LockLease lease, @Nullable String eTag) throws IOException {
+        File lockFile = writeLockFile(lease);
+        try {
+            return repo.conditionalUpload(updateFile + LOCK_FILE_EXTENSION, lockFile, "text/plain", eTag);
+        } finally {
+            lockFile.delete();
+        }
+    }
+
+    private File writeLockFile(LockLease lease) throws IOException {
+        File lockFile = Files.createTempFile(pluginId, "lock").toFile();
+        try (FileOutputStream fos = new FileOutputStream(lockFile)) {
+            fos.write(lease.serialize().getBytes(StandardCharsets.UTF_8));
+        }
+        return lockFile;
+    }
+
     /**
      * Deletes the lock on the server
      * @throws IOException
@@ -329,24 +855,167 @@ public class PluginUploader {
     }
 
     /**
-     * Ensure the lock does not exist, throwing if it exists, and sets the lock by uploading the lock file to the repo
-     * @return the lock key
+     * Ensure the lock does not exist, throwing if it exists, and sets the lock by uploading the lock file to the repo.
+     * An existing lock whose lease expired is taken over.
+     * @return the lock lease
      */
-    String uploadLockThrows() throws RetryableException {
-        String lock = getLock();
-        if (lock != null) {
-            throw new RetryableException("Lock exists on host. Can not proceed until lock file is cleared." +
-                    " This could be another process currently running.");
+    LockLease uploadLockThrows() throws RetryableException {
+        LockLease lock = LockLease.create(getLockId(), lockTtlMs, System.currentTimeMillis());
+        boolean conditionalCreate;
+        try {
+            //A failed probe is not cached, the attempt is retried and probes again
+            conditionalCreate = atomicLock && repo.supportsConditionalCreate();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        if (conditionalCreate) {
+            try {
+                if (createLock(lock)) {
+                    return lock;
+                }
+                LockLease existing = getLock();
+                if (existing != null && isExpired(existing)) {
+                    if (existing.getETag() != null && repo.supportsConditionalReplace()) {
+                        if (replaceLock(lock, existing.getETag())) {
+                            return lock;
+                        }
+                    } else if (breakLock(existing) && createLock(lock)) {
+                        //Only one of the processes which deleted the expired lock can create the new one
+                        return lock;
+                    }
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            throw lockExists();
+        }
+
+        LockLease existing = getLock();
+        if (existing != null) {
+            if (!isExpired(existing) || !breakLock(existing)) {
+                throw lockExists();
+            }
         }
-        lock = getLockId();
         setLock(lock);
         //TODO better lock safety
-        if (!lock.equals(getLock())) {
+        if (!lock.isSameLock(getLock())) {
             throw new RetryableException("Another process claimed the lock while we were trying to claim it. Please try again later.");
         }
         return lock;
     }
 
+    /**
+     * Checks whether the holder of the lease stopped renewing it. The renewal time was written by the clock of the
+     * holder, so an expired looking lease is watched for half its ttl before it is taken over: the holder renews it
+     * every third of the ttl, so a live lease changes in that time whatever the clocks say. The caller must only take
+     * over the lease if it is still unchanged, by a conditional replace or by comparing it before deleting it.
+     */
+    private boolean isExpired(LockLease lease) {
+        if (!lease.isExpired(System.currentTimeMillis())) {
+            return false;
+        }
+        logger.warn("The " + lease + " expired " + lease.getTtl() + "ms after it was last renewed. " +
+                "Taking over the lock unless it is renewed within " + lease.getTtl() / 2 + "ms");
+        try {
+            Thread.sleep(lease.getTtl() / 2);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Deletes an expired lock if it was not renewed or replaced in the meantime
+     * @return true if the lock was deleted
+     */
+    private boolean breakLock(LockLease expired) {
+        LockLease current = getLock();
+        if (current == null) {
+            return true;
+        }
+        if (!expired.serialize().equals(current.serialize())) {
+            return false;
+        }
+        try {
+            deleteLock();
+            return true;
+        } catch (IOException e) {
+            logger.error("Failed to delete expired lock", e);
+            return false;
+        }
+    }
+
+    private RetryableException lockExists() {
+        return new RetryableException("Lock exists on host. Can not proceed until lock file is cleared." +
+                " This could be another process currently running.");
+    }
+
+    /**
+     * Renews the lease, or the lock queue ticket, periodically while it is held so other processes do not consider it
+     * expired
+     * @param ttl the time after which other processes consider it expired
+     */
+    private ScheduledExecutorService startHeartbeat(long ttl, Runnable renew) {
+        ScheduledExecutorService heartbeat = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("plugin-lock-heartbeat-%d")
+                .setDaemon(true)
+                .build());
+        long interval = Math.max(1, ttl / 3);
+        heartbeat.scheduleWithFixedDelay(renew, interval, interval, TimeUnit.MILLISECONDS);
+        return heartbeat;
+    }
+
+    private void stopHeartbeat(ScheduledExecutorService heartbeat) {
+        heartbeat.shutdown();
+        try {
+            //Let an in flight renewal finish so it does not race with deleting the lock
+            if (!heartbeat.awaitTermination(timeoutMs, TimeUnit.MILLISECONDS)) {
+                heartbeat.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            heartbeat.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Renews the lease. When the repository enforces If-Match the lock is only replaced if it is still the one just
+     * read, so a lock taken over by another process is never overwritten. Otherwise the lock is read back after writing
+     * it. A lease found to be taken over is marked lost, which fails the update before updatePlugins.xml is written.
+     */
+    void renewLock(LockLease lock) {
+        try {
+            LockLease current = getLock();
+            if (!lock.isSameLock(current)) {
+                lock.markLost();
+                logger.error("Lost the lock while updating " + updateFile + ", it is now " +
+                        (current == null ? "deleted" : "the " + current));
+                return;
+            }
+            long now = System.currentTimeMillis();
+            LockLease renewed = lock.renewedAt(now);
+            if (current.getETag() != null && repo.supportsConditionalReplace()) {
+                if (!replaceLock(renewed, current.getETag())) {
+                    lock.markLost();
+                    logger.error("Lost the lock while updating " + updateFile + ", it was replaced while renewing it");
+                    return;
+                }
+            } else {
+                uploadLock(renewed);
+                LockLease written = getLock();
+                if (!lock.isSameLock(written)) {
+                    lock.markLost();
+                    logger.error("Lost the lock while updating " + updateFile + ", it was replaced while renewing it");
+                    return;
+                }
+            }
+            lock.renew(now);
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Failed to renew the lock, will try again", e);
+        }
+    }
+
     /**
      * Returns the plugins xml from the repo checking if the plugin being published exists and throws exception if
      * allowOverwrite is set to false (default)
@@ -355,6 +1024,16 @@ public class PluginUploader {
      */
     PluginsElement getPluginsThrowIfOverwrite() throws FatalException {
         PluginsElement plugins = getUpdates();
+        throwIfOverwrite(plugins);
+        return plugins;
+    }
+
+    /**
+     * Throws if the plugin ID and plugin version being published exists in the plugin xml, unless the release check
+     * is disabled
+     * @param plugins the plugins xml from the repository
+     */
+    private void throwIfOverwrite(PluginsElement plugins) throws FatalException {
         boolean pluginVersionExistsInRepo = plugins.getPlugins().stream().anyMatch(plugin ->
                 pluginId.equals(plugin.getId()) && version.equals(plugin.getVersion()));
 
@@ -363,7 +1042,14 @@ public class PluginUploader {
             throw new FatalException("Plugin '" + pluginId + "' with version " + version + " already published to repository." +
                     " Publish attempt aborted to prevent overwriting the release. See the readme of this plugin for more info.");
         }
-        return plugins;
+    }
+
+    private PluginsCodec getCodec() {
+        return patchUpdates ? StaxPluginsCodec.INSTANCE : PluginsCodec.get();
+    }
+
+    private static String describe(Set<String> pluginIds) {
+        return pluginIds.stream().map(id -> "'" + id + "'").collect(Collectors.joining(", "));
     }
 
     protected String getLockId() {
@@ -371,6 +1057,10 @@ public class PluginUploader {
     }
 
     protected Repo getRepoType() {
+        return createRepo(url, authentication, repoType, logger);
+    }
+
+    static Repo createRepo(String url, String authentication, RepoType repoType, Logger logger) {
         switch (repoType) {
             case REST_POST:
             case REST_PUT:
@@ -412,6 +1102,15 @@ public class PluginUploader {
         S3
     }
 
+    public enum UpdateMode {
+        //Guard updatePlugins.xml with a lock file on the repository
+        LOCK,
+        //Conditionally write updatePlugins.xml using its ETag, retrying if another process changed it
+        OPTIMISTIC,
+        //Publish a fragment per release without any lock, fragments are compacted into updatePlugins.xml afterwards
+        FRAGMENTS
+    }
+
     /**
      * @deprecated Migrated to using RepoType
      */
@@ -421,6 +1120,49 @@ public class PluginUploader {
         PUT;
     }
 
+    /**
+     * A file uploaded next to the plugin under the plugin name folder
+     */
+    private class Artifact {
+        private final File file;
+        private final String mediaType;
+
+        private Artifact(File file, String mediaType) {
+            this.file = file;
+            this.mediaType = mediaType;
+        }
+
+        private void upload() throws IOException {
+            repo.upload(pluginName + "/" + file.getName(), file, mediaType);
+        }
+    }
+
+    /**
+     * A change to the plugins read from updatePlugins.xml
+     */
+    interface UpdatesChange {
+        /**
+         * @param plugins the plugins xml from the repository, modified in place
+         * @return true if the plugins changed and need to be written back
+         */
+        boolean apply(PluginsElement plugins) throws FatalException;
+    }
+
+    /**
+     * The updatePlugins.xml contents along with the ETag it was read at
+     */
+    static class VersionedUpdates {
+        final PluginsElement plugins;
+        final boolean exists;
+        final String eTag;
+
+        VersionedUpdates(PluginsElement plugins, boolean exists, String eTag) {
+            this.plugins = plugins;
+            this.exists = exists;
+            this.eTag = eTag;
+        }
+    }
+
     private static class FatalException extends Exception {
         public FatalException(String message) {
             super(message);
@@ -0,0 +1,293 @@
+package dev.bmac.gradle.intellij;
+
+import com.intellij.openapi.util.BuildNumber;
+import dev.bmac.gradle.intellij.xml.IdeaVersionElement;
+import dev.bmac.gradle.intellij.xml.PluginElement;
+import dev.bmac.gradle.intellij.xml.PluginsElement;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Index of the since-build and until-build ranges of the entries in updatePlugins.xml, answering which entry an IDE
+ * build gets for each plugin. Both ends of a range are inclusive, a missing since-build or until-build leaves that end
+ * open.
+ *
+ * The entries of each plugin are sorted by since-build and kept as an interval tree, a balanced tree over the sorted
+ * array where each node also holds the highest until-build below it. Finding the entries containing a build then only
+ * visits the subtrees which can contain it.
+ */
+public class PluginVersionIndex {
+    private final Map<String, Intervals> plugins = new LinkedHashMap<>();
+
+    public PluginVersionIndex(PluginsElement updates) {
+        Map<String, List<PluginElement>> entries = new LinkedHashMap<>();
+        for (PluginElement plugin : updates.getPlugins()) {
+            entries.computeIfAbsent(plugin.getId(), id -> new ArrayList<>()).add(plugin);
+        }
+        entries.forEach((id, pluginEntries) -> plugins.put(id, new Intervals(pluginEntries)));
+    }
+
+    public Set<String> getPluginIds() {
+        return Collections.unmodifiableSet(plugins.keySet());
+    }
+
+    /**
+     * @return the entry of the plugin the build gets, the one with the latest since-build if ranges overlap, or null if
+     * no entry supports the build
+     */
+    @Nullable
+    public PluginElement resolve(String pluginId, BuildNumber build) {
+        Intervals intervals = plugins.get(pluginId);
+        return intervals == null ? null : intervals.resolve(build);
+    }
+
+    /**
+     * @return all entries of the plugin supporting the build, ordered by since-build
+     */
+    public List<PluginElement> findAll(String pluginId, BuildNumber build) {
+        Intervals intervals = plugins.get(pluginId);
+        if (intervals == null) {
+            return Collections.emptyList();
+        }
+        List<PluginElement> found = new ArrayList<>();
+        intervals.findAll(0, intervals.size() - 1, build, found);
+        return found;
+    }
+
+    /**
+     * @return the entry the build gets for each plugin supporting it, by plugin id
+     */
+    public Map<String, PluginElement> resolveAll(BuildNumber build) {
+        Map<String, PluginElement> resolved = new LinkedHashMap<>();
+        plugins.forEach((id, intervals) -> {
+            PluginElement plugin = intervals.resolve(build);
+            if (plugin != null) {
+                resolved.put(id, plugin);
+            }
+        });
+        return resolved;
+    }
+
+    /**
+     * @return for each build, the entry it gets for each plugin supporting it
+     */
+    public Map<BuildNumber, Map<String, PluginElement>> resolveAll(Collection<BuildNumber> builds) {
+        Map<BuildNumber, Map<String, PluginElement>> resolved = new LinkedHashMap<>();
+        for (BuildNumber build : builds) {
+            resolved.put(build, resolveAll(build));
+        }
+        return resolved;
+    }
+
+    /**
+     * @return entries whose range overlaps the range of an entry of the same plugin with an earlier since-build. Each
+     * entry is reported once, against the earlier entry reaching the furthest.
+     */
+    public List<Conflict> findOverlaps() {
+        List<Conflict> overlaps = new ArrayList<>();
+        plugins.forEach((id, intervals) -> intervals.findConflicts(overlaps, null));
+        return overlaps;
+    }
+
+    /**
+     * @return pairs of consecutive entries of a plugin with builds between them which no entry supports
+     */
+    public List<Conflict> findGaps() {
+        List<Conflict> gaps = new ArrayList<>();
+        plugins.forEach((id, intervals) -> intervals.findConflicts(null, gaps));
+        return gaps;
+    }
+
+    /**
+     * Two entries of the same plugin, the first with the earlier since-build
+     */
+    public static class Conflict {
+        private final PluginElement first;
+        private final PluginElement second;
+
+        Conflict(PluginElement first, PluginElement second) {
+            this.first = first;
+            this.second = second;
+        }
+
+        public String getPluginId() {
+            return first.getId();
+        }
+
+        public PluginElement getFirst() {
+            return first;
+        }
+
+        public PluginElement getSecond() {
+            return second;
+        }
+
+        @Override
+        public String toString() {
+            return first.getId() + " " + describe(first) + " and " + describe(second);
+        }
+
+        private static String describe(PluginElement plugin) {
+            IdeaVersionElement versionInfo = plugin.getVersionInfo();
+            String since = versionInfo == null ? null : versionInfo.getSinceBuildString();
+            String until = versionInfo == null ? null : versionInfo.getUntilBuildString();
+            return plugin.getVersion() + " [" + (since == null ? "" : since) + ", " + (until == null ? "" : until) + "]";
+        }
+    }
+
+    /**
+     * The entries of one plugin. The node of the range [from, to] of the arrays is its middle element, with the nodes
+     * of [from, middle - 1] and [middle + 1, to] as children.
+     */
+    private static class Intervals {
+        private final PluginElement[] entries;
+        //Null for an open end
+        private final BuildNumber[] since;
+        private final BuildNumber[] until;
+        //Highest until-build of the subtree with the element as root, null if any of them is open
+        private final BuildNumber[] maxUntil;
+
+        Intervals(List<PluginElement> pluginEntries) {
+            entries = pluginEntries.toArray(new PluginElement[0]);
+            //Stable, so entries with the same since-build stay in document order
+            Arrays.sort(entries, Comparator.comparing(Intervals::getSince, Intervals::compareSince));
+            since = new BuildNumber[entries.length];
+            until = new BuildNumber[entries.length];
+            for (int i = 0; i < entries.length; i++) {
+                since[i] = getSince(entries[i]);
+                until[i] = getUntil(entries[i]);
+            }
+            maxUntil = new BuildNumber[entries.length];
+            computeMaxUntil(0, entries.length - 1);
+        }
+
+        int size() {
+            return entries.length;
+        }
+
+        @Nullable
+        PluginElement resolve(BuildNumber build) {
+            int index = findLast(0, entries.length - 1, build);
+            return index < 0 ? null : entries[index];
+        }
+
+        void findAll(int from, int to, BuildNumber build, List<PluginElement> found) {
+            if (from > to) {
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            if (compareUntil(maxUntil[middle], build) < 0) {
+                return;
+            }
+            findAll(from, middle - 1, build, found);
+            if (compareSince(since[middle], build) > 0) {
+                return;
+            }
+            if (compareUntil(until[middle], build) >= 0) {
+                found.add(entries[middle]);
+            }
+            findAll(middle + 1, to, build, found);
+        }
+
+        /**
+         * @return the highest index in the range whose entry contains the build, or -1
+         */
+        private int findLast(int from, int to, BuildNumber build) {
+            if (from > to) {
+                return -1;
+            }
+            int middle = (from + to) >>> 1;
+            if (compareUntil(maxUntil[middle], build) < 0) {
+                return -1;
+            }
+            if (compareSince(since[middle], build) <= 0) {
+                int found = findLast(middle + 1, to, build);
+                if (found >= 0) {
+                    return found;
+                }
+                if (compareUntil(until[middle], build) >= 0) {
+                    return middle;
+                }
+            }
+            return findLast(from, middle - 1, build);
+        }
+
+        void findConflicts(@Nullable List<Conflict> overlaps, @Nullable List<Conflict> gaps) {
+            int furthest = 0;
+            for (int i = 1; i < entries.length; i++) {
+                BuildNumber reach = until[furthest];
+                if (reach == null || since[i] == null || reach.compareTo(since[i]) >= 0) {
+                    if (overlaps != null) {
+                        overlaps.add(new Conflict(entries[furthest], entries[i]));
+                    }
+                } else if (gaps != null && reach.compareTo(since[i].minusOne()) < 0) {
+                    gaps.add(new Conflict(entries[furthest], entries[i]));
+                }
+                if (compareUntil(until[i], reach) > 0) {
+                    furthest = i;
+                }
+            }
+        }
+
+        private void computeMaxUntil(int from, int to) {
+            if (from > to) {
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            computeMaxUntil(from, middle - 1);
+            computeMaxUntil(middle + 1, to);
+            BuildNumber max = until[middle];
+            if (from < middle) {
+                max = maxUntil(max, maxUntil[(from + middle - 1) >>> 1]);
+            }
+            if (middle < to) {
+                max = maxUntil(max, maxUntil[(middle + 1 + to) >>> 1]);
+            }
+            maxUntil[middle] = max;
+        }
+
+        @Nullable
+        private static BuildNumber maxUntil(@Nullable BuildNumber until, @Nullable BuildNumber other) {
+            return compareUntil(until, other) >= 0 ? until : other;
+        }
+
+        @Nullable
+        private static BuildNumber getSince(PluginElement plugin) {
+            return plugin.getVersionInfo() == null ? null : plugin.getVersionInfo().getSinceBuild();
+        }
+
+        @Nullable
+        private static BuildNumber getUntil(PluginElement plugin) {
+            return plugin.getVersionInfo() == null ? null : plugin.getVersionInfo().getUntilBuild();
+        }
+
+        /**
+         * A missing since-build is lower than any build
+         */
+        private static int compareSince(@Nullable BuildNumber since, @Nullable BuildNumber other) {
+            if (since == null || other == null) {
+                return since == other ? 0 : since == null ? -1 : 1;
+            }
+            return since.compareTo(other);
+        }
+
+        /**
+         * A missing until-build is higher than any build
+         */
+        private static int compareUntil(@Nullable BuildNumber until, @Nullable BuildNumber other) {
+            if (until == null || other == null) {
+                return until == other ? 0 : until == null ? 1 : -1;
+            }
+            return until.compareTo(other);
+        }
+    }
+}
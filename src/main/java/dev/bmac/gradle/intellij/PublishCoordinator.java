@@ -0,0 +1,137 @@
+package dev.bmac.gradle.intellij;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.gradle.api.GradleException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Group commit for publishes to the same updatePlugins.xml.
+ *
+ * Publishes hand their update to the coordinator instead of updating the file themselves. The first publish starts a
+ * window, and once it is over all publishes which arrived in the meantime are applied in a single lock, read, write
+ * cycle, using the settings of the first publish of the batch. Publishes arriving while a batch is written wait for
+ * the next window, so under load the number of updates of the file stays bounded by the windows rather than growing
+ * with the number of publishes. Each publish still fails on its own when its version is already published.
+ */
+public class PublishCoordinator implements AutoCloseable {
+    //Time to wait for a batch in flight to be written when closing
+    private static final long CLOSE_TIMEOUT_MINUTES = 10;
+
+    private final long windowMs;
+    private final ScheduledExecutorService executor;
+
+    private List<Pending> pending = new ArrayList<>();
+    private boolean closed = false;
+
+    /**
+     * @param windowMs milliseconds to collect publishes after the first one before writing them
+     */
+    public PublishCoordinator(long windowMs) {
+        if (windowMs < 0) {
+            throw new IllegalArgumentException("Publish batch window must not be negative");
+        }
+        this.windowMs = windowMs;
+        this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("plugin-publish-coordinator-%d")
+                .setDaemon(true)
+                .build());
+    }
+
+    /**
+     * Updates updatePlugins.xml with the publish, waiting until the batch it is part of was written
+     */
+    void publish(PluginUploader publish) {
+        try {
+            submit(publish).get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw new GradleException(cause.getMessage(), cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GradleException("Interrupted while waiting for the update file to be updated", e);
+        }
+    }
+
+    /**
+     * Adds the publish to the next batch
+     * @return completes once the batch was written, or exceptionally if the publish failed
+     */
+    CompletableFuture<Void> submit(PluginUploader publish) {
+        Pending entry = new Pending(publish);
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("The publish coordinator is closed");
+            }
+            pending.add(entry);
+            if (pending.size() == 1) {
+                executor.schedule(this::flush, windowMs, TimeUnit.MILLISECONDS);
+            }
+        }
+        return entry.result;
+    }
+
+    private void flush() {
+        List<Pending> batch;
+        synchronized (this) {
+            batch = pending;
+            pending = new ArrayList<>();
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        List<PluginUploader> publishes = batch.stream().map(entry -> entry.publish).collect(Collectors.toList());
+        try {
+            Map<PluginUploader, String> rejected = publishes.get(0).updateXml(publishes);
+            for (Pending entry : batch) {
+                String reason = rejected.get(entry.publish);
+                if (reason == null) {
+                    entry.result.complete(null);
+                } else {
+                    entry.result.completeExceptionally(new GradleException(reason));
+                }
+            }
+        } catch (Throwable e) {
+            //Fail every waiting publish rather than leaving them blocked
+            batch.forEach(entry -> entry.result.completeExceptionally(e));
+        }
+    }
+
+    /**
+     * Writes the pending batch, if any, and stops accepting publishes
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+        }
+        //Already scheduled flushes still run after shutdown
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(CLOSE_TIMEOUT_MINUTES, TimeUnit.MINUTES)) {
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static class Pending {
+        private final PluginUploader publish;
+        private final CompletableFuture<Void> result = new CompletableFuture<>();
+
+        private Pending(PluginUploader publish) {
+            this.publish = publish;
+        }
+    }
+}
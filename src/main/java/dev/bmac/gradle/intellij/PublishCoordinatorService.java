@@ -0,0 +1,30 @@
+package dev.bmac.gradle.intellij;
+
+import org.gradle.api.services.BuildService;
+import org.gradle.api.services.BuildServiceParameters;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Build service sharing one {@link PublishCoordinator} per update file between the upload tasks of a build, so projects
+ * publishing to the same repository in parallel update updatePlugins.xml together.
+ */
+public abstract class PublishCoordinatorService implements BuildService<BuildServiceParameters.None>, AutoCloseable {
+    public static final String SERVICE_NAME = "pluginPublishCoordinator";
+
+    private final Map<String, PublishCoordinator> coordinators = new ConcurrentHashMap<>();
+
+    /**
+     * @param windowMs the batch window, only used when the coordinator for the update file does not exist yet
+     * @return the coordinator for the update file the publish updates
+     */
+    PublishCoordinator getCoordinator(PluginUploader publish, long windowMs) {
+        return coordinators.computeIfAbsent(publish.getUpdateFileKey(), key -> new PublishCoordinator(windowMs));
+    }
+
+    @Override
+    public void close() {
+        coordinators.values().forEach(PublishCoordinator::close);
+    }
+}
@@ -0,0 +1,150 @@
+package dev.bmac.gradle.intellij;
+
+import com.github.rholder.retry.Attempt;
+import com.github.rholder.retry.RetryListener;
+import com.github.rholder.retry.Retryer;
+import com.github.rholder.retry.RetryerBuilder;
+import com.github.rholder.retry.StopStrategy;
+import com.github.rholder.retry.WaitStrategy;
+import com.google.common.base.Predicate;
+import dev.bmac.gradle.intellij.repos.RepoException;
+
+import javax.annotation.Nullable;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides how often and how long to wait between attempts when talking to the repository.
+ *
+ * Waits grow exponentially from the initial delay up to the max delay, and a random time between zero and that bound
+ * is picked (full jitter) so builds which failed at the same time, for example because they hit the same lock, do not
+ * retry in lockstep. When the repository sent a Retry-After header, that time is waited instead. Retries stop after
+ * maxAttempts, or once the deadline since the first attempt has passed.
+ */
+public class RetryPolicy {
+    public static final int DEFAULT_MAX_ATTEMPTS = 5;
+    public static final long DEFAULT_INITIAL_DELAY_MS = 1000;
+    public static final long DEFAULT_MAX_DELAY_MS = TimeUnit.SECONDS.toMillis(30);
+    public static final long DEFAULT_DEADLINE_MS = TimeUnit.MINUTES.toMillis(10);
+
+    private final int maxAttempts;
+    private final long initialDelayMs;
+    private final long maxDelayMs;
+    private final long deadlineMs;
+
+    /**
+     * @param maxAttempts the maximum number of attempts, including the first one
+     * @param initialDelayMs the upper bound of the wait after the first failed attempt
+     * @param maxDelayMs the upper bound of any wait
+     * @param deadlineMs no attempt is started once this many milliseconds passed since the first attempt
+     */
+    public RetryPolicy(int maxAttempts, long initialDelayMs, long maxDelayMs, long deadlineMs) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("Retry max attempts must be at least 1");
+        }
+        if (initialDelayMs < 0 || maxDelayMs < initialDelayMs) {
+            throw new IllegalArgumentException("Retry delays must be positive and the max delay at least the initial delay");
+        }
+        if (deadlineMs < 0) {
+            throw new IllegalArgumentException("Retry deadline must be positive");
+        }
+        this.maxAttempts = maxAttempts;
+        this.initialDelayMs = initialDelayMs;
+        this.maxDelayMs = maxDelayMs;
+        this.deadlineMs = deadlineMs;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public long getInitialDelayMs() {
+        return initialDelayMs;
+    }
+
+    public long getMaxDelayMs() {
+        return maxDelayMs;
+    }
+
+    public long getDeadlineMs() {
+        return deadlineMs;
+    }
+
+    <T> Retryer<T> newRetryer(Predicate<Throwable> retryIf, @Nullable RetryListener listener) {
+        RetryerBuilder<T> builder = RetryerBuilder.<T>newBuilder()
+                .retryIfException(retryIf)
+                .withStopStrategy(new PolicyStopStrategy())
+                .withWaitStrategy(new PolicyWaitStrategy());
+        if (listener != null) {
+            builder.withRetryListener(listener);
+        }
+        return builder.build();
+    }
+
+    /**
+     * @param attemptNumber the number of the attempt which failed, starting at 1
+     * @param failure the exception the attempt failed with
+     * @param elapsedMs the time since the first attempt started
+     * @return the time to wait before the next attempt
+     */
+    long getDelay(long attemptNumber, @Nullable Throwable failure, long elapsedMs) {
+        long remaining = Math.max(0, deadlineMs - elapsedMs);
+        Long retryAfter = getRetryAfter(failure);
+        if (retryAfter != null) {
+            return Math.min(retryAfter, remaining);
+        }
+        long bound = initialDelayMs;
+        for (long i = 1; i < attemptNumber && bound < maxDelayMs; i++) {
+            bound *= 2;
+        }
+        bound = Math.min(bound, maxDelayMs);
+        long delay = bound == 0 ? 0 : ThreadLocalRandom.current().nextLong(bound + 1);
+        return Math.min(delay, remaining);
+    }
+
+    boolean shouldStop(long attemptNumber, @Nullable Throwable failure, long elapsedMs) {
+        if (attemptNumber >= maxAttempts || elapsedMs >= deadlineMs) {
+            return true;
+        }
+        //No point in waiting if the server asked for longer than the time left
+        Long retryAfter = getRetryAfter(failure);
+        return retryAfter != null && elapsedMs + retryAfter > deadlineMs;
+    }
+
+    @Nullable
+    private static Long getRetryAfter(@Nullable Throwable failure) {
+        for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+            if (cause instanceof RepoException) {
+                return ((RepoException) cause).getRetryAfterMs();
+            }
+        }
+        return null;
+    }
+
+    @Nullable
+    private static Throwable getFailure(Attempt<?> attempt) {
+        return attempt.hasException() ? attempt.getExceptionCause() : null;
+    }
+
+    @Override
+    public String toString() {
+        return "RetryPolicy{maxAttempts=" + maxAttempts + ", initialDelayMs=" + initialDelayMs +
+                ", maxDelayMs=" + maxDelayMs + ", deadlineMs=" + deadlineMs + "}";
+    }
+
+    private class PolicyWaitStrategy implements WaitStrategy {
+        @Override
+        public long computeSleepTime(Attempt failedAttempt) {
+            return getDelay(failedAttempt.getAttemptNumber(), getFailure(failedAttempt),
+                    failedAttempt.getDelaySinceFirstAttempt());
+        }
+    }
+
+    private class PolicyStopStrategy implements StopStrategy {
+        @Override
+        public boolean shouldStop(Attempt failedAttempt) {
+            return RetryPolicy.this.shouldStop(failedAttempt.getAttemptNumber(), getFailure(failedAttempt),
+                    failedAttempt.getDelaySinceFirstAttempt());
+        }
+    }
+}
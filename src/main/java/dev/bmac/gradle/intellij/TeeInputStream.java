@@ -0,0 +1,185 @@
+package dev.bmac.gradle.intellij;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads a channel in large blocks once and gives the data to two consumers: this stream, and a branch stream read on
+ * another thread. Every block read for this stream is queued for the branch, so a file can be hashed two ways with a
+ * single read from disk. The queue is bounded, so the faster reader waits for the slower one.
+ *
+ * Once done with this stream call {@link #finish()}, which reads anything this stream did not read so the branch
+ * gets the whole channel. Closing the stream before that ends the branch with an exception.
+ */
+class TeeInputStream extends InputStream {
+    private static final int QUEUE_SIZE = 8;
+    private static final Block END = new Block(new byte[0], 0);
+    private static final Block ABORTED = new Block(new byte[0], 0);
+
+    private final ReadableByteChannel channel;
+    private final int blockSize;
+    private final BlockingQueue<Block> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+    private final Branch branch = new Branch();
+    //Set once the branch is closed, blocks are then no longer queued
+    private volatile boolean branchClosed;
+
+    private byte[] block = new byte[0];
+    private int position;
+    private int limit;
+    private boolean ended;
+
+    TeeInputStream(ReadableByteChannel channel, int blockSize) {
+        this.channel = channel;
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * @return the stream receiving the same data, to be read on another thread
+     */
+    InputStream getBranch() {
+        return branch;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (position == limit && !fill()) {
+            return -1;
+        }
+        return block[position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (position == limit && !fill()) {
+            return -1;
+        }
+        int read = Math.min(len, limit - position);
+        System.arraycopy(block, position, b, off, read);
+        position += read;
+        return read;
+    }
+
+    @Override
+    public int available() {
+        return limit - position;
+    }
+
+    /**
+     * Reads the rest of the channel for the branch
+     */
+    void finish() throws IOException {
+        while (fill()) {
+            position = limit;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!ended) {
+            ended = true;
+            offer(ABORTED);
+        }
+    }
+
+    /**
+     * Reads the next block, a new array each time as the branch may still be reading the previous ones
+     * @return false at the end of the channel
+     */
+    private boolean fill() throws IOException {
+        if (ended) {
+            return false;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(blockSize);
+        while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+            //Read until the block is full or the channel ends
+        }
+        if (buffer.position() == 0) {
+            ended = true;
+            offer(END);
+            return false;
+        }
+        block = buffer.array();
+        position = 0;
+        limit = buffer.position();
+        offer(new Block(block, limit));
+        return true;
+    }
+
+    private void offer(Block next) throws IOException {
+        try {
+            while (!branchClosed && !queue.offer(next, 100, TimeUnit.MILLISECONDS)) {
+                //Wait for the branch to catch up
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the branch reader", e);
+        }
+    }
+
+    private static class Block {
+        private final byte[] data;
+        private final int length;
+
+        Block(byte[] data, int length) {
+            this.data = data;
+            this.length = length;
+        }
+    }
+
+    private class Branch extends InputStream {
+        private Block current = new Block(new byte[0], 0);
+        private int position;
+
+        @Override
+        public int read() throws IOException {
+            if (position == current.length && !next()) {
+                return -1;
+            }
+            return current.data[position++] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (position == current.length && !next()) {
+                return -1;
+            }
+            int read = Math.min(len, current.length - position);
+            System.arraycopy(current.data, position, b, off, read);
+            position += read;
+            return read;
+        }
+
+        @Override
+        public void close() {
+            branchClosed = true;
+            queue.clear();
+        }
+
+        private boolean next() throws IOException {
+            if (current != END && current != ABORTED) {
+                try {
+                    current = queue.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while waiting for data", e);
+                }
+                position = 0;
+            }
+            if (current == ABORTED) {
+                throw new IOException("Reading stopped before the end of the file");
+            }
+            return current != END;
+        }
+    }
+}
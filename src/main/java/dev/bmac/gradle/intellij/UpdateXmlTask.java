@@ -1,6 +1,7 @@
 package dev.bmac.gradle.intellij;
 
 import dev.bmac.gradle.intellij.xml.PluginElement;
+import dev.bmac.gradle.intellij.xml.PluginsCodec;
 import dev.bmac.gradle.intellij.xml.PluginsElement;
 import org.gradle.api.file.RegularFileProperty;
 import org.gradle.api.internal.ConventionTask;
@@ -13,6 +14,10 @@ import org.gradle.api.tasks.TaskAction;
 
 import javax.inject.Inject;
 import java.io.File;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 
 public class UpdateXmlTask extends ConventionTask {
 
@@ -66,7 +71,9 @@ public class UpdateXmlTask extends ConventionTask {
         File updateFile = this.updateFile.getAsFile().get();
         PluginsElement pluginsElement = new PluginsElement();
         if (updateFile.exists()) {
-             pluginsElement = (PluginsElement) PluginUpdatesUtil.UNMARSHALLER.unmarshal(updateFile);
+            try (InputStream in = Files.newInputStream(updateFile.toPath())) {
+                pluginsElement = PluginsCodec.get().read(in);
+            }
         } else {
             getLogger().info(updateFile.getName() + " not found, creating new file");
         }
@@ -75,7 +82,9 @@ public class UpdateXmlTask extends ConventionTask {
                 changeNotes.getOrNull(), pluginName.get(), sinceBuild.getOrNull(), untilBuild.getOrNull(), downloadUrl.get());
         PluginUpdatesUtil.updateOrAdd(pluginElement, pluginsElement.getPlugins(), getLogger());
 
-        PluginUpdatesUtil.MARSHALLER.marshal(pluginsElement, updateFile);
+        try (Writer out = Files.newBufferedWriter(updateFile.toPath(), StandardCharsets.UTF_8)) {
+            PluginsCodec.get().write(pluginsElement, out);
+        }
     }
 
     public RegularFileProperty getUpdateFile() {
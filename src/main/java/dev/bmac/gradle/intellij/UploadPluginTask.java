@@ -1,5 +1,6 @@
 package dev.bmac.gradle.intellij;
 
+import dev.bmac.gradle.intellij.repos.S3Repo;
 import org.gradle.api.file.RegularFileProperty;
 import org.gradle.api.internal.ConventionTask;
 import org.gradle.api.logging.Logger;
@@ -7,10 +8,12 @@ import org.gradle.api.model.ObjectFactory;
 import org.gradle.api.provider.Property;
 import org.gradle.api.tasks.Input;
 import org.gradle.api.tasks.InputFile;
+import org.gradle.api.tasks.Internal;
 import org.gradle.api.tasks.Optional;
 import org.gradle.api.tasks.TaskAction;
 
 import javax.inject.Inject;
+import java.util.concurrent.TimeUnit;
 
 public class UploadPluginTask extends ConventionTask {
     public static final String UPDATE_PLUGINS_FILENAME = "updatePlugins.xml";
@@ -74,6 +77,66 @@ public class UploadPluginTask extends ConventionTask {
     @Input
     @Optional
     public final Property<PluginUploader.RepoType> repoType;
+    //Upload the plugin, blockmap and hash files in parallel (optional)
+    @Input
+    @Optional
+    public final Property<Boolean> concurrentUploads;
+    //Size in bytes above which files are uploaded in parts, S3 only (optional)
+    @Input
+    @Optional
+    public final Property<Long> multipartThreshold;
+    //Size in bytes of each part of a multipart upload, S3 only (optional)
+    @Input
+    @Optional
+    public final Property<Long> multipartPartSize;
+    //Number of parts uploaded in parallel, S3 only (optional)
+    @Input
+    @Optional
+    public final Property<Integer> multipartConcurrency;
+    //How concurrent changes to updatePlugins.xml are prevented (optional)
+    @Input
+    @Optional
+    public final Property<PluginUploader.UpdateMode> updateMode;
+    //Create the lock with a single conditional write when the repository supports it (optional)
+    @Input
+    @Optional
+    public final Property<Boolean> atomicLock;
+    //Seconds the lock stays valid without being renewed before other builds may take it over (optional)
+    @Input
+    @Optional
+    public final Property<Long> lockTtlSeconds;
+    //Wait for the lock in a queue, in the order the builds asked for it (optional)
+    @Input
+    @Optional
+    public final Property<Boolean> queuedLock;
+    //Compact pending fragments into the update file after publishing in the FRAGMENTS update mode (optional)
+    @Input
+    @Optional
+    public final Property<Boolean> compactFragments;
+    //Maximum number of attempts for each repository operation, including the first (optional)
+    @Input
+    @Optional
+    public final Property<Integer> retryMaxAttempts;
+    //Upper bound of the randomized wait after the first failed attempt, doubling for each further attempt (optional)
+    @Input
+    @Optional
+    public final Property<Long> retryInitialDelayMs;
+    //Upper bound of any wait between attempts (optional)
+    @Input
+    @Optional
+    public final Property<Long> retryMaxDelayMs;
+    //Time after the first attempt after which no further attempts are made (optional)
+    @Input
+    @Optional
+    public final Property<Long> retryDeadlineMs;
+    //Milliseconds to collect publishes to the same update file in this build before updating it once for all of them (optional)
+    @Input
+    @Optional
+    public final Property<Long> publishBatchWindowMs;
+    //Only parse the entries of the published plugin and copy all other entries of the update file unchanged (optional)
+    @Input
+    @Optional
+    public final Property<Boolean> patchUpdateFile;
 
     /**
      * @deprecated Update to use repoType
@@ -91,6 +154,8 @@ public class UploadPluginTask extends ConventionTask {
     public final RegularFileProperty blockmapFile;
     @InputFile
     final RegularFileProperty blockmapHashFile;
+    @Internal
+    final Property<PublishCoordinatorService> publishCoordinator;
 
     @Inject
     public UploadPluginTask(ObjectFactory objectFactory) {
@@ -109,9 +174,25 @@ public class UploadPluginTask extends ConventionTask {
         sinceBuild = objectFactory.property(String.class);
         untilBuild = objectFactory.property(String.class);
         repoType = objectFactory.property(PluginUploader.RepoType.class);
+        concurrentUploads = objectFactory.property(Boolean.class);
+        multipartThreshold = objectFactory.property(Long.class);
+        multipartPartSize = objectFactory.property(Long.class);
+        multipartConcurrency = objectFactory.property(Integer.class);
+        updateMode = objectFactory.property(PluginUploader.UpdateMode.class);
+        atomicLock = objectFactory.property(Boolean.class);
+        lockTtlSeconds = objectFactory.property(Long.class);
+        queuedLock = objectFactory.property(Boolean.class);
+        compactFragments = objectFactory.property(Boolean.class);
+        retryMaxAttempts = objectFactory.property(Integer.class);
+        retryInitialDelayMs = objectFactory.property(Long.class);
+        retryMaxDelayMs = objectFactory.property(Long.class);
+        retryDeadlineMs = objectFactory.property(Long.class);
+        publishBatchWindowMs = objectFactory.property(Long.class);
+        patchUpdateFile = objectFactory.property(Boolean.class);
         uploadMethod = objectFactory.property(PluginUploader.UploadMethod.class);
         blockmapFile = objectFactory.fileProperty();
         blockmapHashFile = objectFactory.fileProperty();
+        publishCoordinator = objectFactory.property(PublishCoordinatorService.class);
     }
 
 
@@ -135,7 +216,11 @@ public class UploadPluginTask extends ConventionTask {
             }
         }
 
-        new PluginUploader(1000, 5, logger,
+        RetryPolicy retryPolicy = new RetryPolicy(retryMaxAttempts.getOrElse(RetryPolicy.DEFAULT_MAX_ATTEMPTS),
+                retryInitialDelayMs.getOrElse(RetryPolicy.DEFAULT_INITIAL_DELAY_MS),
+                retryMaxDelayMs.getOrElse(RetryPolicy.DEFAULT_MAX_DELAY_MS),
+                retryDeadlineMs.getOrElse(RetryPolicy.DEFAULT_DEADLINE_MS));
+        PluginUploader pluginUploader = new PluginUploader(1000, 5, logger,
                 url.get(),
                 downloadUrlPrefix.getOrNull(),
                 absoluteDownloadUrls.getOrElse(false),
@@ -152,7 +237,25 @@ public class UploadPluginTask extends ConventionTask {
                 untilBuild.getOrNull(),
                 rt,
                 blockmapFile.getAsFile().get(),
-                blockmapHashFile.getAsFile().get()).execute();
+                blockmapHashFile.getAsFile().get());
+        pluginUploader.setRetryPolicy(retryPolicy);
+        pluginUploader.setConcurrentUploads(concurrentUploads.getOrElse(false));
+        pluginUploader.setMultipartUpload(multipartThreshold.getOrElse(S3Repo.DEFAULT_MULTIPART_THRESHOLD),
+                multipartPartSize.getOrElse(S3Repo.DEFAULT_PART_SIZE),
+                multipartConcurrency.getOrElse(S3Repo.DEFAULT_PART_CONCURRENCY));
+        pluginUploader.setUpdateMode(updateMode.getOrElse(PluginUploader.UpdateMode.LOCK));
+        pluginUploader.setAtomicLock(atomicLock.getOrElse(false));
+        pluginUploader.setQueuedLock(queuedLock.getOrElse(false));
+        pluginUploader.setCompactFragments(compactFragments.getOrElse(true));
+        pluginUploader.setPatchUpdates(patchUpdateFile.getOrElse(false));
+        if (lockTtlSeconds.isPresent()) {
+            pluginUploader.setLockTtl(TimeUnit.SECONDS.toMillis(lockTtlSeconds.get()));
+        }
+        if (publishBatchWindowMs.isPresent() && publishCoordinator.isPresent()) {
+            pluginUploader.setPublishCoordinator(
+                    publishCoordinator.get().getCoordinator(pluginUploader, publishBatchWindowMs.get()));
+        }
+        pluginUploader.execute();
     }
 
     public Property<String> getUrl() {
@@ -215,6 +318,66 @@ public class UploadPluginTask extends ConventionTask {
         return repoType;
     }
 
+    public Property<Boolean> getConcurrentUploads() {
+        return concurrentUploads;
+    }
+
+    public Property<Long> getMultipartThreshold() {
+        return multipartThreshold;
+    }
+
+    public Property<Long> getMultipartPartSize() {
+        return multipartPartSize;
+    }
+
+    public Property<Integer> getMultipartConcurrency() {
+        return multipartConcurrency;
+    }
+
+    public Property<PluginUploader.UpdateMode> getUpdateMode() {
+        return updateMode;
+    }
+
+    public Property<Boolean> getAtomicLock() {
+        return atomicLock;
+    }
+
+    public Property<Long> getLockTtlSeconds() {
+        return lockTtlSeconds;
+    }
+
+    public Property<Boolean> getQueuedLock() {
+        return queuedLock;
+    }
+
+    public Property<Boolean> getCompactFragments() {
+        return compactFragments;
+    }
+
+    public Property<Integer> getRetryMaxAttempts() {
+        return retryMaxAttempts;
+    }
+
+    public Property<Long> getRetryInitialDelayMs() {
+        return retryInitialDelayMs;
+    }
+
+    public Property<Long> getRetryMaxDelayMs() {
+        return retryMaxDelayMs;
+    }
+
+    public Property<Long> getRetryDeadlineMs() {
+        return retryDeadlineMs;
+    }
+
+    public Property<Long> getPublishBatchWindowMs() {
+        return publishBatchWindowMs;
+    }
+
+    public Property<Boolean> getPatchUpdateFile() {
+        return patchUpdateFile;
+    }
+
     public RegularFileProperty getBlockmapFile() {
         return blockmapFile;
     }
@@ -0,0 +1,144 @@
+package dev.bmac.gradle.intellij;
+
+import com.google.common.io.ByteStreams;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.LocalDateTime;
+import java.util.Comparator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Rewrites a zip so the same content always gives the same bytes: entries sorted by name, a fixed time on every entry,
+ * no comments or extra fields and a fixed compression level. Jars and zips inside it are rewritten the same way.
+ *
+ * With nested archives stored instead of deflated, an unchanged jar is the same run of bytes in every version of the
+ * plugin, which the blockmap chunks of the next version can reuse.
+ */
+class ZipNormalizer {
+    //Same as the reproducible archives of Gradle, the earliest time which is the same in all time zones
+    static final LocalDateTime ENTRY_TIME = LocalDateTime.of(1980, 2, 1, 0, 0);
+
+    //The manifest and signature files first as JarInputStream expects them there, then by name
+    static final Comparator<String> ENTRY_ORDER = Comparator.comparingInt(ZipNormalizer::rank)
+            .thenComparing(Comparator.naturalOrder());
+
+    private final int compressionLevel;
+    private final boolean storeArchives;
+
+    /**
+     * @param compressionLevel deflate level of the entries
+     * @param storeArchives store nested jars and zips uncompressed rather than deflated
+     */
+    ZipNormalizer(int compressionLevel, boolean storeArchives) {
+        this.compressionLevel = compressionLevel;
+        this.storeArchives = storeArchives;
+    }
+
+    void normalize(File source, File target) throws IOException {
+        try (ZipFile zip = new ZipFile(source);
+             ZipOutputStream zos = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(target)))) {
+            Map<String, ZipEntry> entries = new TreeMap<>(ENTRY_ORDER);
+            zip.stream().forEach(entry -> entries.putIfAbsent(entry.getName(), entry));
+            zos.setLevel(compressionLevel);
+            for (ZipEntry entry : entries.values()) {
+                try (InputStream is = zip.getInputStream(entry)) {
+                    write(zos, entry.getName(), is);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the normalized archive, or the archive as is if it can't be read as a zip
+     */
+    byte[] normalize(byte[] archive) throws IOException {
+        Map<String, byte[]> entries = new TreeMap<>(ENTRY_ORDER);
+        try (ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(archive))) {
+            ZipEntry entry;
+            while ((entry = zis.getNextEntry()) != null) {
+                byte[] content = ByteStreams.toByteArray(zis);
+                entries.putIfAbsent(entry.getName(), content);
+            }
+        } catch (ZipException e) {
+            return archive;
+        }
+        if (entries.isEmpty()) {
+            //Not a zip, or an empty one which is left as is
+            return archive;
+        }
+        ByteArrayOutputStream normalized = new ByteArrayOutputStream(archive.length);
+        try (ZipOutputStream zos = new ZipOutputStream(normalized)) {
+            zos.setLevel(compressionLevel);
+            for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                write(zos, entry.getKey(), new ByteArrayInputStream(entry.getValue()));
+            }
+        }
+        return normalized.toByteArray();
+    }
+
+    private void write(ZipOutputStream zos, String name, InputStream content) throws IOException {
+        ZipEntry entry = new ZipEntry(name);
+        entry.setTimeLocal(ENTRY_TIME);
+        if (name.endsWith("/")) {
+            store(zos, entry, new byte[0]);
+        } else if (isArchive(name)) {
+            byte[] archive = normalize(ByteStreams.toByteArray(content));
+            if (storeArchives) {
+                store(zos, entry, archive);
+            } else {
+                entry.setMethod(ZipEntry.DEFLATED);
+                zos.putNextEntry(entry);
+                zos.write(archive);
+            }
+        } else {
+            entry.setMethod(ZipEntry.DEFLATED);
+            zos.putNextEntry(entry);
+            ByteStreams.copy(content, zos);
+        }
+        zos.closeEntry();
+    }
+
+    private static void store(ZipOutputStream zos, ZipEntry entry, byte[] content) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(content);
+        entry.setMethod(ZipEntry.STORED);
+        entry.setSize(content.length);
+        entry.setCompressedSize(content.length);
+        entry.setCrc(crc.getValue());
+        zos.putNextEntry(entry);
+        zos.write(content);
+    }
+
+    private static boolean isArchive(String name) {
+        String lowerCase = name.toLowerCase(Locale.ROOT);
+        return lowerCase.endsWith(".jar") || lowerCase.endsWith(".zip");
+    }
+
+    private static int rank(String name) {
+        String upperCase = name.toUpperCase(Locale.ROOT);
+        if (upperCase.equals("META-INF/")) {
+            return 0;
+        } else if (upperCase.equals("META-INF/MANIFEST.MF")) {
+            return 1;
+        } else if (upperCase.startsWith("META-INF/") && upperCase.indexOf('/', "META-INF/".length()) < 0
+                && (upperCase.endsWith(".SF") || upperCase.endsWith(".RSA") || upperCase.endsWith(".DSA")
+                || upperCase.endsWith(".EC"))) {
+            return 2;
+        }
+        return 3;
+    }
+}
@@ -2,9 +2,16 @@ package dev.bmac.gradle.intellij.repos;
 
 import org.gradle.api.logging.Logger;
 
+import javax.annotation.Nullable;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
 
 /**
@@ -12,6 +19,11 @@ import java.util.function.Function;
  */
 public abstract class Repo {
 
+    static final String CONDITIONAL_PROBE_FILE = ".conditional-write-probe-";
+    //Conditional write support per repository, kept for the lifetime of the (daemon) process
+    private static final Map<String, Boolean> CONDITIONAL_CREATE_SUPPORT = new ConcurrentHashMap<>();
+    private static final Map<String, Boolean> CONDITIONAL_REPLACE_SUPPORT = new ConcurrentHashMap<>();
+
     final String baseRepoPath;
     final String authentication;
     final Logger logger;
@@ -41,6 +53,116 @@ public abstract class Repo {
      */
     public abstract void upload(String relativePath, File file, String mediaType) throws IOException;
 
+    /**
+     * Uploads a file to the repo only if the object in the repo has not changed since it was read.
+     * @param relativePath the relative path between the url and the object.
+     * @param file the file to upload
+     * @param mediaType the type of file which is being uploaded, some implementations may not need this
+     * @param eTag the ETag the object had when it was read, or null if the object must not exist yet
+     * @return true if the file was uploaded, false if the object was changed (or created) by someone else
+     * @throws IOException if any issues happen
+     */
+    public abstract boolean conditionalUpload(String relativePath, File file, String mediaType, @Nullable String eTag) throws IOException;
+
+    /**
+     * Checks whether the repo rejects a create-only write (If-None-Match: *) of an object which already exists.
+     * Servers which ignore the precondition would silently overwrite the object, so this is probed once per repository
+     * by creating a unique object twice and the result is cached.
+     * @return true if conditionalUpload with a null ETag is atomic on this repo
+     * @throws IOException if the probe failed, the result is then not cached
+     */
+    public boolean supportsConditionalCreate() throws IOException {
+        Boolean supported = CONDITIONAL_CREATE_SUPPORT.get(getRepoId());
+        if (supported == null) {
+            supported = probeConditionalCreate();
+            CONDITIONAL_CREATE_SUPPORT.put(getRepoId(), supported);
+        }
+        return supported;
+    }
+
+    private boolean probeConditionalCreate() throws IOException {
+        String probePath = CONDITIONAL_PROBE_FILE + UUID.randomUUID();
+        File probeFile = Files.createTempFile("conditional-probe", null).toFile();
+        try {
+            Files.write(probeFile.toPath(), probePath.getBytes(StandardCharsets.UTF_8));
+            if (!conditionalUpload(probePath, probeFile, "text/plain", null)) {
+                logger.warn("Conditional write probe was rejected although the probe did not exist, " +
+                        "falling back to non-atomic operations");
+                return false;
+            }
+            try {
+                boolean supported = !conditionalUpload(probePath, probeFile, "text/plain", null);
+                if (!supported) {
+                    logger.info("Repository does not support conditional writes, falling back to non-atomic operations");
+                }
+                return supported;
+            } finally {
+                try {
+                    delete(probePath);
+                } catch (IOException e) {
+                    logger.warn("Failed to delete conditional write probe '" + probePath + "'", e);
+                }
+            }
+        } finally {
+            probeFile.delete();
+        }
+    }
+
+    /**
+     * Checks whether the repo rejects a replace (If-Match) of an object which does not have the given ETag. Servers
+     * which ignore the precondition would silently overwrite changes made by others, so this is probed once per
+     * repository by replacing a unique object with a stale ETag and the result is cached.
+     * @return true if conditionalUpload with an ETag is atomic on this repo
+     * @throws IOException if the probe failed, the result is then not cached
+     */
+    public boolean supportsConditionalReplace() throws IOException {
+        Boolean supported = CONDITIONAL_REPLACE_SUPPORT.get(getRepoId());
+        if (supported == null) {
+            supported = probeConditionalReplace();
+            CONDITIONAL_REPLACE_SUPPORT.put(getRepoId(), supported);
+        }
+        return supported;
+    }
+
+    private boolean probeConditionalReplace() throws IOException {
+        String probePath = CONDITIONAL_PROBE_FILE + UUID.randomUUID();
+        File probeFile = Files.createTempFile("conditional-probe", null).toFile();
+        try {
+            Files.write(probeFile.toPath(), probePath.getBytes(StandardCharsets.UTF_8));
+            upload(probePath, probeFile, "text/plain");
+            try {
+                //No object ever has this ETag, so the write must be rejected
+                boolean supported = !conditionalUpload(probePath, probeFile, "text/plain", "\"" + probePath + "\"");
+                if (!supported) {
+                    logger.warn("Repository accepted a write with a stale If-Match precondition");
+                }
+                return supported;
+            } finally {
+                try {
+                    delete(probePath);
+                } catch (IOException e) {
+                    logger.warn("Failed to delete conditional write probe '" + probePath + "'", e);
+                }
+            }
+        } finally {
+            probeFile.delete();
+        }
+    }
+
+    /**
+     * @return an identifier for the repository location, used to cache repository capabilities
+     */
+    protected String getRepoId() {
+        return getClass().getName() + ":" + baseRepoPath;
+    }
+
+    /**
+     * Lists the files below a directory of the repo, including files in sub directories
+     * @param directory the path of the directory relative to the repo root
+     * @return the paths of the files relative to the repo root, or an empty list if the directory does not exist
+     */
+    public abstract List<String> list(String directory) throws IOException;
+
     /**
      * Delete the file from the repo
      * @param relativePath the relative path between the url and the object.
@@ -53,14 +175,16 @@ public abstract class Repo {
      */
     public static class RepoObject {
 
-        private static final RepoObject EMPTY = new RepoObject(false, null);
+        private static final RepoObject EMPTY = new RepoObject(false, null, null);
         private final boolean exists;
         private final InputStream inputStream;
+        private final String eTag;
 
 
-        private RepoObject(boolean exists, InputStream inputStream) {
+        private RepoObject(boolean exists, InputStream inputStream, String eTag) {
             this.exists = exists;
             this.inputStream = inputStream;
+            this.eTag = eTag;
         }
 
         public boolean exists() {
@@ -71,12 +195,24 @@ public abstract class Repo {
             return inputStream;
         }
 
+        /**
+         * @return the version identifier of the object, or null if the object does not exist or the repo did not provide one
+         */
+        @Nullable
+        public String getETag() {
+            return eTag;
+        }
+
         public static RepoObject empty() {
             return EMPTY;
         }
 
         public static RepoObject of(InputStream is) {
-            return new RepoObject(true, is);
+            return new RepoObject(true, is, null);
+        }
+
+        public static RepoObject of(InputStream is, @Nullable String eTag) {
+            return new RepoObject(true, is, eTag);
         }
     }
 }
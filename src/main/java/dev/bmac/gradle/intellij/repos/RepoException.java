@@ -0,0 +1,80 @@
+package dev.bmac.gradle.intellij.repos;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Thrown when the repository responded to a request with an error status.
+ */
+public class RepoException extends IOException {
+    private final int statusCode;
+    private final Long retryAfterMs;
+
+    public RepoException(String message, int statusCode, @Nullable Long retryAfterMs) {
+        this(message, statusCode, retryAfterMs, null);
+    }
+
+    public RepoException(String message, int statusCode, @Nullable Long retryAfterMs, @Nullable Throwable cause) {
+        super(message, cause);
+        this.statusCode = statusCode;
+        this.retryAfterMs = retryAfterMs;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * @return the time in milliseconds the server asked to wait before retrying, or null if it did not say
+     */
+    @Nullable
+    public Long getRetryAfterMs() {
+        return retryAfterMs;
+    }
+
+    /**
+     * @return true if the request may succeed when it is retried
+     */
+    public boolean isTransient() {
+        return isTransientStatus(statusCode);
+    }
+
+    /**
+     * Timeouts, throttling and server errors are transient. Other client errors, as well as server errors which
+     * indicate the request is not supported, will fail the same way on every attempt.
+     */
+    public static boolean isTransientStatus(int statusCode) {
+        if (statusCode == 408 || statusCode == 429) {
+            return true;
+        }
+        return statusCode >= 500 && statusCode != 501 && statusCode != 505;
+    }
+
+    /**
+     * Parses a Retry-After header, which is either a number of seconds or an HTTP date
+     * @return the time to wait in milliseconds, or null if the header is missing or invalid
+     */
+    @Nullable
+    public static Long parseRetryAfter(@Nullable String retryAfter) {
+        if (retryAfter == null || retryAfter.trim().isEmpty()) {
+            return null;
+        }
+        String value = retryAfter.trim();
+        try {
+            return Math.max(0, Long.parseLong(value)) * 1000;
+        } catch (NumberFormatException e) {
+            //Not a number of seconds, try an HTTP date
+        }
+        try {
+            Instant date = ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant();
+            return Math.max(0, Duration.between(Instant.now(), date).toMillis());
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+}
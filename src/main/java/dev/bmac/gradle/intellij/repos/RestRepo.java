@@ -11,13 +11,23 @@ import org.gradle.api.logging.Logger;
 
 import java.io.File;
 import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
 import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * Implementation for REST-style repositories (Nexus, Artifactory, etc)
  */
 public class RestRepo extends Repo {
     private static final OkHttpClient CLIENT = new OkHttpClient.Builder().build();
+    private static final Pattern HREF_PATTERN = Pattern.compile("href\\s*=\\s*[\"']([^\"'#?]+)[\"']", Pattern.CASE_INSENSITIVE);
+    //Directory levels followed when listing
+    private static final int MAX_LIST_DEPTH = 4;
     private final String method;
     public RestRepo(String baseRepoPath, String authentication, PluginUploader.RepoType repoType, Logger logger) {
         super(baseRepoPath, authentication, logger);
@@ -52,10 +62,10 @@ public class RestRepo extends Repo {
                 if (body == null) {
                     throw new RuntimeException("Body was null for " + relativePath);
                 }
-                object = RepoObject.of(body.byteStream());
+                object = RepoObject.of(body.byteStream(), response.header("ETag"));
             } else {
                 logger.error("While getting '" + relativePath + "' the server returned status code: " + response.code());
-                throw new RuntimeException("Received an unknown status code while retrieving " + relativePath);
+                throw failure("Received an unknown status code while retrieving " + relativePath, response);
             }
             return converter.apply(object);
         }
@@ -75,12 +85,98 @@ public class RestRepo extends Repo {
         try (Response response = CLIENT.newCall(request).execute()) {
             if (!response.isSuccessful()) {
                 logger.error("Failed to upload '" + relativePath + "', server returned status code: " + response.code());
-                throw new IOException("Failed to upload plugin with status: " + response.code());
+                throw failure("Failed to upload plugin with status: " + response.code(), response);
             }
         }
 
     }
 
+    @Override
+    public boolean conditionalUpload(String relativePath, File file, String mediaType, String eTag) throws IOException {
+        RequestBody requestBody = RequestBody.create(file, MediaType.parse(mediaType));
+        Request.Builder requestBuilder = new Request.Builder()
+                .url(baseRepoPath + "/" + relativePath)
+                .method(method, requestBody);
+        if (eTag == null) {
+            requestBuilder.addHeader("If-None-Match", "*");
+        } else {
+            requestBuilder.addHeader("If-Match", eTag);
+        }
+        if (authentication != null) {
+            requestBuilder.addHeader("Authorization", authentication);
+        }
+        Request request = requestBuilder.build();
+
+        try (Response response = CLIENT.newCall(request).execute()) {
+            if (response.code() == 412) {
+                logger.info("'" + relativePath + "' was modified on the server since it was last read");
+                return false;
+            }
+            if (!response.isSuccessful()) {
+                logger.error("Failed to upload '" + relativePath + "', server returned status code: " + response.code());
+                throw failure("Failed to upload " + relativePath + " with status: " + response.code(), response);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Lists files by reading the HTML directory index the server returns for a directory, as served by Nexus,
+     * Artifactory or a plain web server with directory listings enabled. Links to sub directories are followed.
+     */
+    @Override
+    public List<String> list(String directory) throws IOException {
+        Set<String> paths = new LinkedHashSet<>();
+        listDirectory(directory.endsWith("/") ? directory : directory + "/", paths, 0);
+        return new ArrayList<>(paths);
+    }
+
+    private void listDirectory(String directory, Set<String> paths, int depth) throws IOException {
+        Request.Builder requestBuilder = new Request.Builder()
+                .url(baseRepoPath + "/" + directory)
+                .get();
+        if (authentication != null) {
+            requestBuilder.addHeader("Authorization", authentication);
+        }
+
+        String index;
+        try (Response response = CLIENT.newCall(requestBuilder.build()).execute()) {
+            if (response.code() == 404) {
+                return;
+            }
+            ResponseBody body = response.body();
+            if (!response.isSuccessful() || body == null) {
+                logger.error("While listing '" + directory + "' the server returned status code: " + response.code());
+                throw failure("Failed to list " + directory + " with status: " + response.code(), response);
+            }
+            index = body.string();
+        }
+
+        URI directoryUri = URI.create(baseRepoPath + "/" + directory);
+        Matcher matcher = HREF_PATTERN.matcher(index);
+        while (matcher.find()) {
+            URI child;
+            try {
+                child = directoryUri.relativize(directoryUri.resolve(matcher.group(1)));
+            } catch (IllegalArgumentException e) {
+                continue;
+            }
+            //Skip links outside of this directory, such as the parent directory
+            if (child.isAbsolute() || child.getPath() == null || child.getPath().isEmpty()
+                    || child.getPath().startsWith("/") || child.getPath().startsWith("..")) {
+                continue;
+            }
+            String path = directory + child.getPath();
+            if (path.endsWith("/")) {
+                if (depth < MAX_LIST_DEPTH) {
+                    listDirectory(path, paths, depth + 1);
+                }
+            } else {
+                paths.add(path);
+            }
+        }
+    }
+
     @Override
     public void delete(String relativePath) throws IOException {
         Request.Builder requestBuilder = new Request.Builder()
@@ -95,8 +191,12 @@ public class RestRepo extends Repo {
         try (Response response = CLIENT.newCall(request).execute()) {
             if (!response.isSuccessful()) {
                 logger.error("Failed to delete '" + relativePath + "', Server returned status code: " + response.code());
-                throw new IOException("Failed to delete lock with status: " + response.code());
+                throw failure("Failed to delete lock with status: " + response.code(), response);
             }
         }
     }
+
+    private static RepoException failure(String message, Response response) {
+        return new RepoException(message, response.code(), RepoException.parseRetryAfter(response.header("Retry-After")));
+    }
 }
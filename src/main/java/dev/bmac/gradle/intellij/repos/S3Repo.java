@@ -1,5 +1,7 @@
 package dev.bmac.gradle.intellij.repos;
 
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
 import com.amazonaws.auth.AWSCredentials;
 import com.amazonaws.auth.AWSStaticCredentialsProvider;
 import com.amazonaws.auth.BasicAWSCredentials;
@@ -7,13 +9,38 @@ import com.amazonaws.auth.BasicSessionCredentials;
 import com.amazonaws.client.builder.AwsClientBuilder;
 import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.AmazonS3ClientBuilder;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
 import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.ListObjectsV2Result;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PartETag;
+import com.amazonaws.services.s3.model.PutObjectRequest;
 import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+import com.github.rholder.retry.RetryException;
+import com.github.rholder.retry.Retryer;
+import com.github.rholder.retry.RetryerBuilder;
+import com.github.rholder.retry.StopStrategies;
+import com.github.rholder.retry.WaitStrategies;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.gradle.api.logging.Logger;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 
 /**
@@ -21,10 +48,24 @@ import java.util.function.Function;
  */
 public class S3Repo extends Repo {
 
+    //Files larger than this are uploaded in parts
+    public static final long DEFAULT_MULTIPART_THRESHOLD = 64L * 1024 * 1024;
+    public static final long DEFAULT_PART_SIZE = 16L * 1024 * 1024;
+    public static final int DEFAULT_PART_CONCURRENCY = 4;
+    //S3 rejects parts (other than the last) smaller than 5MB
+    static final long MIN_PART_SIZE = 5L * 1024 * 1024;
+    static final int PART_ATTEMPTS = 3;
+
     final String bucketName;
     final String region;
+    //The host, or scheme, host and port of non-amazon implementations, which the bucket name is only unique within
+    final String endpoint;
     final AmazonS3 client;
 
+    private long multipartThreshold = DEFAULT_MULTIPART_THRESHOLD;
+    private long partSize = DEFAULT_PART_SIZE;
+    private int partConcurrency = DEFAULT_PART_CONCURRENCY;
+
     public S3Repo(String baseRepoPath, String authentication, Logger logger) {
         super(getBaseKeyPath(baseRepoPath), authentication, logger);
 
@@ -37,6 +78,7 @@ public class S3Repo extends Repo {
             //Actual amazon-S3
             bucketName = hostParts[0];
             region = hostParts[2];
+            endpoint = host;
             builder.setRegion(region);
         } else {
             //Non-amazon implementation, used in tests, but minio should work too
@@ -45,6 +87,7 @@ public class S3Repo extends Repo {
             region = "us-east-1";
             String serviceEndpoint = uri.getPort() == -1 ? String.format("%s://%s", uri.getScheme(), uri.getHost())
                                                          : String.format("%s://%s:%d", uri.getScheme(), uri.getHost(), uri.getPort());
+            endpoint = serviceEndpoint;
             builder.setEndpointConfiguration(new AwsClientBuilder.EndpointConfiguration(serviceEndpoint, region));
             builder.enablePathStyleAccess();
         }
@@ -70,25 +113,225 @@ public class S3Repo extends Repo {
     public <T> T get(String relativePath, Function<RepoObject, T> converter) throws IOException {
         try {
             S3Object object = client.getObject(bucketName, baseRepoPath + relativePath);
-            return converter.apply(RepoObject.of(object.getObjectContent()));
+            return converter.apply(RepoObject.of(object.getObjectContent(), object.getObjectMetadata().getETag()));
         } catch (AmazonS3Exception e) {
             if (e.getStatusCode() == 404) {
                 return converter.apply(RepoObject.empty());
             }
             logger.error("Failed to get object '" + relativePath + "', response code from s3: " + e.getStatusCode() +
                         " message: " + e.getMessage());
-            throw new IOException("Failed to get object from s3", e);
+            throw toIOException("Failed to get object from s3", e);
+        } catch (AmazonClientException e) {
+            logger.error("Failed to get object '" + relativePath + "': " + e.getMessage());
+            throw toIOException("Failed to get object from s3", e);
         }
     }
 
+    /**
+     * Configures when and how files are uploaded using the multipart API.
+     * @param threshold files larger than this many bytes are uploaded in parts
+     * @param partSize the size in bytes of each part, must be at least 5MB
+     * @param partConcurrency the number of parts uploaded at the same time
+     */
+    public void setMultipartUpload(long threshold, long partSize, int partConcurrency) {
+        if (partSize < MIN_PART_SIZE) {
+            throw new IllegalArgumentException("Multipart part size must be at least " + MIN_PART_SIZE + " bytes");
+        }
+        if (partConcurrency < 1) {
+            throw new IllegalArgumentException("Multipart concurrency must be at least 1");
+        }
+        this.multipartThreshold = threshold;
+        this.partSize = partSize;
+        this.partConcurrency = partConcurrency;
+    }
+
     @Override
     public void upload(String relativePath, File file, String mediaType) throws IOException {
-        client.putObject(bucketName, baseRepoPath + relativePath, file);
+        if (file.length() > multipartThreshold) {
+            multipartUpload(baseRepoPath + relativePath, file, mediaType);
+        } else {
+            try {
+                client.putObject(new PutObjectRequest(bucketName, baseRepoPath + relativePath, file)
+                        .withMetadata(newMetadata(mediaType)));
+            } catch (AmazonClientException e) {
+                logger.error("Failed to upload object '" + relativePath + "': " + e.getMessage());
+                throw toIOException("Failed to upload object to s3", e);
+            }
+        }
+    }
+
+    @Override
+    public boolean conditionalUpload(String relativePath, File file, String mediaType, String eTag) throws IOException {
+        PutObjectRequest request = new PutObjectRequest(bucketName, baseRepoPath + relativePath, file)
+                .withMetadata(newMetadata(mediaType));
+        if (eTag == null) {
+            request.putCustomRequestHeader("If-None-Match", "*");
+        } else {
+            request.putCustomRequestHeader("If-Match", eTag.startsWith("\"") ? eTag : "\"" + eTag + "\"");
+        }
+        try {
+            client.putObject(request);
+            return true;
+        } catch (AmazonS3Exception e) {
+            //409 is returned when a conflicting conditional write is in progress
+            if (e.getStatusCode() == 412 || e.getStatusCode() == 409) {
+                logger.info("'" + relativePath + "' was modified in s3 since it was last read");
+                return false;
+            }
+            logger.error("Failed to upload object '" + relativePath + "', response code from s3: " + e.getStatusCode() +
+                    " message: " + e.getMessage());
+            throw toIOException("Failed to upload object to s3", e);
+        } catch (AmazonClientException e) {
+            logger.error("Failed to upload object '" + relativePath + "': " + e.getMessage());
+            throw toIOException("Failed to upload object to s3", e);
+        }
+    }
+
+    /**
+     * Uploads the file in parts of partSize, with up to partConcurrency parts in flight. Each part is retried on its
+     * own, and the whole upload is aborted if any part runs out of attempts so no orphaned parts are left behind.
+     */
+    void multipartUpload(String key, File file, String mediaType) throws IOException {
+        String uploadId;
+        try {
+            uploadId = client.initiateMultipartUpload(new InitiateMultipartUploadRequest(bucketName, key,
+                            newMetadata(mediaType)))
+                    .getUploadId();
+        } catch (AmazonClientException e) {
+            logger.error("Failed to start multipart upload for '" + key + "': " + e.getMessage());
+            throw toIOException("Failed to start multipart upload to s3", e);
+        }
+
+        long length = file.length();
+        int partCount = (int) ((length + partSize - 1) / partSize);
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(partCount, partConcurrency),
+                new ThreadFactoryBuilder().setNameFormat("s3-part-upload-%d").setDaemon(true).build());
+        try {
+            List<Future<PartETag>> parts = new ArrayList<>(partCount);
+            for (int i = 0; i < partCount; i++) {
+                int partNumber = i + 1;
+                long offset = i * partSize;
+                long size = Math.min(partSize, length - offset);
+                parts.add(executor.submit(() -> uploadPart(key, uploadId, file, partNumber, offset, size)));
+            }
+            List<PartETag> partETags = new ArrayList<>(partCount);
+            for (Future<PartETag> part : parts) {
+                partETags.add(part.get());
+            }
+            client.completeMultipartUpload(new CompleteMultipartUploadRequest(bucketName, key, uploadId, partETags));
+        } catch (ExecutionException e) {
+            abortMultipartUpload(key, uploadId);
+            Throwable cause = e.getCause();
+            while ((cause instanceof RetryException || cause instanceof ExecutionException) && cause.getCause() != null) {
+                cause = cause.getCause();
+            }
+            logger.error("Failed to upload part of '" + key + "' to s3: " + cause.getMessage());
+            if (cause instanceof AmazonClientException) {
+                throw toIOException("Failed to upload part to s3", (AmazonClientException) cause);
+            }
+            throw new IOException("Failed to upload part to s3", cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            abortMultipartUpload(key, uploadId);
+            throw new InterruptedIOException("Interrupted while uploading '" + key + "'");
+        } catch (AmazonClientException e) {
+            abortMultipartUpload(key, uploadId);
+            logger.error("Failed to complete multipart upload for '" + key + "': " + e.getMessage());
+            throw toIOException("Failed to complete multipart upload to s3", e);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * The same metadata for single and multipart uploads, so objects don't differ depending on their size
+     */
+    private static ObjectMetadata newMetadata(String mediaType) {
+        ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setContentType(mediaType);
+        return metadata;
+    }
+
+    private PartETag uploadPart(String key, String uploadId, File file, int partNumber, long offset, long size)
+            throws ExecutionException, RetryException {
+        Retryer<PartETag> retryer = RetryerBuilder.<PartETag>newBuilder()
+                .retryIfException(S3Repo::isRetryablePartFailure)
+                .withStopStrategy(StopStrategies.stopAfterAttempt(PART_ATTEMPTS))
+                .withWaitStrategy(WaitStrategies.exponentialWait(100, 5, TimeUnit.SECONDS))
+                .build();
+        return retryer.call(() -> client.uploadPart(new UploadPartRequest()
+                .withBucketName(bucketName)
+                .withKey(key)
+                .withUploadId(uploadId)
+                .withPartNumber(partNumber)
+                .withFile(file)
+                .withFileOffset(offset)
+                .withPartSize(size)).getPartETag());
+    }
+
+    private void abortMultipartUpload(String key, String uploadId) {
+        try {
+            client.abortMultipartUpload(new AbortMultipartUploadRequest(bucketName, key, uploadId));
+        } catch (AmazonClientException e) {
+            logger.warn("Failed to abort multipart upload " + uploadId + " for '" + key + "'", e);
+        }
+    }
+
+    private static boolean isRetryablePartFailure(Throwable e) {
+        if (e instanceof AmazonServiceException) {
+            return RepoException.isTransientStatus(((AmazonServiceException) e).getStatusCode());
+        }
+        return e instanceof AmazonClientException;
+    }
+
+    /**
+     * Errors returned by s3 keep their status code so callers can tell transient failures apart, client side
+     * failures (connection errors, timeouts) are plain IOExceptions.
+     */
+    private static IOException toIOException(String message, AmazonClientException e) {
+        if (e instanceof AmazonServiceException) {
+            AmazonServiceException serviceException = (AmazonServiceException) e;
+            Map<String, String> headers = serviceException.getHttpHeaders();
+            return new RepoException(message, serviceException.getStatusCode(),
+                    RepoException.parseRetryAfter(headers == null ? null : headers.get("Retry-After")), e);
+        }
+        return new IOException(message, e);
+    }
+
+    @Override
+    public List<String> list(String directory) throws IOException {
+        String prefix = baseRepoPath + (directory.endsWith("/") ? directory : directory + "/");
+        ListObjectsV2Request request = new ListObjectsV2Request().withBucketName(bucketName).withPrefix(prefix);
+        List<String> paths = new ArrayList<>();
+        try {
+            ListObjectsV2Result result;
+            do {
+                result = client.listObjectsV2(request);
+                for (S3ObjectSummary summary : result.getObjectSummaries()) {
+                    paths.add(summary.getKey().substring(baseRepoPath.length()));
+                }
+                request.setContinuationToken(result.getNextContinuationToken());
+            } while (result.isTruncated());
+        } catch (AmazonClientException e) {
+            logger.error("Failed to list objects in '" + directory + "': " + e.getMessage());
+            throw toIOException("Failed to list objects in s3", e);
+        }
+        return paths;
     }
 
     @Override
     public void delete(String relativePath) throws IOException {
-        client.deleteObject(bucketName, baseRepoPath + relativePath);
+        try {
+            client.deleteObject(bucketName, baseRepoPath + relativePath);
+        } catch (AmazonClientException e) {
+            logger.error("Failed to delete '" + relativePath + "': " + e.getMessage());
+            throw toIOException("Failed to delete object from s3", e);
+        }
+    }
+
+    @Override
+    protected String getRepoId() {
+        return super.getRepoId() + ":" + endpoint + ":" + region + ":" + bucketName;
     }
 
     private static String getBaseKeyPath(String baseRepoPath) {
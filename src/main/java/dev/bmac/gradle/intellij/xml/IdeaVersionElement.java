@@ -5,10 +5,17 @@ import com.intellij.openapi.util.BuildNumber;
 import javax.xml.bind.annotation.XmlAttribute;
 import javax.xml.bind.annotation.XmlTransient;
 
+/**
+ * Build numbers set as strings, such as when read from updatePlugins.xml, are only parsed when first used. Most entries
+ * of a file belong to other plugins and are written back without their build numbers being looked at.
+ */
 public class IdeaVersionElement {
     //<idea-version since-build="181.3" until-build="191.*" />
     private BuildNumber sinceBuild;
     private BuildNumber untilBuild;
+    //Unparsed values, only set while the matching build number has not been parsed
+    private String sinceBuildString;
+    private String untilBuildString;
 
     public IdeaVersionElement() {
 
@@ -25,38 +32,111 @@ public class IdeaVersionElement {
 
     @XmlAttribute(name = "since-build")
     public String getSinceBuildString() {
-        return sinceBuild == null ? null : sinceBuild.asString();
+        if (isCanonical(sinceBuildString)) {
+            return sinceBuildString;
+        }
+        BuildNumber since = getSinceBuild();
+        return since == null ? null : since.asString();
     }
 
     public void setSinceBuildString(String sinceBuild) {
-        this.sinceBuild = BuildNumber.fromString(sinceBuild);
+        this.sinceBuild = null;
+        this.sinceBuildString = sinceBuild;
     }
 
     @XmlAttribute(name = "until-build")
     public String getUntilBuildString() {
-        return untilBuild == null ? null : untilBuild.asString();
+        if (isCanonical(untilBuildString)) {
+            return untilBuildString;
+        }
+        BuildNumber until = getUntilBuild();
+        return until == null ? null : until.asString();
     }
 
     public void setUntilBuildString(String untilBuild) {
-        this.untilBuild = BuildNumber.fromString(untilBuild);
+        this.untilBuild = null;
+        this.untilBuildString = untilBuild;
     }
 
     public BuildNumber getSinceBuild() {
+        if (sinceBuildString != null) {
+            sinceBuild = BuildNumber.fromString(sinceBuildString);
+            sinceBuildString = null;
+        }
         return sinceBuild;
     }
 
     public BuildNumber getUntilBuild() {
+        if (untilBuildString != null) {
+            untilBuild = BuildNumber.fromString(untilBuildString);
+            untilBuildString = null;
+        }
         return untilBuild;
     }
 
     @XmlTransient
     public void setUntilBuild(BuildNumber untilBuild) {
         this.untilBuild = untilBuild;
+        this.untilBuildString = null;
     }
 
     @XmlTransient
     void setSinceBuild(BuildNumber sinceBuild) {
         this.sinceBuild = sinceBuild;
+        this.sinceBuildString = null;
     }
 
+    /**
+     * Replaces the unparsed values with equal instances from the pool
+     */
+    void deduplicate(StringPool strings) {
+        sinceBuildString = strings.get(sinceBuildString);
+        untilBuildString = strings.get(untilBuildString);
+    }
+
+    /**
+     * @return true if the value is written the same after being parsed by {@link BuildNumber#fromString(String)}, for
+     * example 211.1234.5 or IU-211.*, so it can be written without parsing it
+     */
+    private static boolean isCanonical(String value) {
+        if (value == null) {
+            return false;
+        }
+        int start = value.indexOf('-') + 1;
+        if (start == 1) {
+            return false;
+        }
+        for (int i = 0; i < start - 1; i++) {
+            if (!Character.isLetterOrDigit(value.charAt(i))) {
+                return false;
+            }
+        }
+        int components = 0;
+        int i = start;
+        while (i < value.length()) {
+            if (components > 0) {
+                if (value.charAt(i) != '.') {
+                    return false;
+                }
+                i++;
+            }
+            int componentStart = i;
+            while (i < value.length() && value.charAt(i) >= '0' && value.charAt(i) <= '9') {
+                i++;
+            }
+            int digits = i - componentStart;
+            if (digits == 0) {
+                //Only a trailing * is written back as is
+                if (components == 0 || i != value.length() - 1 || value.charAt(i) != '*') {
+                    return false;
+                }
+                i++;
+            } else if (digits > 9 || (digits > 1 && value.charAt(componentStart) == '0')) {
+                return false;
+            }
+            components++;
+        }
+        //A single number is expanded to a baseline and build number
+        return components > 1;
+    }
 }
@@ -0,0 +1,90 @@
+package dev.bmac.gradle.intellij.xml;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.bind.Unmarshaller;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Codec using the JAXB bindings of {@link PluginsElement}. The context is only created on first use.
+ *
+ * Marshallers and unmarshallers are not thread safe, so each read or write borrows one from a pool and returns it when
+ * done. Tasks of different projects may use the codec at the same time in a parallel build. A pool is used over thread
+ * locals as the worker threads of the Gradle daemon outlive the build and would keep the plugin classes loaded.
+ */
+public class JaxbPluginsCodec implements PluginsCodec {
+    public static final JaxbPluginsCodec INSTANCE = new JaxbPluginsCodec();
+
+    private final Queue<Marshaller> marshallers = new ConcurrentLinkedQueue<>();
+    private final Queue<Unmarshaller> unmarshallers = new ConcurrentLinkedQueue<>();
+
+    private JaxbPluginsCodec() {
+
+    }
+
+    public static JAXBContext getContext() {
+        return ContextHolder.CONTEXT;
+    }
+
+    /**
+     * @return a new marshaller writing the same format as {@link StaxPluginsCodec}
+     */
+    public static Marshaller createMarshaller() throws JAXBException {
+        Marshaller marshaller = getContext().createMarshaller();
+        marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
+        marshaller.setProperty(Marshaller.JAXB_FRAGMENT, Boolean.TRUE);
+        return marshaller;
+    }
+
+    @Override
+    public PluginsElement read(InputStream in) throws IOException {
+        try {
+            Unmarshaller unmarshaller = unmarshallers.poll();
+            if (unmarshaller == null) {
+                unmarshaller = getContext().createUnmarshaller();
+            }
+            PluginsElement plugins = (PluginsElement) unmarshaller.unmarshal(in);
+            //Only returned after a successful read, a failed unmarshaller may be left in an unknown state
+            unmarshallers.offer(unmarshaller);
+            StringPool strings = new StringPool();
+            plugins.getPlugins().forEach(strings::deduplicate);
+            return plugins;
+        } catch (JAXBException e) {
+            throw new IOException("Failed to read plugins xml", e);
+        }
+    }
+
+    @Override
+    public void write(PluginsElement plugins, Writer out) throws IOException {
+        if (plugins.getPlugins().stream().anyMatch(plugin -> plugin instanceof RawPluginElement)) {
+            throw new IllegalArgumentException("Patched plugins can only be written with the StAX codec");
+        }
+        try {
+            Marshaller marshaller = marshallers.poll();
+            if (marshaller == null) {
+                marshaller = createMarshaller();
+            }
+            marshaller.marshal(plugins, out);
+            marshallers.offer(marshaller);
+        } catch (JAXBException e) {
+            throw new IOException("Failed to write plugins xml", e);
+        }
+    }
+
+    private static class ContextHolder {
+        private static final JAXBContext CONTEXT;
+
+        static {
+            try {
+                CONTEXT = JAXBContext.newInstance(PluginsElement.class);
+            } catch (JAXBException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+}
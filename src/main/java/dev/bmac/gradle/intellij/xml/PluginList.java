@@ -0,0 +1,128 @@
+package dev.bmac.gradle.intellij.xml;
+
+import com.google.common.collect.ImmutableList;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.RandomAccess;
+
+/**
+ * Plugin entries of updatePlugins.xml backed by an array, with an index of the positions of the entries of each plugin
+ * id. The index is kept up to date when entries are added, replaced or removed, inserting or removing in the middle of
+ * the list shifts the positions after it like the entries themselves are shifted.
+ *
+ * The id of an entry must not be changed while it is in the list.
+ */
+public class PluginList extends AbstractList<PluginElement> implements RandomAccess {
+    private final ArrayList<PluginElement> plugins;
+    private final Map<String, List<Integer>> positions = new HashMap<>();
+    private boolean indexed = true;
+
+    public PluginList() {
+        plugins = new ArrayList<>();
+    }
+
+    public PluginList(Collection<? extends PluginElement> plugins) {
+        this.plugins = new ArrayList<>(plugins);
+        indexed = false;
+    }
+
+    /**
+     * @param id the plugin id
+     * @return the positions of the entries with the id in ascending order
+     */
+    public List<Integer> positionsOf(String id) {
+        if (!indexed) {
+            positions.clear();
+            for (int i = 0; i < plugins.size(); i++) {
+                index(plugins.get(i).getId(), i);
+            }
+            indexed = true;
+        }
+        List<Integer> entries = positions.get(id);
+        return entries == null ? ImmutableList.of() : ImmutableList.copyOf(entries);
+    }
+
+    @Override
+    public PluginElement get(int index) {
+        return plugins.get(index);
+    }
+
+    @Override
+    public int size() {
+        return plugins.size();
+    }
+
+    @Override
+    public PluginElement set(int index, PluginElement plugin) {
+        PluginElement previous = plugins.set(index, plugin);
+        if (indexed && !Objects.equals(previous.getId(), plugin.getId())) {
+            List<Integer> previousPositions = positions.get(previous.getId());
+            previousPositions.remove(Collections.binarySearch(previousPositions, index));
+            if (previousPositions.isEmpty()) {
+                positions.remove(previous.getId());
+            }
+            List<Integer> newPositions = positions.computeIfAbsent(plugin.getId(), id -> new ArrayList<>());
+            newPositions.add(-Collections.binarySearch(newPositions, index) - 1, index);
+        }
+        return previous;
+    }
+
+    @Override
+    public void add(int index, PluginElement plugin) {
+        plugins.add(index, plugin);
+        modCount++;
+        if (indexed) {
+            if (index != plugins.size() - 1) {
+                shiftPositions(index, 1);
+            }
+            List<Integer> entries = positions.computeIfAbsent(plugin.getId(), id -> new ArrayList<>());
+            entries.add(-Collections.binarySearch(entries, index) - 1, index);
+        }
+    }
+
+    @Override
+    public PluginElement remove(int index) {
+        PluginElement removed = plugins.remove(index);
+        modCount++;
+        if (indexed) {
+            List<Integer> entries = positions.get(removed.getId());
+            entries.remove(Collections.binarySearch(entries, index));
+            if (entries.isEmpty()) {
+                positions.remove(removed.getId());
+            }
+            shiftPositions(index, -1);
+        }
+        return removed;
+    }
+
+    @Override
+    public void clear() {
+        plugins.clear();
+        positions.clear();
+        modCount++;
+        indexed = true;
+    }
+
+    /**
+     * Moves all indexed positions at or after the position by the offset
+     */
+    private void shiftPositions(int from, int offset) {
+        for (List<Integer> entries : positions.values()) {
+            //Positions are ascending, so only the tail of each list needs to change
+            for (int i = entries.size() - 1; i >= 0 && entries.get(i) >= from; i--) {
+                entries.set(i, entries.get(i) + offset);
+            }
+        }
+    }
+
+    private void index(String id, int position) {
+        positions.computeIfAbsent(id, key -> new ArrayList<>()).add(position);
+    }
+}
@@ -0,0 +1,39 @@
+package dev.bmac.gradle.intellij.xml;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+
+/**
+ * Reads and writes the updatePlugins.xml format.
+ */
+public interface PluginsCodec {
+    //System property selecting the codec, either jaxb (default) or stax
+    String CODEC_PROPERTY = "dev.bmac.pluginUploader.xmlCodec";
+
+    /**
+     * @param in the updatePlugins.xml content
+     * @return the plugins in the order they appear in the file
+     */
+    PluginsElement read(InputStream in) throws IOException;
+
+    /**
+     * Writes the plugins without an xml declaration, as formatted by the JAXB marshaller
+     */
+    void write(PluginsElement plugins, Writer out) throws IOException;
+
+    /**
+     * @return the codec selected by {@link #CODEC_PROPERTY}
+     */
+    static PluginsCodec get() {
+        String codec = System.getProperty(CODEC_PROPERTY, "jaxb");
+        switch (codec.toLowerCase()) {
+            case "jaxb":
+                return JaxbPluginsCodec.INSTANCE;
+            case "stax":
+                return StaxPluginsCodec.INSTANCE;
+            default:
+                throw new IllegalArgumentException("Unknown " + CODEC_PROPERTY + " '" + codec + "', expected jaxb or stax");
+        }
+    }
+}
@@ -4,7 +4,6 @@ import com.google.common.annotations.VisibleForTesting;
 
 import javax.xml.bind.annotation.XmlElement;
 import javax.xml.bind.annotation.XmlRootElement;
-import java.util.LinkedList;
 import java.util.List;
 
 /**
@@ -16,7 +15,7 @@ public class PluginsElement {
     private List<PluginElement> plugins;
 
     public PluginsElement() {
-        plugins = new LinkedList<>();
+        plugins = new PluginList();
     }
 
     @XmlElement(name = "plugin")
@@ -25,7 +24,7 @@ public class PluginsElement {
     }
 
     public void setPlugins(List<PluginElement> plugins) {
-        this.plugins = plugins;
+        this.plugins = plugins instanceof PluginList ? plugins : new PluginList(plugins);
     }
 
 }
@@ -0,0 +1,353 @@
+package dev.bmac.gradle.intellij.xml;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Reads updatePlugins.xml for patching. Only the boundaries, attributes and idea-version of the plugin entries are
+ * scanned, entries of the given plugins are parsed and all others are kept as {@link RawPluginElement}s which
+ * {@link StaxPluginsCodec} writes back byte for byte. Updating a plugin then only parses and formats the entries of that plugin, and the formatting of
+ * all other entries is preserved.
+ *
+ * Documents declaring an encoding other than UTF-8 are fully parsed.
+ */
+public class PluginsPatchReader {
+    private static final byte[] UTF8_BOM = {(byte) 0xEF, (byte) 0xBB, (byte) 0xBF};
+    private static final Pattern ENCODING_PATTERN = Pattern.compile("encoding\\s*=\\s*[\"']([^\"']+)[\"']");
+    private static final Pattern CHARACTER_REFERENCE = Pattern.compile("&(#x[0-9a-fA-F]+|#[0-9]+|amp|lt|gt|quot|apos);");
+
+    private final byte[] content;
+    private int pos;
+
+    private PluginsPatchReader(byte[] content) {
+        this.content = content;
+    }
+
+    /**
+     * @param content the UTF-8 encoded document
+     * @param pluginIds ids of the plugins whose entries are parsed
+     * @return the plugins in document order, entries of other plugins as {@link RawPluginElement}
+     */
+    public static PluginsElement read(byte[] content, Set<String> pluginIds) throws IOException {
+        try {
+            return new PluginsPatchReader(content).read(pluginIds);
+        } catch (UnsupportedEncodingException e) {
+            return StaxPluginsCodec.INSTANCE.read(new ByteArrayInputStream(content));
+        }
+    }
+
+    private PluginsElement read(Set<String> pluginIds) throws IOException {
+        if (startsWith(UTF8_BOM)) {
+            pos = UTF8_BOM.length;
+        }
+        skipProlog();
+        if (!isStartTag("plugins")) {
+            throw error("Expected a <plugins> element");
+        }
+        PluginsElement plugins = new PluginsElement();
+        pos = endOfTag(pos);
+        if (content[pos - 2] == '/') {
+            return plugins;
+        }
+
+        while (true) {
+            skipText();
+            if (pos >= content.length) {
+                throw error("Unexpected end of document");
+            }
+            if (skipMarkup()) {
+                continue;
+            }
+            if (startsWith("</")) {
+                return plugins;
+            }
+            int start = pos;
+            boolean plugin = isStartTag("plugin");
+            String id = plugin ? getAttribute(start, "id") : null;
+            pos = endOfElement();
+            if (!plugin) {
+                //Unknown elements are dropped, the same as when the document is parsed
+                continue;
+            }
+            if (id != null && !pluginIds.contains(id)) {
+                plugins.getPlugins().add(new RawPluginElement(id, getAttribute(start, "version"),
+                        getAttribute(start, "url"), readVersionInfo(start, pos), content, start, pos));
+            } else {
+                plugins.getPlugins().add(parse(start, pos));
+            }
+        }
+    }
+
+    /**
+     * Skips the xml declaration, comments, processing instructions and doctype before the root element
+     */
+    private void skipProlog() throws IOException {
+        while (true) {
+            skipText();
+            if (startsWith("<?xml")) {
+                int end = indexOf("?>", pos);
+                Matcher encoding = ENCODING_PATTERN.matcher(new String(content, pos, end - pos, StandardCharsets.US_ASCII));
+                if (encoding.find() && !encoding.group(1).equalsIgnoreCase("UTF-8")) {
+                    throw new UnsupportedEncodingException(encoding.group(1));
+                }
+                pos = end + 2;
+            } else if (startsWith("<!DOCTYPE")) {
+                pos = endOfTag(pos);
+            } else if (!skipMarkup()) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Skips a comment, processing instruction or CDATA section at the current position
+     * @return true if anything was skipped
+     */
+    private boolean skipMarkup() throws IOException {
+        if (startsWith("<!--")) {
+            pos = indexOf("-->", pos) + 3;
+        } else if (startsWith("<![CDATA[")) {
+            pos = indexOf("]]>", pos) + 3;
+        } else if (startsWith("<?")) {
+            pos = indexOf("?>", pos) + 2;
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    private void skipText() {
+        while (pos < content.length && content[pos] != '<') {
+            pos++;
+        }
+    }
+
+    /**
+     * @return the offset after the end of the element starting at the current position
+     */
+    private int endOfElement() throws IOException {
+        pos = endOfTag(pos);
+        if (content[pos - 2] == '/') {
+            return pos;
+        }
+        int depth = 1;
+        while (depth > 0) {
+            skipText();
+            if (pos >= content.length) {
+                throw error("Unexpected end of document");
+            }
+            if (skipMarkup()) {
+                continue;
+            }
+            boolean end = startsWith("</");
+            pos = endOfTag(pos);
+            if (end) {
+                depth--;
+            } else if (content[pos - 2] != '/') {
+                depth++;
+            }
+        }
+        return pos;
+    }
+
+    /**
+     * @return the offset after the tag starting at the offset, skipping over quoted attribute values
+     */
+    private int endOfTag(int tagStart) throws IOException {
+        byte quote = 0;
+        for (int i = tagStart + 1; i < content.length; i++) {
+            byte b = content[i];
+            if (quote != 0) {
+                if (b == quote) {
+                    quote = 0;
+                }
+            } else if (b == '"' || b == '\'') {
+                quote = b;
+            } else if (b == '>') {
+                return i + 1;
+            }
+        }
+        throw error("Unterminated tag");
+    }
+
+    /**
+     * @return true if a start tag with the name is at the current position
+     */
+    private boolean isStartTag(String name) {
+        if (!startsWith("<" + name)) {
+            return false;
+        }
+        int next = pos + name.length() + 1;
+        if (next >= content.length) {
+            return false;
+        }
+        byte b = content[next];
+        return b == '>' || b == '/' || Character.isWhitespace(b);
+    }
+
+    /**
+     * @return the value of the attribute in the start tag at the offset, or null if it is not set
+     */
+    private String getAttribute(int tagStart, String name) throws IOException {
+        int tagEnd = endOfTag(tagStart);
+        int i = tagStart + 1;
+        //Skip the element name
+        while (i < tagEnd && !Character.isWhitespace(content[i]) && content[i] != '>' && content[i] != '/') {
+            i++;
+        }
+        while (i < tagEnd) {
+            while (i < tagEnd && (Character.isWhitespace(content[i]) || content[i] == '/' || content[i] == '>')) {
+                i++;
+            }
+            int nameStart = i;
+            while (i < tagEnd && content[i] != '=' && !Character.isWhitespace(content[i])) {
+                i++;
+            }
+            String attribute = new String(content, nameStart, i - nameStart, StandardCharsets.UTF_8);
+            while (i < tagEnd && content[i] != '"' && content[i] != '\'') {
+                i++;
+            }
+            if (i >= tagEnd) {
+                return null;
+            }
+            byte quote = content[i];
+            int valueStart = ++i;
+            while (i < tagEnd && content[i] != quote) {
+                i++;
+            }
+            if (attribute.equals(name)) {
+                return unescape(new String(content, valueStart, i - valueStart, StandardCharsets.UTF_8));
+            }
+            i++;
+        }
+        return null;
+    }
+
+    /**
+     * @return the idea-version child of the plugin entry between the offsets, or null if it has none
+     */
+    private IdeaVersionElement readVersionInfo(int start, int end) throws IOException {
+        int restore = pos;
+        try {
+            pos = endOfTag(start);
+            if (content[pos - 2] == '/') {
+                return null;
+            }
+            while (pos < end) {
+                skipText();
+                if (skipMarkup()) {
+                    continue;
+                }
+                if (pos >= end || startsWith("</")) {
+                    return null;
+                }
+                if (isStartTag("idea-version")) {
+                    IdeaVersionElement versionInfo = new IdeaVersionElement();
+                    versionInfo.setSinceBuildString(getAttribute(pos, "since-build"));
+                    versionInfo.setUntilBuildString(getAttribute(pos, "until-build"));
+                    return versionInfo;
+                }
+                pos = endOfElement();
+            }
+            return null;
+        } finally {
+            pos = restore;
+        }
+    }
+
+    private PluginElement parse(int start, int end) throws IOException {
+        InputStream in = new SequenceInputStream(Collections.enumeration(Arrays.asList(
+                new ByteArrayInputStream("<plugins>".getBytes(StandardCharsets.UTF_8)),
+                new ByteArrayInputStream(content, start, end - start),
+                new ByteArrayInputStream("</plugins>".getBytes(StandardCharsets.UTF_8)))));
+        PluginsElement plugins = StaxPluginsCodec.INSTANCE.read(in);
+        return plugins.getPlugins().get(0);
+    }
+
+    private static String unescape(String value) {
+        if (value.indexOf('&') < 0) {
+            return value;
+        }
+        Matcher matcher = CHARACTER_REFERENCE.matcher(value);
+        StringBuffer result = new StringBuffer();
+        while (matcher.find()) {
+            String reference = matcher.group(1);
+            String replacement;
+            switch (reference) {
+                case "amp":
+                    replacement = "&";
+                    break;
+                case "lt":
+                    replacement = "<";
+                    break;
+                case "gt":
+                    replacement = ">";
+                    break;
+                case "quot":
+                    replacement = "\"";
+                    break;
+                case "apos":
+                    replacement = "'";
+                    break;
+                default:
+                    int codePoint = reference.startsWith("#x") ? Integer.parseInt(reference.substring(2), 16)
+                            : Integer.parseInt(reference.substring(1));
+                    replacement = new String(Character.toChars(codePoint));
+            }
+            matcher.appendReplacement(result, Matcher.quoteReplacement(replacement));
+        }
+        matcher.appendTail(result);
+        return result.toString();
+    }
+
+    private boolean startsWith(String prefix) {
+        return startsWith(prefix.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private boolean startsWith(byte[] prefix) {
+        if (pos + prefix.length > content.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (content[pos + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int indexOf(String marker, int from) throws IOException {
+        byte[] bytes = marker.getBytes(StandardCharsets.US_ASCII);
+        outer:
+        for (int i = from; i <= content.length - bytes.length; i++) {
+            for (int j = 0; j < bytes.length; j++) {
+                if (content[i + j] != bytes[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        throw error("Expected " + marker);
+    }
+
+    private IOException error(String message) {
+        return new IOException(message + " at offset " + pos);
+    }
+
+    /**
+     * Thrown when the document is not UTF-8 encoded and can not be patched
+     */
+    static class UnsupportedEncodingException extends IOException {
+        UnsupportedEncodingException(String encoding) {
+            super("Patching is only supported for UTF-8 documents, found " + encoding);
+        }
+    }
+}
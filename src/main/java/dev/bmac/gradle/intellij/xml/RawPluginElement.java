@@ -0,0 +1,40 @@
+package dev.bmac.gradle.intellij.xml;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A plugin entry whose text content was not parsed, only its attributes and idea-version are known. It is written back
+ * exactly as it was read.
+ */
+public class RawPluginElement extends PluginElement {
+    private final byte[] source;
+    private final int start;
+    private final int end;
+
+    /**
+     * @param id the id attribute of the entry
+     * @param version the version attribute of the entry
+     * @param url the url attribute of the entry
+     * @param versionInfo the idea-version of the entry, with its build numbers not parsed yet
+     * @param source the UTF-8 encoded document the entry was read from
+     * @param start offset of the opening tag of the entry
+     * @param end offset after the closing tag of the entry
+     */
+    RawPluginElement(String id, String version, String url, IdeaVersionElement versionInfo, byte[] source,
+                     int start, int end) {
+        setId(id);
+        setVersion(version);
+        setUrl(url);
+        setVersionInfo(versionInfo);
+        this.source = source;
+        this.start = start;
+        this.end = end;
+    }
+
+    /**
+     * @return the entry exactly as it appeared in the document
+     */
+    public String getRaw() {
+        return new String(source, start, end - start, StandardCharsets.UTF_8);
+    }
+}
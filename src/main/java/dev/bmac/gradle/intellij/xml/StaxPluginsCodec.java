@@ -0,0 +1,286 @@
+package dev.bmac.gradle.intellij.xml;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.util.function.Consumer;
+
+/**
+ * Hand written codec for the updatePlugins.xml format. Plugin entries are read and written one at a time, so the
+ * streaming methods only hold a single entry in memory, and no binding context has to be created. Entries read by
+ * {@link PluginsPatchReader} without being parsed are written back unchanged.
+ *
+ * The output is identical to the JAXB marshaller: no xml declaration, four space indentation, attributes and elements
+ * in alphabetical order and the same escaping. Elements and attributes which are not part of the format are skipped
+ * when reading, like JAXB does.
+ */
+public class StaxPluginsCodec implements PluginsCodec {
+    public static final StaxPluginsCodec INSTANCE = new StaxPluginsCodec();
+
+    private static final XMLInputFactory INPUT_FACTORY = createInputFactory();
+    private static final String INDENT = "    ";
+
+    private StaxPluginsCodec() {
+
+    }
+
+    private static XMLInputFactory createInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newFactory();
+        factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory;
+    }
+
+    @Override
+    public PluginsElement read(InputStream in) throws IOException {
+        PluginsElement plugins = new PluginsElement();
+        StringPool strings = new StringPool();
+        read(in, plugin -> plugins.getPlugins().add(strings.deduplicate(plugin)));
+        return plugins;
+    }
+
+    @Override
+    public void write(PluginsElement plugins, Writer out) throws IOException {
+        try (PluginsWriter writer = new PluginsWriter(out)) {
+            for (PluginElement plugin : plugins.getPlugins()) {
+                writer.write(plugin);
+            }
+        }
+    }
+
+    /**
+     * Reads the plugins one at a time
+     * @param consumer called with every plugin, in the order they appear in the file
+     */
+    public static void read(InputStream in, Consumer<PluginElement> consumer) throws IOException {
+        try {
+            XMLStreamReader reader = INPUT_FACTORY.createXMLStreamReader(in);
+            try {
+                if (nextElement(reader) != XMLStreamConstants.START_ELEMENT || !"plugins".equals(reader.getLocalName())) {
+                    throw new IOException("Expected a <plugins> element at line " + reader.getLocation().getLineNumber() +
+                            ", column " + reader.getLocation().getColumnNumber());
+                }
+                while (nextElement(reader) == XMLStreamConstants.START_ELEMENT) {
+                    if ("plugin".equals(reader.getLocalName())) {
+                        consumer.accept(readPlugin(reader));
+                    } else {
+                        skipElement(reader);
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException("Failed to read plugins xml", e);
+        }
+    }
+
+    private static PluginElement readPlugin(XMLStreamReader reader) throws XMLStreamException {
+        PluginElement plugin = new PluginElement();
+        plugin.setId(reader.getAttributeValue(null, "id"));
+        plugin.setUrl(reader.getAttributeValue(null, "url"));
+        plugin.setVersion(reader.getAttributeValue(null, "version"));
+        while (nextElement(reader) == XMLStreamConstants.START_ELEMENT) {
+            switch (reader.getLocalName()) {
+                case "change-notes":
+                    plugin.setChangeNotes(readText(reader));
+                    break;
+                case "description":
+                    plugin.setDescription(readText(reader));
+                    break;
+                case "name":
+                    plugin.setName(readText(reader));
+                    break;
+                case "idea-version":
+                    IdeaVersionElement versionInfo = new IdeaVersionElement();
+                    versionInfo.setSinceBuildString(reader.getAttributeValue(null, "since-build"));
+                    versionInfo.setUntilBuildString(reader.getAttributeValue(null, "until-build"));
+                    plugin.setVersionInfo(versionInfo);
+                    skipElement(reader);
+                    break;
+                default:
+                    skipElement(reader);
+            }
+        }
+        return plugin;
+    }
+
+    /**
+     * Moves to the next start or end tag, skipping text, comments and processing instructions
+     * @return the event type, or END_DOCUMENT if there are no more tags
+     */
+    private static int nextElement(XMLStreamReader reader) throws XMLStreamException {
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT || event == XMLStreamConstants.END_ELEMENT) {
+                return event;
+            }
+        }
+        return XMLStreamConstants.END_DOCUMENT;
+    }
+
+    /**
+     * Reads the text of the current element, leaving the reader on its end tag. The content of nested elements is
+     * skipped.
+     */
+    private static String readText(XMLStreamReader reader) throws XMLStreamException {
+        StringBuilder text = new StringBuilder();
+        while (true) {
+            int event = reader.next();
+            switch (event) {
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                case XMLStreamConstants.ENTITY_REFERENCE:
+                    text.append(reader.getText());
+                    break;
+                case XMLStreamConstants.START_ELEMENT:
+                    skipElement(reader);
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    return text.toString();
+                default:
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Skips the current element including its content, leaving the reader on its end tag
+     */
+    private static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+
+    /**
+     * Writes plugins one at a time. The closing tag of the document is written when the writer is closed, the
+     * underlying writer is not closed.
+     */
+    public static class PluginsWriter implements Closeable {
+        private final Writer out;
+        private boolean empty = true;
+        private boolean closed = false;
+
+        public PluginsWriter(Writer out) throws IOException {
+            this.out = out;
+            out.write("<plugins");
+        }
+
+        public void write(PluginElement plugin) throws IOException {
+            if (closed) {
+                throw new IllegalStateException("The plugins writer is closed");
+            }
+            out.write(empty ? ">\n" : "\n");
+            empty = false;
+
+            out.write(INDENT);
+            if (plugin instanceof RawPluginElement) {
+                out.write(((RawPluginElement) plugin).getRaw());
+                return;
+            }
+            out.write("<plugin");
+            writeAttribute("id", plugin.getId());
+            writeAttribute("url", plugin.getUrl());
+            writeAttribute("version", plugin.getVersion());
+            IdeaVersionElement versionInfo = plugin.getVersionInfo();
+            if (plugin.getChangeNotes() == null && plugin.getDescription() == null && plugin.getName() == null
+                    && versionInfo == null) {
+                out.write("/>");
+                return;
+            }
+            out.write(">");
+            writeElement("change-notes", plugin.getChangeNotes());
+            writeElement("description", plugin.getDescription());
+            writeElement("name", plugin.getName());
+            if (versionInfo != null) {
+                out.write("\n" + INDENT + INDENT + "<idea-version");
+                writeAttribute("since-build", versionInfo.getSinceBuildString());
+                writeAttribute("until-build", versionInfo.getUntilBuildString());
+                out.write("/>");
+            }
+            out.write("\n" + INDENT + "</plugin>");
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            out.write(empty ? "/>" : "\n</plugins>");
+            out.flush();
+        }
+
+        private void writeAttribute(String name, String value) throws IOException {
+            if (value == null) {
+                return;
+            }
+            out.write(' ');
+            out.write(name);
+            out.write("=\"");
+            escape(value, true);
+            out.write('"');
+        }
+
+        private void writeElement(String name, String text) throws IOException {
+            if (text == null) {
+                return;
+            }
+            out.write("\n" + INDENT + INDENT + "<" + name + ">");
+            escape(text, false);
+            out.write("</" + name + ">");
+        }
+
+        /**
+         * Escapes the same characters as the JAXB marshaller does for UTF-8 output
+         */
+        private void escape(String value, boolean attribute) throws IOException {
+            int start = 0;
+            for (int i = 0; i < value.length(); i++) {
+                String replacement;
+                switch (value.charAt(i)) {
+                    case '&':
+                        replacement = "&amp;";
+                        break;
+                    case '<':
+                        replacement = "&lt;";
+                        break;
+                    case '>':
+                        replacement = "&gt;";
+                        break;
+                    case '\r':
+                        replacement = "&#xD;";
+                        break;
+                    case '"':
+                        replacement = attribute ? "&quot;" : null;
+                        break;
+                    case '\n':
+                        replacement = attribute ? "&#xA;" : null;
+                        break;
+                    default:
+                        replacement = null;
+                }
+                if (replacement != null) {
+                    out.write(value, start, i - start);
+                    out.write(replacement);
+                    start = i + 1;
+                }
+            }
+            out.write(value, start, value.length() - start);
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package dev.bmac.gradle.intellij.xml;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Deduplicates the strings of the plugin entries read from a file. The name, description and change notes are
+ * often the same for many versions of a plugin, and without this each entry keeps its own copy of them.
+ */
+class StringPool {
+    private final Map<String, String> strings = new HashMap<>();
+
+    String get(String value) {
+        if (value == null) {
+            return null;
+        }
+        String existing = strings.putIfAbsent(value, value);
+        return existing == null ? value : existing;
+    }
+
+    /**
+     * Replaces the strings of the plugin with equal instances from the pool
+     * @return the plugin
+     */
+    PluginElement deduplicate(PluginElement plugin) {
+        plugin.setId(get(plugin.getId()));
+        plugin.setName(get(plugin.getName()));
+        plugin.setDescription(get(plugin.getDescription()));
+        plugin.setChangeNotes(get(plugin.getChangeNotes()));
+        if (plugin.getVersionInfo() != null) {
+            plugin.getVersionInfo().deduplicate(this);
+        }
+        return plugin;
+    }
+}
@@ -0,0 +1,73 @@
+package com.intellij.openapi.util;
+
+import org.junit.Test;
+
+import java.util.function.Supplier;
+
+import static org.junit.Assert.*;
+
+public class BuildNumberTest {
+
+    @Test
+    public void testSimpleParserMatchesSplitParser() {
+        String[] versions = {"223.8836.41", "IU-231.9011.34", "232.*", "232.*.1", "232.*.", "*.1", "*", "211.01", "211",
+                "5000", "211.", "211..1", "211.-1", "211.1a", ".1", "IU-", "-211.1", "1234567890.1", "211.2147483647"};
+        for (String version : versions) {
+            assertEquals(version, parse(() -> BuildNumber.parseSplit(version, null, null)),
+                    parse(() -> BuildNumber.fromString(version, null, null)));
+        }
+        assertNotNull(BuildNumber.parseSimple("IU-223.8836.41", null));
+        assertNull(BuildNumber.parseSimple("211..1", null));
+    }
+
+    @Test
+    public void testConstructorCopiesComponents() {
+        int[] components = {211, 5};
+        BuildNumber buildNumber = new BuildNumber("", components);
+        components[1] = 6;
+        assertEquals("211.5", buildNumber.asString());
+    }
+
+    @Test
+    public void testFromStringReturnsCachedInstances() {
+        BuildNumber buildNumber = BuildNumber.fromString("223.8836.41");
+        assertSame(buildNumber, BuildNumber.fromString(" 223.8836.41 "));
+        assertEquals(0, buildNumber.compareTo(BuildNumber.parseSplit("223.8836.41", null, null)));
+        assertNull(BuildNumber.fromString(" "));
+    }
+
+    @Test
+    public void testPackedEncodingOrdersLikeComponents() {
+        String[] ordered = {"1.0", "211.1", "211.1.0", "211.1.1", "211.2", "211.2147483646", "211.*", "212.1.2.3", "212.*",
+                "2147483646.0"};
+        for (int i = 0; i < ordered.length; i++) {
+            BuildNumber first = BuildNumber.fromString(ordered[i]);
+            assertTrue(ordered[i], first.isPacked());
+            for (int j = 0; j < ordered.length; j++) {
+                BuildNumber second = BuildNumber.parseSplit(ordered[j], null, null);
+                assertEquals(ordered[i] + " " + ordered[j], Integer.signum(Integer.compare(i, j)),
+                        Integer.signum(first.compareTo(second)));
+            }
+        }
+        assertEquals(0, BuildNumber.fromString("211.*").compareTo(new BuildNumber("", 211, BuildNumber.SNAPSHOT_VALUE, 5)));
+
+        BuildNumber unpacked = BuildNumber.fromString("211.1.2.3.4");
+        assertFalse(unpacked.isPacked());
+        assertTrue(unpacked.compareTo(BuildNumber.fromString("211.1.2.3")) > 0);
+        assertTrue(unpacked.compareTo(BuildNumber.fromString("211.1.2.4")) < 0);
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testInvalidVersion() {
+        BuildNumber.fromString("223.a");
+    }
+
+    private static String parse(Supplier<BuildNumber> parser) {
+        try {
+            BuildNumber buildNumber = parser.get();
+            return buildNumber == null ? null : buildNumber.asString();
+        } catch (RuntimeException e) {
+            return "invalid";
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package dev.bmac.gradle.intellij;
 
+import dev.bmac.gradle.intellij.xml.JaxbPluginsCodec;
 import org.gradle.api.logging.Logger;
 import org.gradle.api.logging.Logging;
 import org.junit.Before;
@@ -32,7 +33,7 @@ public abstract class BasePluginUploaderTest {
 
     BasePluginUploaderTest() throws Exception {
         logger = Logging.getLogger(IntellijPublishPluginTest.class);
-        marshaller = PluginUpdatesUtil.MARSHALLER;
+        marshaller = JaxbPluginsCodec.createMarshaller();
     }
 
     @Before
@@ -0,0 +1,102 @@
+package dev.bmac.gradle.intellij;
+
+import com.google.gson.Gson;
+import com.jetbrains.plugin.blockmap.core.BlockMap;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.*;
+
+public class BlockMapDeltaTest {
+    private static final Gson GSON = new Gson();
+
+    @Test
+    public void testChangedRegion() throws Exception {
+        byte[] previous = randomBytes(1_000_000, 1);
+        byte[] current = previous.clone();
+        byte[] changed = randomBytes(50_000, 2);
+        System.arraycopy(changed, 0, current, 400_000, changed.length);
+
+        BlockMapDelta delta = BlockMapDelta.compare("1.0", blockMap(previous), blockMap(current));
+
+        assertEquals("1.0", delta.getPreviousVersion());
+        assertEquals(current.length, delta.getTotalBytes());
+        assertTrue(delta.getDownloadBytes() >= changed.length);
+        assertTrue(delta.getDownloadBytes() < current.length / 2);
+        assertEquals(delta.getTotalBytes(), delta.getDownloadBytes() + delta.getReusedBytes());
+        assertTrue(delta.getChunkReuseRatio() > 0.5);
+        BlockMapDelta.Region largest = delta.getLargestChangedRegions().get(0);
+        assertTrue(largest.getOffset() <= 400_000);
+        assertTrue(largest.getOffset() + largest.getLength() >= 450_000);
+    }
+
+    @Test
+    public void testSameFile() throws Exception {
+        byte[] data = randomBytes(200_000, 3);
+        BlockMapDelta delta = BlockMapDelta.compare("1.0", blockMap(data), blockMap(data));
+        assertEquals(0, delta.getDownloadBytes());
+        assertEquals(1.0, delta.getChunkReuseRatio(), 0);
+        assertTrue(delta.getLargestChangedRegions().isEmpty());
+    }
+
+    @Test
+    public void testNoPreviousVersion() throws Exception {
+        byte[] data = randomBytes(200_000, 4);
+        BlockMapDelta delta = BlockMapDelta.compare(null, null, blockMap(data));
+        assertNull(delta.getPreviousVersion());
+        assertEquals(data.length, delta.getDownloadBytes());
+        assertEquals(0, delta.getReusedChunks());
+        assertEquals(1, delta.getLargestChangedRegions().size());
+        assertEquals(data.length, delta.getLargestChangedRegions().get(0).getLength());
+    }
+
+    @Test
+    public void testReadArchive() throws Exception {
+        BlockMap blockMap = blockMap(randomBytes(100_000, 5));
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        try (ZipOutputStream zos = new ZipOutputStream(archive);
+             Writer writer = new OutputStreamWriter(zos, StandardCharsets.UTF_8)) {
+            zos.putNextEntry(new ZipEntry(GenerateBlockMapTask.BLOCKMAP_ENTRY_NAME));
+            GSON.toJson(blockMap, writer);
+        }
+        BlockMap read = BlockMapDelta.read(new ByteArrayInputStream(archive.toByteArray()), GSON);
+        assertEquals(GSON.toJson(blockMap), GSON.toJson(read));
+    }
+
+    @Test
+    public void testFileName() {
+        assertEquals("plugin-1.0.zip", BlockMapDeltaTask.getFileName("./plugin/plugin-1.0.zip"));
+        assertEquals("my plugin+1.zip", BlockMapDeltaTask.getFileName("https://repo.example.com/my%20plugin/my%20plugin+1.zip"));
+        assertNull(BlockMapDeltaTask.getFileName("https://repo.example.com/"));
+        assertNull(BlockMapDeltaTask.getFileName(null));
+    }
+
+    @Test
+    public void testCompareVersions() {
+        assertTrue(BlockMapDeltaTask.compareVersions("1.9", "1.10") < 0);
+        assertTrue(BlockMapDeltaTask.compareVersions("2.0", "1.10.3") > 0);
+        assertTrue(BlockMapDeltaTask.compareVersions("1.0-beta", "1.0") < 0);
+        assertTrue(BlockMapDeltaTask.compareVersions("1.0-alpha", "1.0-beta") < 0);
+        assertTrue(BlockMapDeltaTask.compareVersions("1.0", "1.0.1") < 0);
+        assertEquals(0, BlockMapDeltaTask.compareVersions("1.0", "1.0.0"));
+        assertEquals(0, BlockMapDeltaTask.compareVersions("2023.1.01", "2023.1.1"));
+    }
+
+    private static BlockMap blockMap(byte[] data) throws Exception {
+        return new BlockMap(new ByteArrayInputStream(data), GenerateBlockMapTask.ALGORITHM);
+    }
+
+    private static byte[] randomBytes(int size, long seed) {
+        byte[] data = new byte[size];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+}
@@ -0,0 +1,40 @@
+package dev.bmac.gradle.intellij;
+
+import com.intellij.openapi.util.BuildNumber;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class BuildNumberMapTest {
+
+    @Test
+    public void testKeysAreSorted() {
+        BuildNumberMap<String> map = new BuildNumberMap<>();
+        String[] builds = {"213.1", "211.*", "211.1.2.3.4", "193.2956.37", "212.1", "211.1", "221.1", "203.1", "201.1"};
+        for (String build : builds) {
+            assertNull(map.put(BuildNumber.fromString(build), build));
+        }
+
+        assertEquals(builds.length, map.size());
+        for (int i = 1; i < map.size(); i++) {
+            assertTrue(map.keyAt(i - 1).compareTo(map.keyAt(i)) < 0);
+            assertEquals(map.keyAt(i).asString(), map.valueAt(i));
+        }
+        assertEquals("211.1", map.valueAt(map.indexOf(BuildNumber.fromString("211.1"))));
+        assertEquals("211.1.2.3.4", map.valueAt(map.indexOf(BuildNumber.fromString("211.1.2.3.4"))));
+    }
+
+    @Test
+    public void testInsertionPoint() {
+        BuildNumberMap<String> map = new BuildNumberMap<>();
+        map.put(BuildNumber.fromString("211.1"), "first");
+        map.put(BuildNumber.fromString("213.1"), "second");
+
+        assertEquals(-1, map.indexOf(BuildNumber.fromString("193.1")));
+        assertEquals(-2, map.indexOf(BuildNumber.fromString("212.1")));
+        assertEquals(-3, map.indexOf(BuildNumber.fromString("213.*")));
+        assertEquals("first", map.put(BuildNumber.fromString("211.1"), "replaced"));
+        assertEquals("replaced", map.valueAt(0));
+        assertEquals(2, map.size());
+    }
+}
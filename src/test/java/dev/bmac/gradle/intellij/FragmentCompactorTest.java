@@ -0,0 +1,160 @@
+package dev.bmac.gradle.intellij;
+
+import dev.bmac.gradle.intellij.repos.InMemoryRepo;
+import dev.bmac.gradle.intellij.xml.JaxbPluginsCodec;
+import dev.bmac.gradle.intellij.xml.PluginsElement;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.startsWith;
+import static org.mockito.Mockito.*;
+
+public class FragmentCompactorTest extends BasePluginUploaderTest {
+
+    private static final String UPDATE_FILE = UploadPluginTask.UPDATE_PLUGINS_FILENAME;
+    private static final RetryPolicy RETRY_POLICY = new RetryPolicy(3, 1, 1, 10000);
+
+    private InMemoryRepo repo;
+
+    public FragmentCompactorTest() throws Exception {
+        super();
+    }
+
+    @Before
+    @Override
+    public void setup() throws Exception {
+        super.setup();
+        repo = new InMemoryRepo(logger);
+        builder = new PluginUploaderBuilder("https://repo.example.com/intellij", PLUGIN_NAME, testFile,
+                blockmapFile, hashFile, PLUGIN_ID, VERSION, logger);
+        builder.setRepo(repo);
+        builder.setUpdateMode(PluginUploader.UpdateMode.FRAGMENTS).setCompactFragments(false);
+    }
+
+    @Test
+    public void testFragmentsAppliedInPublishOrder() throws Exception {
+        publish("1.0", "201.1");
+        publish("1.1", "201.1");
+        publish("2.0", "211.1");
+
+        assertEquals(3, new FragmentCompactor(repo, UPDATE_FILE, logger).compact(RETRY_POLICY));
+
+        PluginsElement plugins = readUpdates();
+        assertEquals(2, plugins.getPlugins().size());
+        assertEquals("1.1", plugins.getPlugins().get(0).getVersion());
+        assertEquals("211.0", plugins.getPlugins().get(0).getVersionInfo().getUntilBuild().asString());
+        assertEquals("2.0", plugins.getPlugins().get(1).getVersion());
+        assertTrue(repo.list(FragmentCompactor.getFragmentsDirectory(UPDATE_FILE)).isEmpty());
+    }
+
+    @Test
+    public void testNothingToCompact() throws Exception {
+        assertEquals(0, new FragmentCompactor(repo, UPDATE_FILE, logger).compact(RETRY_POLICY));
+        assertFalse(repo.exists(UPDATE_FILE));
+    }
+
+    @Test
+    public void testCompactionIsIdempotent() throws Exception {
+        publish("1.0", "201.1");
+        publish("2.0", "211.1");
+        FragmentCompactor compactor = new FragmentCompactor(repo, UPDATE_FILE, logger);
+        List<String> fragments = compactor.listFragments();
+        String first = repo.getContent(fragments.get(0));
+        String second = repo.getContent(fragments.get(1));
+        compactor.compact(RETRY_POLICY);
+        String compacted = withoutHeader(repo.getContent(UPDATE_FILE));
+
+        //Fragments left behind, for example by a failed delete, are applied again without changing the result
+        writeFragment(fragments.get(0), first);
+        writeFragment(fragments.get(1), second);
+        assertEquals(2, compactor.compact(RETRY_POLICY));
+
+        assertEquals(compacted, withoutHeader(repo.getContent(UPDATE_FILE)));
+    }
+
+    @Test
+    public void testCompactionRetriesWhenUpdateFileChanged() throws Exception {
+        publish("1.0", "201.1");
+        InMemoryRepo spyRepo = spy(repo);
+        doReturn(false).doCallRealMethod().when(spyRepo).conditionalUpload(eq(UPDATE_FILE), any(), anyString(), any());
+
+        assertEquals(1, new FragmentCompactor(spyRepo, UPDATE_FILE, logger).compact(RETRY_POLICY));
+
+        verify(spyRepo, times(2)).conditionalUpload(eq(UPDATE_FILE), any(), anyString(), any());
+        assertEquals("1.0", readUpdates().getPlugins().get(0).getVersion());
+        assertTrue(repo.list(FragmentCompactor.getFragmentsDirectory(UPDATE_FILE)).isEmpty());
+    }
+
+    @Test
+    public void testFragmentsAreNotDeletedWhenUpdateFails() throws Exception {
+        publish("1.0", "201.1");
+        InMemoryRepo spyRepo = spy(repo);
+        doReturn(false).when(spyRepo).conditionalUpload(eq(UPDATE_FILE), any(), anyString(), any());
+
+        try {
+            new FragmentCompactor(spyRepo, UPDATE_FILE, logger).compact(RETRY_POLICY);
+            fail("Expected compaction to fail");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("modified by another process"));
+        }
+
+        assertEquals(1, repo.list(FragmentCompactor.getFragmentsDirectory(UPDATE_FILE)).size());
+    }
+
+    @Test
+    public void testCompactionRefusedWhenIfMatchIgnored() throws Exception {
+        publish("1.0", "201.1");
+        String fragment = repo.list(FragmentCompactor.getFragmentsDirectory(UPDATE_FILE)).get(0);
+        //A new repository, as the probe result of the one published to is already cached
+        InMemoryRepo ignoringRepo = spy(new InMemoryRepo(logger));
+        //The repository accepts writes whatever their ETag
+        doReturn(true).when(ignoringRepo).conditionalUpload(startsWith(".conditional-write-probe-"), any(), anyString(), any());
+        File file = temporaryFolder.newFile();
+        try (FileWriter fw = new FileWriter(file)) {
+            fw.write(repo.getContent(fragment));
+        }
+        ignoringRepo.upload(fragment, file, "application/xml");
+
+        try {
+            new FragmentCompactor(ignoringRepo, UPDATE_FILE, logger).compact(RETRY_POLICY);
+            fail("Expected compaction to be refused");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("If-Match"));
+        }
+
+        assertFalse(ignoringRepo.exists(UPDATE_FILE));
+        assertEquals(1, ignoringRepo.list(FragmentCompactor.getFragmentsDirectory(UPDATE_FILE)).size());
+    }
+
+    private void publish(String version, String sinceBuild) throws Exception {
+        builder.setVersion(version).setSinceBuild(sinceBuild).build(LOCK_ID).execute();
+        //Fragments are ordered by publish time in milliseconds
+        Thread.sleep(2);
+    }
+
+    private void writeFragment(String path, String content) throws Exception {
+        File file = temporaryFolder.newFile();
+        try (FileWriter fw = new FileWriter(file)) {
+            fw.write(content);
+        }
+        repo.upload(path, file, "application/xml");
+    }
+
+    private PluginsElement readUpdates() throws Exception {
+        return (PluginsElement) JaxbPluginsCodec.getContext().createUnmarshaller().unmarshal(new StringReader(repo.getContent(UPDATE_FILE)));
+    }
+
+    private static String withoutHeader(String updates) {
+        return updates.substring(updates.indexOf("-->") + 3);
+    }
+}
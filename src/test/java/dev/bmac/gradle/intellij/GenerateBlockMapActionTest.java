@@ -0,0 +1,95 @@
+package dev.bmac.gradle.intellij;
+
+import com.google.common.io.ByteStreams;
+import com.google.gson.Gson;
+import com.jetbrains.plugin.blockmap.core.BlockMap;
+import com.jetbrains.plugin.blockmap.core.FileHash;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.Assert.*;
+
+public class GenerateBlockMapActionTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void testBlockMapReproducible() throws Exception {
+        byte[] data = new byte[100_000];
+        new Random(1).nextBytes(data);
+        BlockMap blockMap = new BlockMap(new ByteArrayInputStream(data), GenerateBlockMapTask.ALGORITHM);
+
+        File first = tmp.newFile();
+        File second = tmp.newFile();
+        TimeZone timeZone = TimeZone.getDefault();
+        try {
+            GenerateBlockMapAction.writeBlockMap(blockMap, first, Deflater.DEFAULT_COMPRESSION);
+            Thread.sleep(2100);
+            TimeZone.setDefault(TimeZone.getTimeZone("Pacific/Kiritimati"));
+            GenerateBlockMapAction.writeBlockMap(blockMap, second, Deflater.DEFAULT_COMPRESSION);
+        } finally {
+            TimeZone.setDefault(timeZone);
+        }
+
+        assertArrayEquals(Files.readAllBytes(first.toPath()), Files.readAllBytes(second.toPath()));
+        try (ZipInputStream zis = new ZipInputStream(new FileInputStream(first))) {
+            ZipEntry entry = zis.getNextEntry();
+            assertEquals(GenerateBlockMapTask.BLOCKMAP_ENTRY_NAME, entry.getName());
+            assertEquals(ZipNormalizer.ENTRY_TIME, entry.getTimeLocal());
+        }
+    }
+
+    @Test
+    public void testSameAsLibrary() throws Exception {
+        File plugin = tmp.newFile();
+        byte[] data = new byte[3_000_000];
+        new Random(2).nextBytes(data);
+        Files.write(plugin.toPath(), data);
+
+        File blockmap = tmp.newFile();
+        File hash = tmp.newFile();
+        GenerateBlockMapAction.generate(plugin, Deflater.DEFAULT_COMPRESSION, blockmap, hash);
+
+        Gson gson = new Gson();
+        assertEquals(gson.toJson(new BlockMap(new ByteArrayInputStream(data), GenerateBlockMapTask.ALGORITHM)),
+                readEntry(blockmap));
+        assertEquals(gson.toJson(new FileHash(new ByteArrayInputStream(data), GenerateBlockMapTask.ALGORITHM)),
+                new String(Files.readAllBytes(hash.toPath()), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testCompressionLevel() throws Exception {
+        byte[] data = new byte[500_000];
+        new Random(3).nextBytes(data);
+        BlockMap blockMap = new BlockMap(new ByteArrayInputStream(data), GenerateBlockMapTask.ALGORITHM);
+
+        File stored = tmp.newFile();
+        File compressed = tmp.newFile();
+        GenerateBlockMapAction.writeBlockMap(blockMap, stored, Deflater.NO_COMPRESSION);
+        GenerateBlockMapAction.writeBlockMap(blockMap, compressed, Deflater.BEST_COMPRESSION);
+
+        assertTrue(compressed.length() < stored.length());
+        assertEquals(new Gson().toJson(blockMap), readEntry(stored));
+        assertEquals(readEntry(stored), readEntry(compressed));
+    }
+
+    private static String readEntry(File blockmap) throws Exception {
+        try (ZipInputStream zis = new ZipInputStream(new FileInputStream(blockmap))) {
+            zis.getNextEntry();
+            return new String(ByteStreams.toByteArray(zis), StandardCharsets.UTF_8);
+        }
+    }
+}
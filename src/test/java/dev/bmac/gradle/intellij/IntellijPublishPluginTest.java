@@ -59,24 +59,9 @@ public class IntellijPublishPluginTest extends BasePluginUploaderTest {
         builder.build(LOCK_ID).execute();
 
         RecordedRequest request = webServer.takeRequest();
-        assertEquals("/" + LOCK_FILE, request.getPath());
-        assertEquals("GET", request.getMethod());
-        assertNull(request.getHeader("authorization"));
-
-        request = webServer.takeRequest();
-        assertEquals("/" + LOCK_FILE, request.getPath());
-        assertEquals(LOCK_ID, request.getBody().readUtf8());
-        assertEquals("POST", request.getMethod());
-        assertNull(request.getHeader("authorization"));
-
-
-        request = webServer.takeRequest();
-        assertEquals("/" + LOCK_FILE, request.getPath());
-        assertEquals("GET", request.getMethod());
-
-        request = webServer.takeRequest();
         assertEquals("/" + UploadPluginTask.UPDATE_PLUGINS_FILENAME, request.getPath());
         assertEquals("GET", request.getMethod());
+        assertNull(request.getHeader("authorization"));
 
         request = webServer.takeRequest();
         assertEquals("/" + PLUGIN_NAME + "/" + testFile.getName(), request.getPath());
@@ -94,6 +79,26 @@ public class IntellijPublishPluginTest extends BasePluginUploaderTest {
         assertEquals("POST", request.getMethod());
         assertEquals("application/json", request.getHeader("Content-Type"));
 
+        request = webServer.takeRequest();
+        assertEquals("/" + LOCK_FILE, request.getPath());
+        assertEquals("GET", request.getMethod());
+        assertNull(request.getHeader("authorization"));
+
+        request = webServer.takeRequest();
+        assertEquals("/" + LOCK_FILE, request.getPath());
+        assertEquals(LOCK_ID, LockLease.parse(request.getBody().readUtf8(), null).getId());
+        assertEquals("POST", request.getMethod());
+        assertNull(request.getHeader("authorization"));
+
+
+        request = webServer.takeRequest();
+        assertEquals("/" + LOCK_FILE, request.getPath());
+        assertEquals("GET", request.getMethod());
+
+        request = webServer.takeRequest();
+        assertEquals("/" + UploadPluginTask.UPDATE_PLUGINS_FILENAME, request.getPath());
+        assertEquals("GET", request.getMethod());
+
         request = webServer.takeRequest();
         assertEquals("/" + UploadPluginTask.UPDATE_PLUGINS_FILENAME, request.getPath());
         String updatePlugin = request.getBody().readUtf8();
@@ -130,19 +135,27 @@ public class IntellijPublishPluginTest extends BasePluginUploaderTest {
         builder.setAuthentication(authValue);
         builder.build(LOCK_ID).execute();
 
-        //get lock
+        //get update file
         RecordedRequest request = webServer.takeRequest();
         assertEquals(authValue, request.getHeader("authorization"));
 
+        //post plugin
+        request = webServer.takeRequest();
+        assertEquals(authValue, request.getHeader("authorization"));
+
+        webServer.takeRequest(); //post blockmap
+        webServer.takeRequest(); //post hash
+
+        //get lock
+        request = webServer.takeRequest();
+        assertEquals(authValue, request.getHeader("authorization"));
+
         //post lock
         request = webServer.takeRequest();
         assertEquals(authValue, request.getHeader("authorization"));
 
         webServer.takeRequest(); //get lock
         webServer.takeRequest(); //get update file
-        webServer.takeRequest(); //post plugin
-        webServer.takeRequest(); //post blockmap
-        webServer.takeRequest(); //post hash
         webServer.takeRequest(); //post update file
         webServer.takeRequest(); //get lock
 
@@ -153,6 +166,7 @@ public class IntellijPublishPluginTest extends BasePluginUploaderTest {
 
     @Test
     public void testPluginLockExists() throws Exception {
+        enqueuePluginUploadResponses(null);
         //Check for lock
         webServer.enqueue(new MockResponse().setResponseCode(201));
         //Check for lock second retry
@@ -168,6 +182,7 @@ public class IntellijPublishPluginTest extends BasePluginUploaderTest {
 
     @Test
     public void testPluginLockChanged() throws Exception {
+        enqueuePluginUploadResponses(null);
         //Check for lock
         webServer.enqueue(new MockResponse().setResponseCode(404));
         //Set the lock
@@ -185,6 +200,93 @@ public class IntellijPublishPluginTest extends BasePluginUploaderTest {
         }
     }
 
+    @Test
+    public void testPluginLockTakesOverExpiredLease() throws Exception {
+        String expiredLock = LockLease.create("expiredLock", 1000, 0).serialize();
+        enqueuePluginUploadResponses(null);
+        //Check for lock
+        webServer.enqueue(new MockResponse().setResponseCode(200).setBody(expiredLock));
+        //Lock is still the expired lease before deleting it
+        webServer.enqueue(new MockResponse().setResponseCode(200).setBody(expiredLock));
+        //Delete expired lock
+        webServer.enqueue(new MockResponse().setResponseCode(204));
+        //Set lock
+        webServer.enqueue(new MockResponse().setResponseCode(201));
+        //return lock
+        webServer.enqueue(new MockResponse().setResponseCode(200).setBody(LOCK_ID));
+        webServer.enqueue(new MockResponse().setResponseCode(404));
+        webServer.enqueue(new MockResponse().setResponseCode(201));
+        webServer.enqueue(new MockResponse().setResponseCode(200).setBody(LOCK_ID));
+        webServer.enqueue(new MockResponse().setResponseCode(204));
+
+        builder.build(LOCK_ID).execute();
+
+        assertEquals(13, webServer.getRequestCount());
+        for (int i = 0; i < 6; i++) {
+            webServer.takeRequest();
+        }
+        RecordedRequest request = webServer.takeRequest();
+        assertEquals("/" + LOCK_FILE, request.getPath());
+        assertEquals("DELETE", request.getMethod());
+
+        request = webServer.takeRequest();
+        assertEquals("POST", request.getMethod());
+        LockLease lease = LockLease.parse(request.getBody().readUtf8(), null);
+        assertEquals(LOCK_ID, lease.getId());
+        assertNotNull(lease.getOwner());
+        assertEquals(PluginUploader.DEFAULT_LOCK_TTL_MS, lease.getTtl());
+    }
+
+    @Test
+    public void testPluginLockWaitsForLiveLease() throws Exception {
+        String liveLock = LockLease.create("liveLock", 60000, System.currentTimeMillis()).serialize();
+        enqueuePluginUploadResponses(null);
+        //Check for lock
+        webServer.enqueue(new MockResponse().setResponseCode(200).setBody(liveLock));
+        //Check for lock second retry
+        webServer.enqueue(new MockResponse().setResponseCode(200).setBody(liveLock));
+
+        try {
+            builder.build(LOCK_ID).execute();
+            fail("Expected the plugin to fail because lock already exists");
+        } catch (GradleException e) {
+            assertTrue(e.getCause().getMessage().contains("lock"));
+        }
+        assertEquals(6, webServer.getRequestCount());
+    }
+
+    @Test
+    public void testRetriesTransientFailure() throws Exception {
+        //Get updatePlugin.xml
+        webServer.enqueue(new MockResponse().setResponseCode(404));
+        //Upload file, server is unavailable
+        webServer.enqueue(new MockResponse().setResponseCode(503).setHeader("Retry-After", "0"));
+        //Upload file, blockmap and hash
+        webServer.enqueue(new MockResponse().setResponseCode(201));
+        webServer.enqueue(new MockResponse().setResponseCode(201));
+        webServer.enqueue(new MockResponse().setResponseCode(201));
+
+        builder.setUpdatePluginXml(false).build(LOCK_ID).execute();
+
+        assertEquals(5, webServer.getRequestCount());
+    }
+
+    @Test
+    public void testDoesNotRetryClientError() throws Exception {
+        //Get updatePlugin.xml
+        webServer.enqueue(new MockResponse().setResponseCode(404));
+        //Upload file, not authorized
+        webServer.enqueue(new MockResponse().setResponseCode(403));
+
+        try {
+            builder.setUpdatePluginXml(false).build(LOCK_ID).execute();
+            fail("Expected the upload to fail without retrying");
+        } catch (GradleException e) {
+            assertTrue(e.getCause().getMessage().contains("403"));
+        }
+        assertEquals(2, webServer.getRequestCount());
+    }
+
     @Test
     public void testPluginUpdateEncoding() {
         builder.setPluginName("plugin with space");
@@ -241,12 +343,8 @@ public class IntellijPublishPluginTest extends BasePluginUploaderTest {
 
         builder.build(LOCK_ID).execute();
 
-        webServer.takeRequest(); //Get lock
-        webServer.takeRequest(); //Set lock
-        webServer.takeRequest(); //Get lock
         //Get update xml
         RecordedRequest recordedRequest = webServer.takeRequest();
-
         assertEquals("/" + newUpdateFile, recordedRequest.getPath());
         assertEquals("GET", recordedRequest.getMethod());
 
@@ -257,6 +355,15 @@ public class IntellijPublishPluginTest extends BasePluginUploaderTest {
         //Post hash
         webServer.takeRequest();
 
+        webServer.takeRequest(); //Get lock
+        webServer.takeRequest(); //Set lock
+        webServer.takeRequest(); //Get lock
+        //Get update xml
+        recordedRequest = webServer.takeRequest();
+
+        assertEquals("/" + newUpdateFile, recordedRequest.getPath());
+        assertEquals("GET", recordedRequest.getMethod());
+
         recordedRequest = webServer.takeRequest();
         assertEquals("/" + newUpdateFile, recordedRequest.getPath());
         assertEquals("POST", recordedRequest.getMethod());
@@ -271,20 +378,8 @@ public class IntellijPublishPluginTest extends BasePluginUploaderTest {
 
         builder.build(LOCK_ID).execute();
 
-        //Get lock
-        RecordedRequest recordedRequest = webServer.takeRequest();
-        assertEquals("/somePath/" + LOCK_FILE, recordedRequest.getPath());
-
-        //Set lock
-        recordedRequest = webServer.takeRequest();
-        assertEquals("/somePath/" + LOCK_FILE, recordedRequest.getPath());
-
-        //Get lock
-        recordedRequest = webServer.takeRequest();
-        assertEquals("/somePath/" + LOCK_FILE, recordedRequest.getPath());
-
         //Get update xml
-        recordedRequest = webServer.takeRequest();
+        RecordedRequest recordedRequest = webServer.takeRequest();
         assertEquals("/somePath/" + UploadPluginTask.UPDATE_PLUGINS_FILENAME, recordedRequest.getPath());
 
         //Upload plugin
@@ -299,6 +394,22 @@ public class IntellijPublishPluginTest extends BasePluginUploaderTest {
         recordedRequest = webServer.takeRequest();
         assertEquals("/somePath/" + PLUGIN_NAME + "/" + hashFile.getName(), recordedRequest.getPath());
 
+        //Get lock
+        recordedRequest = webServer.takeRequest();
+        assertEquals("/somePath/" + LOCK_FILE, recordedRequest.getPath());
+
+        //Set lock
+        recordedRequest = webServer.takeRequest();
+        assertEquals("/somePath/" + LOCK_FILE, recordedRequest.getPath());
+
+        //Get lock
+        recordedRequest = webServer.takeRequest();
+        assertEquals("/somePath/" + LOCK_FILE, recordedRequest.getPath());
+
+        //Get update xml
+        recordedRequest = webServer.takeRequest();
+        assertEquals("/somePath/" + UploadPluginTask.UPDATE_PLUGINS_FILENAME, recordedRequest.getPath());
+
         //Update xml
         recordedRequest = webServer.takeRequest();
         assertEquals("/somePath/" + UploadPluginTask.UPDATE_PLUGINS_FILENAME, recordedRequest.getPath());
@@ -323,13 +434,14 @@ public class IntellijPublishPluginTest extends BasePluginUploaderTest {
 
         builder.build(LOCK_ID).execute();
 
-        webServer.takeRequest(); //get lock
-        webServer.takeRequest(); //post lock
-        webServer.takeRequest(); //get lock
         webServer.takeRequest(); //get update file
         webServer.takeRequest(); //post plugin
         webServer.takeRequest(); //post blockmap
         webServer.takeRequest(); //post hash
+        webServer.takeRequest(); //get lock
+        webServer.takeRequest(); //post lock
+        webServer.takeRequest(); //get lock
+        webServer.takeRequest(); //get update file
 
         RecordedRequest recordedRequest = webServer.takeRequest();
         String updatePlugin = recordedRequest.getBody().readString(Charset.defaultCharset());
@@ -351,13 +463,14 @@ public class IntellijPublishPluginTest extends BasePluginUploaderTest {
 
         builder.build(LOCK_ID).execute();
 
-        webServer.takeRequest(); //get lock
-        webServer.takeRequest(); //post lock
-        webServer.takeRequest(); //get lock
         webServer.takeRequest(); //get update file
         webServer.takeRequest(); //post plugin
         webServer.takeRequest(); //post blockmap
         webServer.takeRequest(); //post hash
+        webServer.takeRequest(); //get lock
+        webServer.takeRequest(); //post lock
+        webServer.takeRequest(); //get lock
+        webServer.takeRequest(); //get update file
 
         RecordedRequest recordedRequest = webServer.takeRequest();
         String updatePlugin = recordedRequest.getBody().readString(Charset.defaultCharset());
@@ -374,17 +487,8 @@ public class IntellijPublishPluginTest extends BasePluginUploaderTest {
 
         builder.build(LOCK_ID).execute();
 
-        //check lock
-        RecordedRequest recordedRequest = webServer.takeRequest();
-        assertEquals("GET", recordedRequest.getMethod());
-        //set lock
-        recordedRequest = webServer.takeRequest();
-        assertEquals("PUT", recordedRequest.getMethod());
-        //check lock
-        recordedRequest = webServer.takeRequest();
-        assertEquals("GET", recordedRequest.getMethod());
         //check update xml
-        recordedRequest = webServer.takeRequest();
+        RecordedRequest recordedRequest = webServer.takeRequest();
         assertEquals("GET", recordedRequest.getMethod());
         //Put file
         recordedRequest = webServer.takeRequest();
@@ -395,6 +499,18 @@ public class IntellijPublishPluginTest extends BasePluginUploaderTest {
         //Put hash
         recordedRequest = webServer.takeRequest();
         assertEquals("PUT", recordedRequest.getMethod());
+        //check lock
+        recordedRequest = webServer.takeRequest();
+        assertEquals("GET", recordedRequest.getMethod());
+        //set lock
+        recordedRequest = webServer.takeRequest();
+        assertEquals("PUT", recordedRequest.getMethod());
+        //check lock
+        recordedRequest = webServer.takeRequest();
+        assertEquals("GET", recordedRequest.getMethod());
+        //check update xml
+        recordedRequest = webServer.takeRequest();
+        assertEquals("GET", recordedRequest.getMethod());
         //Put update xml
         recordedRequest = webServer.takeRequest();
         assertEquals("PUT", recordedRequest.getMethod());
@@ -416,18 +532,8 @@ public class IntellijPublishPluginTest extends BasePluginUploaderTest {
 
         String originalFile = Resources.toString(Resources.getResource("testUpdateXmlFileWithOldVersion.existing"), Charset.defaultCharset());
 
-        //Check for lock
-        webServer.enqueue(new MockResponse().setResponseCode(404));
-        //Set lock
-        webServer.enqueue(new MockResponse().setResponseCode(201));
-        //return lock
-        webServer.enqueue(new MockResponse().setResponseCode(200).setBody(LOCK_ID));
         //Get updatePlugin.xml
         webServer.enqueue(new MockResponse().setResponseCode(200).setBody(originalFile));
-        //Get lock
-        webServer.enqueue(new MockResponse().setResponseCode(200).setBody(LOCK_ID));
-        //Delete lock
-        webServer.enqueue(new MockResponse().setResponseCode(204));
 
         try {
             builder.build(LOCK_ID).execute();
@@ -436,25 +542,11 @@ public class IntellijPublishPluginTest extends BasePluginUploaderTest {
             assertTrue(e.getMessage().contains("already published to repository"));
         }
 
-        assertEquals(6, webServer.getRequestCount());
-        //check lock
-        RecordedRequest recordedRequest = webServer.takeRequest();
-        assertEquals("GET", recordedRequest.getMethod());
-        //set lock
-        recordedRequest = webServer.takeRequest();
-        assertEquals("POST", recordedRequest.getMethod());
-        //check lock
-        recordedRequest = webServer.takeRequest();
-        assertEquals("GET", recordedRequest.getMethod());
+        //Nothing is uploaded and the lock is never taken
+        assertEquals(1, webServer.getRequestCount());
         //check update xml
-        recordedRequest = webServer.takeRequest();
-        assertEquals("GET", recordedRequest.getMethod());
-        //check lock
-        recordedRequest = webServer.takeRequest();
+        RecordedRequest recordedRequest = webServer.takeRequest();
         assertEquals("GET", recordedRequest.getMethod());
-        //Delete lock
-        recordedRequest = webServer.takeRequest();
-        assertEquals("DELETE", recordedRequest.getMethod());
     }
 
     @Test
@@ -473,18 +565,9 @@ public class IntellijPublishPluginTest extends BasePluginUploaderTest {
 
             builder.build(LOCK_ID).execute();
 
-            assertEquals(10, webServer.getRequestCount());
-            //check lock
-            RecordedRequest recordedRequest = webServer.takeRequest();
-            assertEquals("GET", recordedRequest.getMethod());
-            //set lock
-            recordedRequest = webServer.takeRequest();
-            assertEquals("POST", recordedRequest.getMethod());
-            //check lock
-            recordedRequest = webServer.takeRequest();
-            assertEquals("GET", recordedRequest.getMethod());
+            assertEquals(11, webServer.getRequestCount());
             //check update xml
-            recordedRequest = webServer.takeRequest();
+            RecordedRequest recordedRequest = webServer.takeRequest();
             assertEquals("GET", recordedRequest.getMethod());
             //Put file
             recordedRequest = webServer.takeRequest();
@@ -495,6 +578,18 @@ public class IntellijPublishPluginTest extends BasePluginUploaderTest {
             //Put hash
             recordedRequest = webServer.takeRequest();
             assertEquals("POST", recordedRequest.getMethod());
+            //check lock
+            recordedRequest = webServer.takeRequest();
+            assertEquals("GET", recordedRequest.getMethod());
+            //set lock
+            recordedRequest = webServer.takeRequest();
+            assertEquals("POST", recordedRequest.getMethod());
+            //check lock
+            recordedRequest = webServer.takeRequest();
+            assertEquals("GET", recordedRequest.getMethod());
+            //check update xml
+            recordedRequest = webServer.takeRequest();
+            assertEquals("GET", recordedRequest.getMethod());
             //Put update xml
             recordedRequest = webServer.takeRequest();
             assertEquals("POST", recordedRequest.getMethod());
@@ -571,11 +666,303 @@ public class IntellijPublishPluginTest extends BasePluginUploaderTest {
         }
     }
 
+    @Test
+    public void testOptimisticUpdate() throws Exception {
+        builder.setUpdateMode(PluginUploader.UpdateMode.OPTIMISTIC);
+        String originalFile = Resources.toString(Resources.getResource("testUpdateXmlFileWithOldVersion.existing"), Charset.defaultCharset());
+
+        enqueuePluginUploadResponses(originalFile);
+        enqueueConditionalReplaceProbeResponses(true);
+        //Get updatePlugin.xml with its ETag
+        webServer.enqueue(new MockResponse().setResponseCode(200).setBody(originalFile).setHeader("ETag", "\"v1\""));
+        //Post updatePlugin
+        webServer.enqueue(new MockResponse().setResponseCode(201));
+
+        builder.build(LOCK_ID).execute();
+
+        assertEquals(9, webServer.getRequestCount());
+        webServer.takeRequest(); //get update file
+        webServer.takeRequest(); //post plugin
+        webServer.takeRequest(); //post blockmap
+        webServer.takeRequest(); //post hash
+
+        RecordedRequest recordedRequest = webServer.takeRequest();
+        assertTrue(recordedRequest.getPath().contains(".conditional-write-probe-"));
+        assertNull(recordedRequest.getHeader("If-Match"));
+        recordedRequest = webServer.takeRequest();
+        assertNotNull(recordedRequest.getHeader("If-Match"));
+        webServer.takeRequest(); //delete probe
+
+        recordedRequest = webServer.takeRequest();
+        assertEquals("/" + UploadPluginTask.UPDATE_PLUGINS_FILENAME, recordedRequest.getPath());
+        assertEquals("GET", recordedRequest.getMethod());
+
+        recordedRequest = webServer.takeRequest();
+        assertEquals("/" + UploadPluginTask.UPDATE_PLUGINS_FILENAME, recordedRequest.getPath());
+        assertEquals("POST", recordedRequest.getMethod());
+        assertEquals("\"v1\"", recordedRequest.getHeader("If-Match"));
+        assertNull(recordedRequest.getHeader("If-None-Match"));
+    }
+
+    @Test
+    public void testOptimisticUpdateCreatesNewFile() throws Exception {
+        builder.setUpdateMode(PluginUploader.UpdateMode.OPTIMISTIC);
+
+        enqueuePluginUploadResponses(null);
+        enqueueConditionalReplaceProbeResponses(true);
+        //updatePlugin.xml does not exist
+        webServer.enqueue(new MockResponse().setResponseCode(404));
+        //Post updatePlugin
+        webServer.enqueue(new MockResponse().setResponseCode(201));
+
+        builder.build(LOCK_ID).execute();
+
+        for (int i = 0; i < 8; i++) {
+            webServer.takeRequest();
+        }
+        RecordedRequest recordedRequest = webServer.takeRequest();
+        assertEquals("POST", recordedRequest.getMethod());
+        assertEquals("*", recordedRequest.getHeader("If-None-Match"));
+        assertNull(recordedRequest.getHeader("If-Match"));
+    }
+
+    @Test
+    public void testOptimisticUpdateRetriesWhenModified() throws Exception {
+        builder.setUpdateMode(PluginUploader.UpdateMode.OPTIMISTIC);
+        String originalFile = Resources.toString(Resources.getResource("testUpdateXmlFileWithOldVersion.existing"), Charset.defaultCharset());
+
+        enqueuePluginUploadResponses(originalFile);
+        enqueueConditionalReplaceProbeResponses(true);
+        //Get updatePlugin.xml with its ETag
+        webServer.enqueue(new MockResponse().setResponseCode(200).setBody(originalFile).setHeader("ETag", "\"v1\""));
+        //Another process updated the file in the meantime
+        webServer.enqueue(new MockResponse().setResponseCode(412));
+        //Get the latest updatePlugin.xml, the probe result is reused
+        webServer.enqueue(new MockResponse().setResponseCode(200).setBody(originalFile).setHeader("ETag", "\"v2\""));
+        //Post updatePlugin
+        webServer.enqueue(new MockResponse().setResponseCode(201));
+
+        builder.build(LOCK_ID).execute();
+
+        assertEquals(11, webServer.getRequestCount());
+        for (int i = 0; i < 8; i++) {
+            webServer.takeRequest();
+        }
+        RecordedRequest recordedRequest = webServer.takeRequest();
+        assertEquals("\"v1\"", recordedRequest.getHeader("If-Match"));
+        recordedRequest = webServer.takeRequest();
+        assertEquals("GET", recordedRequest.getMethod());
+        recordedRequest = webServer.takeRequest();
+        assertEquals("POST", recordedRequest.getMethod());
+        assertEquals("\"v2\"", recordedRequest.getHeader("If-Match"));
+    }
+
+    @Test
+    public void testOptimisticUpdateFailsWithoutETag() throws Exception {
+        builder.setUpdateMode(PluginUploader.UpdateMode.OPTIMISTIC);
+        String originalFile = Resources.toString(Resources.getResource("testUpdateXmlFileWithOldVersion.existing"), Charset.defaultCharset());
+
+        enqueuePluginUploadResponses(originalFile);
+        enqueueConditionalReplaceProbeResponses(true);
+        //Get updatePlugin.xml without an ETag
+        webServer.enqueue(new MockResponse().setResponseCode(200).setBody(originalFile));
+
+        try {
+            builder.build(LOCK_ID).execute();
+            fail("Should have thrown exception");
+        } catch (GradleException e) {
+            assertTrue(e.getMessage().contains("ETag"));
+        }
+        assertEquals(8, webServer.getRequestCount());
+    }
+
+    @Test
+    public void testOptimisticUpdateRefusedWhenIfMatchIgnored() throws Exception {
+        builder.setUpdateMode(PluginUploader.UpdateMode.OPTIMISTIC);
+        String originalFile = Resources.toString(Resources.getResource("testUpdateXmlFileWithOldVersion.existing"), Charset.defaultCharset());
+
+        enqueuePluginUploadResponses(originalFile);
+        enqueueConditionalReplaceProbeResponses(false);
+
+        try {
+            builder.build(LOCK_ID).execute();
+            fail("Should have thrown exception");
+        } catch (GradleException e) {
+            assertTrue(e.getMessage().contains("If-Match"));
+        }
+        //updatePlugins.xml is not read or written
+        assertEquals(7, webServer.getRequestCount());
+    }
+
+    @Test
+    public void testAtomicLock() throws Exception {
+        builder.setAtomicLock(true);
+
+        enqueuePluginUploadResponses(null);
+        enqueueConditionalProbeResponses(true);
+        //Create lock
+        webServer.enqueue(new MockResponse().setResponseCode(201));
+        //Get updatePlugin.xml
+        webServer.enqueue(new MockResponse().setResponseCode(404));
+        //Post updatePlugin
+        webServer.enqueue(new MockResponse().setResponseCode(201));
+        //return lock
+        webServer.enqueue(new MockResponse().setResponseCode(200).setBody(LOCK_ID));
+        //Delete lock
+        webServer.enqueue(new MockResponse().setResponseCode(204));
+
+        builder.build(LOCK_ID).execute();
+
+        assertEquals(12, webServer.getRequestCount());
+        for (int i = 0; i < 7; i++) {
+            webServer.takeRequest();
+        }
+        RecordedRequest recordedRequest = webServer.takeRequest();
+        assertEquals("/" + UploadPluginTask.UPDATE_PLUGINS_FILENAME + ".lock", recordedRequest.getPath());
+        assertEquals("POST", recordedRequest.getMethod());
+        assertEquals("*", recordedRequest.getHeader("If-None-Match"));
+        assertEquals(LOCK_ID, LockLease.parse(recordedRequest.getBody().readUtf8(), null).getId());
+
+        recordedRequest = webServer.takeRequest();
+        assertEquals("/" + UploadPluginTask.UPDATE_PLUGINS_FILENAME, recordedRequest.getPath());
+        assertEquals("GET", recordedRequest.getMethod());
+    }
+
+    @Test
+    public void testAtomicLockRetriesWhenLocked() throws Exception {
+        builder.setAtomicLock(true);
+
+        enqueuePluginUploadResponses(null);
+        enqueueConditionalProbeResponses(true);
+        //Lock already exists
+        webServer.enqueue(new MockResponse().setResponseCode(412));
+        //Create lock, the probe result is cached so no second probe
+        webServer.enqueue(new MockResponse().setResponseCode(201));
+        webServer.enqueue(new MockResponse().setResponseCode(404));
+        webServer.enqueue(new MockResponse().setResponseCode(201));
+        webServer.enqueue(new MockResponse().setResponseCode(200).setBody(LOCK_ID));
+        webServer.enqueue(new MockResponse().setResponseCode(204));
+
+        builder.build(LOCK_ID).execute();
+
+        assertEquals(13, webServer.getRequestCount());
+        for (int i = 0; i < 7; i++) {
+            webServer.takeRequest();
+        }
+        RecordedRequest recordedRequest = webServer.takeRequest();
+        assertEquals("/" + UploadPluginTask.UPDATE_PLUGINS_FILENAME + ".lock", recordedRequest.getPath());
+        assertEquals("*", recordedRequest.getHeader("If-None-Match"));
+        recordedRequest = webServer.takeRequest();
+        assertEquals("/" + UploadPluginTask.UPDATE_PLUGINS_FILENAME + ".lock", recordedRequest.getPath());
+        assertEquals("*", recordedRequest.getHeader("If-None-Match"));
+    }
+
+    @Test
+    public void testAtomicLockTakesOverExpiredLease() throws Exception {
+        builder.setAtomicLock(true);
+
+        enqueuePluginUploadResponses(null);
+        enqueueConditionalProbeResponses(true);
+        //Lock already exists
+        webServer.enqueue(new MockResponse().setResponseCode(412));
+        //Get the expired lock
+        webServer.enqueue(new MockResponse().setResponseCode(200)
+                .setBody(LockLease.create("expiredLock", 1000, 0).serialize()).setHeader("ETag", "\"l1\""));
+        enqueueConditionalReplaceProbeResponses(true);
+        //Replace the expired lock
+        webServer.enqueue(new MockResponse().setResponseCode(201));
+        webServer.enqueue(new MockResponse().setResponseCode(404));
+        webServer.enqueue(new MockResponse().setResponseCode(201));
+        webServer.enqueue(new MockResponse().setResponseCode(200).setBody(LOCK_ID));
+        webServer.enqueue(new MockResponse().setResponseCode(204));
+
+        builder.build(LOCK_ID).execute();
+
+        assertEquals(17, webServer.getRequestCount());
+        for (int i = 0; i < 12; i++) {
+            webServer.takeRequest();
+        }
+        RecordedRequest recordedRequest = webServer.takeRequest();
+        assertEquals("/" + LOCK_FILE, recordedRequest.getPath());
+        assertEquals("POST", recordedRequest.getMethod());
+        assertEquals("\"l1\"", recordedRequest.getHeader("If-Match"));
+        assertEquals(LOCK_ID, LockLease.parse(recordedRequest.getBody().readUtf8(), null).getId());
+    }
+
+    @Test
+    public void testAtomicLockTakesOverExpiredLeaseWithoutETag() throws Exception {
+        builder.setAtomicLock(true);
+        String expired = LockLease.create("expiredLock", 1000, 0).serialize();
+
+        enqueuePluginUploadResponses(null);
+        enqueueConditionalProbeResponses(true);
+        //Lock already exists
+        webServer.enqueue(new MockResponse().setResponseCode(412));
+        //Get the expired lock, without an ETag it can't be replaced conditionally
+        webServer.enqueue(new MockResponse().setResponseCode(200).setBody(expired));
+        //Get it again before deleting it
+        webServer.enqueue(new MockResponse().setResponseCode(200).setBody(expired));
+        //Delete the expired lock
+        webServer.enqueue(new MockResponse().setResponseCode(204));
+        //Create lock
+        webServer.enqueue(new MockResponse().setResponseCode(201));
+        webServer.enqueue(new MockResponse().setResponseCode(404));
+        webServer.enqueue(new MockResponse().setResponseCode(201));
+        webServer.enqueue(new MockResponse().setResponseCode(200).setBody(LOCK_ID));
+        webServer.enqueue(new MockResponse().setResponseCode(204));
+
+        builder.build(LOCK_ID).execute();
+
+        assertEquals(16, webServer.getRequestCount());
+        for (int i = 0; i < 10; i++) {
+            webServer.takeRequest();
+        }
+        RecordedRequest recordedRequest = webServer.takeRequest();
+        assertEquals("/" + LOCK_FILE, recordedRequest.getPath());
+        assertEquals("DELETE", recordedRequest.getMethod());
+        recordedRequest = webServer.takeRequest();
+        assertEquals("/" + LOCK_FILE, recordedRequest.getPath());
+        assertEquals("*", recordedRequest.getHeader("If-None-Match"));
+        assertEquals(LOCK_ID, LockLease.parse(recordedRequest.getBody().readUtf8(), null).getId());
+    }
+
+    @Test
+    public void testAtomicLockFallsBackWithoutConditionalWrites() throws Exception {
+        builder.setAtomicLock(true);
+
+        enqueuePluginUploadResponses(null);
+        enqueueConditionalProbeResponses(false);
+        //Check for lock
+        webServer.enqueue(new MockResponse().setResponseCode(404));
+        //Set lock
+        webServer.enqueue(new MockResponse().setResponseCode(201));
+        //return lock
+        webServer.enqueue(new MockResponse().setResponseCode(200).setBody(LOCK_ID));
+        webServer.enqueue(new MockResponse().setResponseCode(404));
+        webServer.enqueue(new MockResponse().setResponseCode(201));
+        webServer.enqueue(new MockResponse().setResponseCode(200).setBody(LOCK_ID));
+        webServer.enqueue(new MockResponse().setResponseCode(204));
+
+        builder.build(LOCK_ID).execute();
+
+        assertEquals(14, webServer.getRequestCount());
+        for (int i = 0; i < 7; i++) {
+            webServer.takeRequest();
+        }
+        RecordedRequest recordedRequest = webServer.takeRequest();
+        assertEquals("/" + UploadPluginTask.UPDATE_PLUGINS_FILENAME + ".lock", recordedRequest.getPath());
+        assertEquals("GET", recordedRequest.getMethod());
+        recordedRequest = webServer.takeRequest();
+        assertEquals("POST", recordedRequest.getMethod());
+        assertNull(recordedRequest.getHeader("If-None-Match"));
+    }
+
     private void enqueueResponses() {
         enqueueResponses(null);
     }
 
     private void enqueueResponses(String updateXml) {
+        enqueuePluginUploadResponses(updateXml);
         //Check for lock
         webServer.enqueue(new MockResponse().setResponseCode(404));
         //Set lock
@@ -583,22 +970,49 @@ public class IntellijPublishPluginTest extends BasePluginUploaderTest {
         //return lock
         webServer.enqueue(new MockResponse().setResponseCode(200).setBody(LOCK_ID));
         //Get updatePlugin.xml
-        if (updateXml == null) {
-            webServer.enqueue(new MockResponse().setResponseCode(404));
-        } else {
-            webServer.enqueue(new MockResponse().setResponseCode(200).setBody(updateXml));
-        }
+        enqueueUpdateXml(updateXml);
+        //Post updatePlugin
+        webServer.enqueue(new MockResponse().setResponseCode(201));
+        //return lock
+        webServer.enqueue(new MockResponse().setResponseCode(200).setBody(LOCK_ID));
+        //Delete lock
+        webServer.enqueue(new MockResponse().setResponseCode(204));
+    }
+
+    private void enqueuePluginUploadResponses(String updateXml) {
+        //Get updatePlugin.xml to check for an existing release
+        enqueueUpdateXml(updateXml);
         //Upload file
         webServer.enqueue(new MockResponse().setResponseCode(201));
         //Upload blockmap
         webServer.enqueue(new MockResponse().setResponseCode(201));
         //Upload hash
         webServer.enqueue(new MockResponse().setResponseCode(201));
-        //Post updatePlugin
+    }
+
+    private void enqueueConditionalProbeResponses(boolean supported) {
+        //Create probe
         webServer.enqueue(new MockResponse().setResponseCode(201));
-        //return lock
-        webServer.enqueue(new MockResponse().setResponseCode(200).setBody(LOCK_ID));
-        //Delete lock
+        //Create probe again
+        webServer.enqueue(new MockResponse().setResponseCode(supported ? 412 : 201));
+        //Delete probe
         webServer.enqueue(new MockResponse().setResponseCode(204));
     }
+
+    private void enqueueConditionalReplaceProbeResponses(boolean supported) {
+        //Create probe
+        webServer.enqueue(new MockResponse().setResponseCode(201));
+        //Replace probe with a stale ETag
+        webServer.enqueue(new MockResponse().setResponseCode(supported ? 412 : 201));
+        //Delete probe
+        webServer.enqueue(new MockResponse().setResponseCode(204));
+    }
+
+    private void enqueueUpdateXml(String updateXml) {
+        if (updateXml == null) {
+            webServer.enqueue(new MockResponse().setResponseCode(404));
+        } else {
+            webServer.enqueue(new MockResponse().setResponseCode(200).setBody(updateXml));
+        }
+    }
 }
@@ -0,0 +1,53 @@
+package dev.bmac.gradle.intellij;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LockLeaseTest {
+
+    private static final String LOCK_ID = "testLock";
+
+    @Test
+    public void testRoundTrip() {
+        LockLease lease = LockLease.create(LOCK_ID, 1000, 5000);
+        LockLease parsed = LockLease.parse(lease.serialize(), "\"etag\"");
+
+        assertEquals(LOCK_ID, parsed.getId());
+        assertEquals(lease.getOwner(), parsed.getOwner());
+        assertEquals(1000, parsed.getTtl());
+        assertEquals("\"etag\"", parsed.getETag());
+        assertTrue(lease.isSameLock(parsed));
+        assertFalse(lease.serialize().contains("etag"));
+    }
+
+    @Test
+    public void testExpiry() {
+        LockLease lease = LockLease.create(LOCK_ID, 1000, 5000);
+
+        assertFalse(lease.isExpired(6000));
+        assertTrue(lease.isExpired(6001));
+
+        lease.renew(6000);
+        assertFalse(lease.isExpired(6001));
+        assertTrue(lease.isExpired(7001));
+    }
+
+    @Test
+    public void testLegacyLockNeverExpires() {
+        LockLease lease = LockLease.parse(LOCK_ID, null);
+
+        assertEquals(LOCK_ID, lease.getId());
+        assertNull(lease.getOwner());
+        assertFalse(lease.isExpired(Long.MAX_VALUE));
+        assertTrue(lease.isSameLock(LockLease.create(LOCK_ID, 1000, 0)));
+    }
+
+    @Test
+    public void testInvalidJsonIsTreatedAsLegacyLock() {
+        LockLease lease = LockLease.parse("{not json", null);
+
+        assertEquals("{not json", lease.getId());
+        assertFalse(lease.isExpired(Long.MAX_VALUE));
+    }
+}
@@ -0,0 +1,161 @@
+package dev.bmac.gradle.intellij;
+
+import dev.bmac.gradle.intellij.repos.InMemoryRepo;
+import org.gradle.api.logging.Logger;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+
+public class LockQueueTest {
+
+    private static final String QUEUE_FILE = "updatePlugins.xml.lock.queue";
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final Logger logger = mock(Logger.class);
+    private InMemoryRepo repo;
+    private LockQueue queue;
+
+    @Before
+    public void setup() {
+        repo = new InMemoryRepo(logger);
+        queue = new LockQueue(repo, QUEUE_FILE, 60000, 1, logger);
+    }
+
+    @Test
+    public void testTicketsGetTurnInOrder() throws Exception {
+        LockQueue.Ticket first = queue.enqueue();
+        LockQueue.Ticket second = queue.enqueue();
+
+        queue.awaitTurn(first, 0);
+        try {
+            queue.awaitTurn(second, 20);
+            fail("Second ticket should wait for the first");
+        } catch (TimeoutException e) {
+            assertTrue(e.getMessage().contains("1 ahead"));
+        }
+
+        queue.dequeue(first);
+        queue.awaitTurn(second, 0);
+        queue.dequeue(second);
+
+        assertFalse(repo.getContent(QUEUE_FILE).contains("\"id\""));
+    }
+
+    @Test
+    public void testStaleTicketsAreRemoved() throws Exception {
+        LockQueue staleQueue = new LockQueue(repo, QUEUE_FILE, 10, 1, logger);
+        LockQueue.Ticket stale = staleQueue.enqueue();
+        LockQueue.Ticket waiting = staleQueue.enqueue();
+
+        Thread.sleep(50);
+        staleQueue.awaitTurn(waiting, 1000);
+
+        assertFalse(repo.getContent(QUEUE_FILE).contains(stale.getId()));
+        assertTrue(repo.getContent(QUEUE_FILE).contains(waiting.getId()));
+    }
+
+    @Test
+    public void testTicketFromSkewedClockIsKept() throws Exception {
+        //A ticket written by a machine whose clock is far behind this one
+        File queueFile = temporaryFolder.newFile();
+        Files.write(queueFile.toPath(), ("{\"tickets\":[{\"id\":\"skewed\",\"owner\":\"other\",\"enqueuedAt\":1," +
+                "\"heartbeatAt\":1}]}").getBytes(StandardCharsets.UTF_8));
+        repo.upload(QUEUE_FILE, queueFile, "application/json");
+        LockQueue.Ticket waiting = queue.enqueue();
+
+        try {
+            queue.awaitTurn(waiting, 20);
+            fail("A ticket must only be removed once it was not refreshed for the ttl");
+        } catch (TimeoutException e) {
+            assertTrue(e.getMessage().contains("1 ahead"));
+        }
+        assertTrue(repo.getContent(QUEUE_FILE).contains("skewed"));
+    }
+
+    @Test
+    public void testRefreshedHeadTicketIsKept() throws Exception {
+        LockQueue shortQueue = new LockQueue(repo, QUEUE_FILE, 50, 1, logger);
+        LockQueue.Ticket head = shortQueue.enqueue();
+        shortQueue.awaitTurn(head, 0);
+        LockQueue.Ticket waiting = shortQueue.enqueue();
+
+        //The head holds the lock for longer than the ttl, refreshing its ticket meanwhile
+        for (int i = 0; i < 10; i++) {
+            Thread.sleep(15);
+            shortQueue.refresh(head);
+            try {
+                shortQueue.awaitTurn(waiting, 0);
+                fail("The refreshed head ticket must not be removed as stale");
+            } catch (TimeoutException e) {
+                assertTrue(e.getMessage().contains("1 ahead"));
+            }
+        }
+
+        shortQueue.dequeue(head);
+        shortQueue.awaitTurn(waiting, 0);
+    }
+
+    @Test
+    public void testRejoinsWhenRemoved() throws Exception {
+        LockQueue.Ticket ticket = queue.enqueue();
+        queue.dequeue(ticket);
+
+        queue.awaitTurn(ticket, 0);
+
+        assertTrue(repo.getContent(QUEUE_FILE).contains(ticket.getId()));
+    }
+
+    @Test
+    public void testConcurrentTicketsAreServedOneAtATime() throws Exception {
+        int waiters = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(waiters);
+        List<Integer> order = new ArrayList<>();
+        AtomicInteger active = new AtomicInteger();
+        AtomicInteger maxActive = new AtomicInteger();
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < waiters; i++) {
+                int waiter = i;
+                futures.add(executor.submit(() -> {
+                    LockQueue.Ticket ticket = queue.enqueue();
+                    queue.awaitTurn(ticket, 10000);
+                    maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+                    synchronized (order) {
+                        order.add(waiter);
+                    }
+                    Thread.sleep(2);
+                    active.decrementAndGet();
+                    queue.dequeue(ticket);
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(20, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(waiters, order.size());
+        assertEquals(1, maxActive.get());
+        assertFalse(repo.getContent(QUEUE_FILE).contains("\"id\""));
+    }
+}
@@ -1,7 +1,9 @@
 package dev.bmac.gradle.intellij;
 
+import com.intellij.openapi.util.BuildNumber;
 import dev.bmac.gradle.intellij.xml.IdeaVersionElement;
 import dev.bmac.gradle.intellij.xml.PluginElement;
+import dev.bmac.gradle.intellij.xml.PluginList;
 import dev.bmac.gradle.intellij.xml.PluginsElement;
 import org.gradle.api.logging.Logger;
 import org.junit.Before;
@@ -273,6 +275,44 @@ public class PluginUpdatesUtilTest {
     }
 
 
+    @Test(timeout = 60000)
+    public void testUpdatingLargeRepository() {
+        int ids = 10000;
+        int versions = 10;
+        List<PluginElement> plugins = pluginsElement.getPlugins();
+        for (int i = 0; i < ids; i++) {
+            for (int v = 0; v < versions; v++) {
+                plugins.add(new PluginElement("plugin" + i, "1." + v, null, null, "Plugin " + i,
+                        (210 + v) + ".1", (210 + v) + ".9999", "./plugin" + i + ".zip"));
+            }
+        }
+
+        for (int i = 0; i < ids; i += 10) {
+            addPluginToList("plugin" + i, "2.0", "214.5", null);
+        }
+
+        assertEquals(ids * versions + ids / 10, plugins.size());
+        String priorUntil = BuildNumber.fromString("214.5").minusOne().asString();
+        String until = BuildNumber.fromString("215.1").minusOne().asString();
+        for (int i = 0; i < ids; i++) {
+            List<Integer> positions = ((PluginList) plugins).positionsOf("plugin" + i);
+            if (i % 10 != 0) {
+                assertEquals(versions, positions.size());
+                continue;
+            }
+            assertEquals(versions + 1, positions.size());
+            PluginElement prior = plugins.get(positions.get(4));
+            PluginElement added = plugins.get(positions.get(5));
+            assertEquals(positions.get(4) + 1, (int) positions.get(5));
+            assertEquals("1.4", prior.getVersion());
+            assertEquals(priorUntil, prior.getVersionInfo().getUntilBuildString());
+            assertEquals("2.0", added.getVersion());
+            assertEquals(until, added.getVersionInfo().getUntilBuildString());
+            assertEquals("1.5", plugins.get(positions.get(6)).getVersion());
+        }
+    }
+
+
     private void addPluginToList(String version, String since, String until) {
         addPluginToList(TEST_ID, version, since, until);
     }
@@ -26,6 +26,14 @@ public class PluginUploaderBuilder {
     private Repo repo = null;
     private File blockmapFile;
     private File hashFile;
+    private boolean concurrentUploads = false;
+    private PluginUploader.UpdateMode updateMode = PluginUploader.UpdateMode.LOCK;
+    private boolean atomicLock = false;
+    private long lockTtl = PluginUploader.DEFAULT_LOCK_TTL_MS;
+    private boolean queuedLock = false;
+    private boolean compactFragments = true;
+    private PublishCoordinator publishCoordinator = null;
+    private boolean patchUpdates = false;
 
     public PluginUploaderBuilder(String url, String pluginName, File file, File blockmap, File hash,
                                  String pluginId, String version, Logger logger) {
@@ -119,6 +127,46 @@ public class PluginUploaderBuilder {
         return this;
     }
 
+    public PluginUploaderBuilder setConcurrentUploads(boolean concurrentUploads) {
+        this.concurrentUploads = concurrentUploads;
+        return this;
+    }
+
+    public PluginUploaderBuilder setUpdateMode(PluginUploader.UpdateMode updateMode) {
+        this.updateMode = updateMode;
+        return this;
+    }
+
+    public PluginUploaderBuilder setAtomicLock(boolean atomicLock) {
+        this.atomicLock = atomicLock;
+        return this;
+    }
+
+    public PluginUploaderBuilder setLockTtl(long lockTtl) {
+        this.lockTtl = lockTtl;
+        return this;
+    }
+
+    public PluginUploaderBuilder setQueuedLock(boolean queuedLock) {
+        this.queuedLock = queuedLock;
+        return this;
+    }
+
+    public PluginUploaderBuilder setCompactFragments(boolean compactFragments) {
+        this.compactFragments = compactFragments;
+        return this;
+    }
+
+    public PluginUploaderBuilder setPublishCoordinator(PublishCoordinator publishCoordinator) {
+        this.publishCoordinator = publishCoordinator;
+        return this;
+    }
+
+    public PluginUploaderBuilder setPatchUpdates(boolean patchUpdates) {
+        this.patchUpdates = patchUpdates;
+        return this;
+    }
+
     public void setRepo(Repo repo) {
         this.repo = repo;
     }
@@ -188,7 +236,7 @@ public class PluginUploaderBuilder {
     }
 
     public PluginUploader build(String lockId) throws Exception {
-        return new PluginUploader(1, 2, logger, url, downloadUrlPrefix, absoluteDownloadUrls,
+        PluginUploader pluginUploader = new PluginUploader(1, 2, logger, url, downloadUrlPrefix, absoluteDownloadUrls,
                 pluginName, file, updateFile, pluginId, version, authentication, description, changeNotes,
                 updatePluginXml, sinceBuild, untilBuild, repoType, blockmapFile, hashFile) {
             @Override
@@ -205,5 +253,14 @@ public class PluginUploaderBuilder {
                 }
             }
         };
+        pluginUploader.setConcurrentUploads(concurrentUploads);
+        pluginUploader.setUpdateMode(updateMode);
+        pluginUploader.setAtomicLock(atomicLock);
+        pluginUploader.setLockTtl(lockTtl);
+        pluginUploader.setQueuedLock(queuedLock);
+        pluginUploader.setCompactFragments(compactFragments);
+        pluginUploader.setPublishCoordinator(publishCoordinator);
+        pluginUploader.setPatchUpdates(patchUpdates);
+        return pluginUploader;
     }
 }
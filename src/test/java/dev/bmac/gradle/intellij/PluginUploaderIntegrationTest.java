@@ -107,7 +107,7 @@ public class PluginUploaderIntegrationTest {
         List<RecordedRequest> requests = handler.requests;
         assertEquals("Basic pass", requests.get(1).auth);
 
-        RecordedRequest updateXml = requests.get(7);
+        RecordedRequest updateXml = requests.get(8);
         assertEquals("/" + UploadPluginTask.UPDATE_PLUGINS_FILENAME, updateXml.path);
         assertTrue(updateXml.body.contains("changenotes"));
         assertTrue(updateXml.body.contains("description"));
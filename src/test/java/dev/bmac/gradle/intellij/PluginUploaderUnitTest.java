@@ -1,18 +1,26 @@
 package dev.bmac.gradle.intellij;
 
+import dev.bmac.gradle.intellij.repos.InMemoryRepo;
 import dev.bmac.gradle.intellij.repos.MockRepo;
 import dev.bmac.gradle.intellij.repos.Repo;
+import org.gradle.api.GradleException;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.InOrder;
 
 import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
 import java.util.function.Function;
 
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.notNull;
 import static org.mockito.Mockito.*;
+import static org.junit.Assert.*;
 
 public class PluginUploaderUnitTest extends BasePluginUploaderTest {
 
@@ -52,19 +60,157 @@ public class PluginUploaderUnitTest extends BasePluginUploaderTest {
 
         InOrder inOrder = inOrder(mockRepo);
 
-        inOrder.verify(mockRepo).get(eq(LOCK_FILE), any());
-        inOrder.verify(mockRepo).upload(eq(LOCK_FILE), any(), eq("text/plain"));
-        inOrder.verify(mockRepo).get(eq(LOCK_FILE), any());
         inOrder.verify(mockRepo).get(eq(UploadPluginTask.UPDATE_PLUGINS_FILENAME), any());
         inOrder.verify(mockRepo).upload(eq(PLUGIN_NAME + "/" + testFile.getName()), eq(testFile), eq("application/zip"));
         inOrder.verify(mockRepo).upload(eq(PLUGIN_NAME + "/" + blockmapFile.getName()), eq(blockmapFile), eq("application/zip"));
         inOrder.verify(mockRepo).upload(eq(PLUGIN_NAME + "/" + hashFile.getName()), eq(hashFile), eq("application/json"));
+        inOrder.verify(mockRepo).get(eq(LOCK_FILE), any());
+        inOrder.verify(mockRepo).upload(eq(LOCK_FILE), any(), eq("text/plain"));
+        inOrder.verify(mockRepo).get(eq(LOCK_FILE), any());
+        inOrder.verify(mockRepo).get(eq(UploadPluginTask.UPDATE_PLUGINS_FILENAME), any());
         inOrder.verify(mockRepo).upload(eq(UploadPluginTask.UPDATE_PLUGINS_FILENAME), any(), eq("application/xml"));
         inOrder.verify(mockRepo).get(eq(LOCK_FILE), any());
         inOrder.verify(mockRepo).delete(eq(LOCK_FILE));
         inOrder.verifyNoMoreInteractions();
     }
 
+    @Test
+    public void testLockIsRenewedWhileHeld() throws Exception {
+        when(mockRepo.get(eq(LOCK_FILE), any()))
+            .then(invocation -> {
+                Function f = invocation.getArgument(1, Function.class);
+                return f.apply(Repo.RepoObject.empty());
+            })
+            .then(invocation -> {
+                Function f = invocation.getArgument(1, Function.class);
+                return f.apply(Repo.RepoObject.of(new ByteArrayInputStream(LOCK_ID.getBytes(StandardCharsets.UTF_8))));
+            });
+        when(mockRepo.get(eq(UploadPluginTask.UPDATE_PLUGINS_FILENAME), any())).then(invocation -> {
+            Function f = invocation.getArgument(1, Function.class);
+            return f.apply(Repo.RepoObject.empty());
+        });
+        //Updating the xml takes longer than the lease, so it must be renewed in the meantime
+        doAnswer(invocation -> {
+            Thread.sleep(300);
+            return null;
+        }).when(mockRepo).upload(eq(UploadPluginTask.UPDATE_PLUGINS_FILENAME), any(), eq("application/xml"));
+
+        builder.setLockTtl(60).build(LOCK_ID).execute();
+
+        verify(mockRepo, atLeast(3)).upload(eq(LOCK_FILE), any(), eq("text/plain"));
+        verify(mockRepo).delete(eq(LOCK_FILE));
+    }
+
+    @Test
+    public void testLockTakenOverWhileRenewingIsNotOverwritten() throws Exception {
+        InMemoryRepo repo = spy(new InMemoryRepo(logger));
+        builder.setRepo(repo);
+        File otherLock = temporaryFolder.newFile();
+        Files.write(otherLock.toPath(), LockLease.create("other", 60000, System.currentTimeMillis()).serialize()
+                .getBytes(StandardCharsets.UTF_8));
+        //Another process takes the lock right before it is renewed
+        doAnswer(invocation -> {
+            repo.upload(LOCK_FILE, otherLock, "text/plain");
+            return invocation.callRealMethod();
+        }).when(repo).conditionalUpload(eq(LOCK_FILE), any(), any(), notNull());
+        //Reading updatePlugins.xml stalls for longer than the lease
+        doAnswer(invocation -> {
+            Thread.sleep(300);
+            return invocation.callRealMethod();
+        }).when(repo).get(eq(UploadPluginTask.UPDATE_PLUGINS_FILENAME), any());
+
+        try {
+            builder.setLockTtl(60).build(LOCK_ID).execute();
+            fail("Expected the lost lock to fail the update");
+        } catch (GradleException e) {
+            assertTrue(e.getMessage(), e.getCause().getMessage().contains("lost"));
+        }
+
+        assertFalse(repo.exists(UploadPluginTask.UPDATE_PLUGINS_FILENAME));
+        assertEquals("other", LockLease.parse(repo.getContent(LOCK_FILE), null).getId());
+    }
+
+    @Test
+    public void testQueuedLock() throws Exception {
+        InMemoryRepo repo = new InMemoryRepo(logger);
+        builder.setRepo(repo);
+
+        builder.setQueuedLock(true).build(LOCK_ID).execute();
+
+        String queueFile = LOCK_FILE + LockQueue.QUEUE_FILE_EXTENSION;
+        assertTrue(repo.exists(UploadPluginTask.UPDATE_PLUGINS_FILENAME));
+        assertTrue(repo.getContent(UploadPluginTask.UPDATE_PLUGINS_FILENAME).contains(PLUGIN_ID));
+        assertFalse(repo.exists(LOCK_FILE));
+        assertFalse(repo.getContent(queueFile).contains("\"id\""));
+    }
+
+    @Test
+    public void testQueuedLockFallsBackWhenIfMatchIgnored() throws Exception {
+        InMemoryRepo repo = spy(new InMemoryRepo(logger));
+        //The repository honors If-None-Match but accepts writes with a stale If-Match ETag
+        doReturn(true).when(repo).conditionalUpload(startsWith(".conditional-write-probe-"), any(), anyString(), notNull());
+        builder.setRepo(repo);
+
+        builder.setQueuedLock(true).build(LOCK_ID).execute();
+
+        assertTrue(repo.getContent(UploadPluginTask.UPDATE_PLUGINS_FILENAME).contains(PLUGIN_ID));
+        assertFalse(repo.exists(LOCK_FILE));
+        assertFalse(repo.exists(LOCK_FILE + LockQueue.QUEUE_FILE_EXTENSION));
+    }
+
+    @Test
+    public void testFragments() throws Exception {
+        InMemoryRepo repo = new InMemoryRepo(logger);
+        builder.setRepo(repo);
+
+        builder.setUpdateMode(PluginUploader.UpdateMode.FRAGMENTS).build(LOCK_ID).execute();
+
+        assertTrue(repo.getContent(UploadPluginTask.UPDATE_PLUGINS_FILENAME).contains("version=\"" + VERSION + "\""));
+        assertTrue(repo.list(FragmentCompactor.getFragmentsDirectory(UploadPluginTask.UPDATE_PLUGINS_FILENAME)).isEmpty());
+        assertFalse(repo.exists(LOCK_FILE));
+    }
+
+    @Test
+    public void testFragmentsWithoutCompaction() throws Exception {
+        InMemoryRepo repo = new InMemoryRepo(logger);
+        builder.setRepo(repo);
+
+        builder.setUpdateMode(PluginUploader.UpdateMode.FRAGMENTS).setCompactFragments(false).build(LOCK_ID).execute();
+
+        assertFalse(repo.exists(UploadPluginTask.UPDATE_PLUGINS_FILENAME));
+        List<String> fragments = repo.list(FragmentCompactor.getFragmentsDirectory(UploadPluginTask.UPDATE_PLUGINS_FILENAME));
+        assertEquals(1, fragments.size());
+        assertTrue(fragments.get(0).startsWith(
+                FragmentCompactor.getPluginFragmentsDirectory(UploadPluginTask.UPDATE_PLUGINS_FILENAME, PLUGIN_ID)));
+        assertTrue(FragmentCompactor.isFragmentOf(fragments.get(0), VERSION));
+
+        //The same version is rejected while its fragment is waiting to be compacted
+        try {
+            builder.build(LOCK_ID).execute();
+            fail("Expected the pending fragment to prevent publishing the version again");
+        } catch (GradleException e) {
+            assertTrue(e.getMessage().contains("waiting to be compacted"));
+        }
+    }
+
+    @Test
+    public void testPatchUpdatesKeepsOtherEntries() throws Exception {
+        InMemoryRepo repo = new InMemoryRepo(logger);
+        builder.setRepo(repo);
+        String otherEntry = "<plugin id=\"other\" url=\"./other.zip\"  version=\"2.0\">\n" +
+                "  <description><![CDATA[<b>kept</b>]]></description>\n" +
+                "</plugin>";
+        File existing = temporaryFolder.newFile();
+        Files.write(existing.toPath(), ("<plugins>\n    " + otherEntry + "\n</plugins>").getBytes(StandardCharsets.UTF_8));
+        repo.upload(UploadPluginTask.UPDATE_PLUGINS_FILENAME, existing, "application/xml");
+
+        builder.setPatchUpdates(true).build(LOCK_ID).execute();
+
+        String updates = repo.getContent(UploadPluginTask.UPDATE_PLUGINS_FILENAME);
+        assertTrue(updates.contains("\n<plugins>\n    " + otherEntry + "\n    <plugin id=\"" + PLUGIN_ID + "\""));
+        assertFalse(repo.exists(LOCK_FILE));
+    }
+
     @Test
     public void testUploadWithoutChangesToUpdateFile() throws Exception {
         when(mockRepo.get(eq(UploadPluginTask.UPDATE_PLUGINS_FILENAME), any())).then(invocation -> {
@@ -83,4 +229,42 @@ public class PluginUploaderUnitTest extends BasePluginUploaderTest {
         inOrder.verifyNoMoreInteractions();
     }
 
+    @Test
+    public void testConcurrentUploads() throws Exception {
+        when(mockRepo.get(eq(UploadPluginTask.UPDATE_PLUGINS_FILENAME), any())).then(invocation -> {
+            Function f = invocation.getArgument(1, Function.class);
+            return f.apply(Repo.RepoObject.empty());
+        });
+
+        builder.setUpdatePluginXml(false).setConcurrentUploads(true).build(LOCK_ID).execute();
+
+        verify(mockRepo).get(eq(UploadPluginTask.UPDATE_PLUGINS_FILENAME), any());
+        verify(mockRepo).upload(eq(PLUGIN_NAME + "/" + testFile.getName()), eq(testFile), eq("application/zip"));
+        verify(mockRepo).upload(eq(PLUGIN_NAME + "/" + blockmapFile.getName()), eq(blockmapFile), eq("application/zip"));
+        verify(mockRepo).upload(eq(PLUGIN_NAME + "/" + hashFile.getName()), eq(hashFile), eq("application/json"));
+        verifyNoMoreInteractions(mockRepo);
+    }
+
+    @Test
+    public void testConcurrentUploadsReportsFailedArtifact() throws Exception {
+        when(mockRepo.get(eq(UploadPluginTask.UPDATE_PLUGINS_FILENAME), any())).then(invocation -> {
+            Function f = invocation.getArgument(1, Function.class);
+            return f.apply(Repo.RepoObject.empty());
+        });
+        doThrow(new IOException("blockmap failed")).when(mockRepo)
+                .upload(eq(PLUGIN_NAME + "/" + blockmapFile.getName()), any(), any());
+
+        try {
+            builder.setUpdatePluginXml(false).setConcurrentUploads(true).build(LOCK_ID).execute();
+            fail("Expected the blockmap upload failure to fail the build");
+        } catch (GradleException e) {
+            assertTrue(e.getCause().getMessage().contains(blockmapFile.getName()));
+            assertEquals("blockmap failed", e.getCause().getCause().getMessage());
+        }
+
+        //The other artifacts are still uploaded on each attempt
+        verify(mockRepo, times(2)).upload(eq(PLUGIN_NAME + "/" + testFile.getName()), eq(testFile), eq("application/zip"));
+        verify(mockRepo, times(2)).upload(eq(PLUGIN_NAME + "/" + hashFile.getName()), eq(hashFile), eq("application/json"));
+        verify(mockRepo, never()).get(eq(LOCK_FILE), any());
+    }
 }
@@ -0,0 +1,100 @@
+package dev.bmac.gradle.intellij;
+
+import com.intellij.openapi.util.BuildNumber;
+import dev.bmac.gradle.intellij.xml.PluginElement;
+import dev.bmac.gradle.intellij.xml.PluginsElement;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class PluginVersionIndexTest {
+
+    @Test
+    public void testResolve() {
+        PluginsElement plugins = new PluginsElement();
+        plugins.getPlugins().add(plugin("a", "1.0", "201.1", "211.*"));
+        plugins.getPlugins().add(plugin("b", "1.0", null, null));
+        plugins.getPlugins().add(plugin("a", "2.0", "212.1", "212.9"));
+        plugins.getPlugins().add(plugin("a", "3.0", "213.1", null));
+
+        PluginVersionIndex index = new PluginVersionIndex(plugins);
+
+        assertNull(index.resolve("a", build("193.1")));
+        assertEquals("1.0", index.resolve("a", build("201.1")).getVersion());
+        assertEquals("1.0", index.resolve("a", build("211.99999")).getVersion());
+        assertNull(index.resolve("a", build("212.0")));
+        assertEquals("2.0", index.resolve("a", build("212.9")).getVersion());
+        assertEquals("3.0", index.resolve("a", build("231.1")).getVersion());
+        assertEquals("1.0", index.resolve("b", build("231.1")).getVersion());
+        assertNull(index.resolve("c", build("231.1")));
+
+        Map<BuildNumber, Map<String, PluginElement>> resolved =
+                index.resolveAll(Arrays.asList(build("193.1"), build("212.5")));
+        assertEquals(1, resolved.get(build("193.1")).size());
+        assertEquals("2.0", resolved.get(build("212.5")).get("a").getVersion());
+        assertEquals("1.0", resolved.get(build("212.5")).get("b").getVersion());
+    }
+
+    @Test
+    public void testOverlapsAndGaps() {
+        PluginsElement plugins = new PluginsElement();
+        plugins.getPlugins().add(plugin("a", "1.0", "201.1", "212.5"));
+        plugins.getPlugins().add(plugin("a", "2.0", "212.1", "212.9"));
+        plugins.getPlugins().add(plugin("a", "3.0", "213.1", "213.*"));
+        plugins.getPlugins().add(plugin("a", "4.0", "214.0", null));
+        plugins.getPlugins().add(plugin("b", "1.0", "201.1", "211.*"));
+        plugins.getPlugins().add(plugin("b", "2.0", "212.0", null));
+
+        PluginVersionIndex index = new PluginVersionIndex(plugins);
+
+        List<PluginVersionIndex.Conflict> overlaps = index.findOverlaps();
+        assertEquals(1, overlaps.size());
+        assertEquals("1.0", overlaps.get(0).getFirst().getVersion());
+        assertEquals("2.0", overlaps.get(0).getSecond().getVersion());
+        assertEquals(Arrays.asList(plugins.getPlugins().get(0), plugins.getPlugins().get(1)),
+                index.findAll("a", build("212.3")));
+        assertEquals("2.0", index.resolve("a", build("212.3")).getVersion());
+
+        List<PluginVersionIndex.Conflict> gaps = index.findGaps();
+        assertEquals(1, gaps.size());
+        assertEquals("2.0", gaps.get(0).getFirst().getVersion());
+        assertEquals("3.0", gaps.get(0).getSecond().getVersion());
+    }
+
+    @Test(timeout = 30000)
+    public void testLargeIndex() {
+        PluginsElement plugins = new PluginsElement();
+        int ids = 5000;
+        int versions = 10;
+        for (int v = 0; v < versions; v++) {
+            for (int i = 0; i < ids; i++) {
+                plugins.getPlugins().add(plugin("plugin" + i, "1." + v, (210 + v) + ".1",
+                        v == versions - 1 ? null : (210 + v + 1) + ".0"));
+            }
+        }
+
+        PluginVersionIndex index = new PluginVersionIndex(plugins);
+        assertTrue(index.findGaps().isEmpty());
+        assertTrue(index.findOverlaps().isEmpty());
+
+        Map<BuildNumber, Map<String, PluginElement>> resolved = index.resolveAll(Arrays.asList(build("193.1"),
+                build("210.5"), build("214.1"), build("215.0"), build("231.1")));
+        assertTrue(resolved.get(build("193.1")).isEmpty());
+        assertEquals(ids, resolved.get(build("210.5")).size());
+        assertEquals("1.4", resolved.get(build("214.1")).get("plugin42").getVersion());
+        assertEquals("1.4", resolved.get(build("215.0")).get("plugin42").getVersion());
+        assertEquals("1.9", resolved.get(build("231.1")).get("plugin4999").getVersion());
+    }
+
+    private static PluginElement plugin(String id, String version, String since, String until) {
+        return new PluginElement(id, version, null, null, id, since, until, "./" + id + ".zip");
+    }
+
+    private static BuildNumber build(String build) {
+        return BuildNumber.fromString(build);
+    }
+}
@@ -0,0 +1,130 @@
+package dev.bmac.gradle.intellij;
+
+import dev.bmac.gradle.intellij.repos.InMemoryRepo;
+import dev.bmac.gradle.intellij.xml.JaxbPluginsCodec;
+import dev.bmac.gradle.intellij.xml.PluginsElement;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class PublishCoordinatorTest extends BasePluginUploaderTest {
+
+    private static final String OTHER_PLUGIN_ID = "otherPluginId";
+
+    private MockWebServer webServer;
+    private PublishCoordinator coordinator;
+
+    public PublishCoordinatorTest() throws Exception {
+        super();
+    }
+
+    @Before
+    @Override
+    public void setup() throws Exception {
+        super.setup();
+        webServer = new MockWebServer();
+        webServer.start();
+        builder = new PluginUploaderBuilder(webServer.url("/").toString(), PLUGIN_NAME, testFile, blockmapFile,
+                hashFile, PLUGIN_ID, VERSION, logger);
+        coordinator = new PublishCoordinator(100);
+    }
+
+    @After
+    public void teardown() throws Exception {
+        coordinator.close();
+        webServer.shutdown();
+    }
+
+    @Test
+    public void testBatchesPublishesIntoOneUpdate() throws Exception {
+        //Check for lock
+        webServer.enqueue(new MockResponse().setResponseCode(404));
+        //Set lock
+        webServer.enqueue(new MockResponse().setResponseCode(201));
+        //return lock
+        webServer.enqueue(new MockResponse().setResponseCode(200).setBody(LOCK_ID));
+        //Get updatePlugin.xml
+        webServer.enqueue(new MockResponse().setResponseCode(404));
+        //Post updatePlugin
+        webServer.enqueue(new MockResponse().setResponseCode(201));
+        //return lock
+        webServer.enqueue(new MockResponse().setResponseCode(200).setBody(LOCK_ID));
+        //Delete lock
+        webServer.enqueue(new MockResponse().setResponseCode(204));
+
+        CompletableFuture<Void> first = coordinator.submit(builder.build(LOCK_ID));
+        CompletableFuture<Void> second = coordinator.submit(builder.setPluginId(OTHER_PLUGIN_ID).build(LOCK_ID));
+        first.get(10, TimeUnit.SECONDS);
+        second.get(10, TimeUnit.SECONDS);
+
+        assertEquals(7, webServer.getRequestCount());
+        RecordedRequest request = null;
+        for (int i = 0; i < 5; i++) {
+            request = webServer.takeRequest();
+        }
+        assertEquals("/" + UploadPluginTask.UPDATE_PLUGINS_FILENAME, request.getPath());
+        assertEquals("POST", request.getMethod());
+        String updatePlugin = request.getBody().readUtf8();
+        String comment = updatePlugin.substring(0, updatePlugin.indexOf('\n'));
+        assertTrue(comment.contains("'" + PLUGIN_ID + "', '" + OTHER_PLUGIN_ID + "'"));
+
+        PluginsElement plugins = (PluginsElement) JaxbPluginsCodec.getContext().createUnmarshaller().unmarshal(
+                new StringReader(updatePlugin.substring(updatePlugin.indexOf('\n') + 1)));
+        assertEquals(2, plugins.getPlugins().size());
+        assertEquals(PLUGIN_ID, plugins.getPlugins().get(0).getId());
+        assertEquals(OTHER_PLUGIN_ID, plugins.getPlugins().get(1).getId());
+    }
+
+    @Test
+    public void testOnlyPublishedVersionIsRejected() throws Exception {
+        InMemoryRepo repo = new InMemoryRepo(logger);
+        builder.setRepo(repo);
+        builder.setUpdateMode(PluginUploader.UpdateMode.OPTIMISTIC);
+        builder.build(LOCK_ID).execute();
+
+        CompletableFuture<Void> republish = coordinator.submit(builder.build(LOCK_ID));
+        CompletableFuture<Void> other = coordinator.submit(builder.setPluginId(OTHER_PLUGIN_ID).build(LOCK_ID));
+
+        try {
+            republish.get(10, TimeUnit.SECONDS);
+            fail("Expected republishing the version to fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause().getMessage().contains("already published"));
+        }
+        other.get(10, TimeUnit.SECONDS);
+
+        String content = repo.getContent(UploadPluginTask.UPDATE_PLUGINS_FILENAME);
+        PluginsElement plugins = (PluginsElement) JaxbPluginsCodec.getContext().createUnmarshaller().unmarshal(
+                new StringReader(content.substring(content.indexOf('\n') + 1)));
+        assertEquals(2, plugins.getPlugins().size());
+        assertEquals(OTHER_PLUGIN_ID, plugins.getPlugins().get(1).getId());
+    }
+
+    @Test
+    public void testExecuteWaitsForBatch() throws Exception {
+        InMemoryRepo repo = new InMemoryRepo(logger);
+        builder.setRepo(repo);
+        builder.setPublishCoordinator(coordinator);
+
+        builder.build(LOCK_ID).execute();
+
+        assertTrue(repo.getContent(UploadPluginTask.UPDATE_PLUGINS_FILENAME).contains(PLUGIN_ID));
+        assertFalse(repo.exists(LOCK_FILE));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testClosedCoordinatorRejectsPublishes() throws Exception {
+        coordinator.close();
+        coordinator.submit(builder.build(LOCK_ID));
+    }
+}
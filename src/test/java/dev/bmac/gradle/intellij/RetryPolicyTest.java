@@ -0,0 +1,73 @@
+package dev.bmac.gradle.intellij;
+
+import dev.bmac.gradle.intellij.repos.RepoException;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class RetryPolicyTest {
+
+    private final RetryPolicy policy = new RetryPolicy(5, 100, 1000, 10000);
+
+    @Test
+    public void testDelayGrowsExponentiallyWithJitter() {
+        for (int i = 0; i < 100; i++) {
+            assertInRange(policy.getDelay(1, null, 0), 0, 100);
+            assertInRange(policy.getDelay(2, null, 0), 0, 200);
+            assertInRange(policy.getDelay(3, null, 0), 0, 400);
+            assertInRange(policy.getDelay(20, null, 0), 0, 1000);
+        }
+    }
+
+    @Test
+    public void testDelaysAreRandomized() {
+        long first = policy.getDelay(5, null, 0);
+        for (int i = 0; i < 100; i++) {
+            if (policy.getDelay(5, null, 0) != first) {
+                return;
+            }
+        }
+        fail("Expected delays to be jittered");
+    }
+
+    @Test
+    public void testDelayHonorsRetryAfter() {
+        IOException failure = new IOException("wrapped", new RepoException("Slow down", 429, 3000L));
+
+        assertEquals(3000, policy.getDelay(1, failure, 0));
+        //Never waits past the deadline
+        assertEquals(1000, policy.getDelay(1, failure, 9000));
+    }
+
+    @Test
+    public void testDelayDoesNotExceedDeadline() {
+        for (int i = 0; i < 100; i++) {
+            assertInRange(policy.getDelay(10, null, 9950), 0, 50);
+        }
+    }
+
+    @Test
+    public void testShouldStop() {
+        assertFalse(policy.shouldStop(1, null, 0));
+        assertTrue(policy.shouldStop(5, null, 0));
+        assertTrue(policy.shouldStop(1, null, 10000));
+        assertFalse(policy.shouldStop(1, new RepoException("Slow down", 503, 5000L), 4000));
+        assertTrue(policy.shouldStop(1, new RepoException("Slow down", 503, 5000L), 6000));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidMaxAttempts() {
+        new RetryPolicy(0, 100, 1000, 10000);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidDelays() {
+        new RetryPolicy(5, 1000, 100, 10000);
+    }
+
+    private static void assertInRange(long value, long min, long max) {
+        assertTrue(value + " not in [" + min + ", " + max + "]", value >= min && value <= max);
+    }
+}
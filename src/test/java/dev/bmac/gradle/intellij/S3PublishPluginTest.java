@@ -3,10 +3,12 @@ package dev.bmac.gradle.intellij;
 import com.adobe.testing.s3mock.junit4.S3MockRule;
 import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.model.S3Object;
+import dev.bmac.gradle.intellij.repos.S3Repo;
 import dev.bmac.gradle.intellij.xml.PluginElement;
 import dev.bmac.gradle.intellij.xml.PluginsElement;
 import org.apache.commons.io.IOUtils;
 import org.apache.http.client.utils.URIBuilder;
+import org.gradle.api.GradleException;
 import org.junit.Before;
 import org.junit.ClassRule;
 import org.junit.Test;
@@ -63,4 +65,28 @@ public class S3PublishPluginTest extends BasePluginUploaderTest {
 
         assertFalse(client.doesObjectExist(BUCKET_NAME, "plugins/updatePlugins.xml.lock"));
     }
+
+    @Test
+    public void testOptimisticUpdateEndToEnd() throws Exception {
+        builder.setRepoType(PluginUploader.RepoType.S3)
+                .setUpdateMode(PluginUploader.UpdateMode.OPTIMISTIC)
+                .setUpdateFile("optimisticUpdatePlugins.xml");
+        //Older S3 compatible stores ignore If-Match on writes, the update mode must then be refused
+        boolean ifMatchEnforced = new S3Repo(builder.getUrl(), null, logger).supportsConditionalReplace();
+        try {
+            builder.build(LOCK_ID).execute();
+            assertTrue("OPTIMISTIC must be refused when If-Match is ignored", ifMatchEnforced);
+        } catch (GradleException e) {
+            assertFalse(ifMatchEnforced);
+            assertTrue(e.getMessage().contains("If-Match"));
+            assertFalse(client.doesObjectExist(BUCKET_NAME, "plugins/optimisticUpdatePlugins.xml"));
+            return;
+        }
+
+        S3Object updateObject = client.getObject(BUCKET_NAME, "plugins/optimisticUpdatePlugins.xml");
+        String updatePlugin = IOUtils.toString(updateObject.getObjectContent(), StandardCharsets.UTF_8);
+        assertTrue(updatePlugin.contains(PLUGIN_ID));
+
+        assertFalse(client.doesObjectExist(BUCKET_NAME, "plugins/optimisticUpdatePlugins.xml.lock"));
+    }
 }
@@ -0,0 +1,71 @@
+package dev.bmac.gradle.intellij;
+
+import com.google.common.io.ByteStreams;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+public class TeeInputStreamTest {
+
+    @Test(timeout = 30000)
+    public void testBranchReadsSameData() throws Exception {
+        byte[] data = randomBytes(1_000_003);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (TeeInputStream in = new TeeInputStream(Channels.newChannel(new ByteArrayInputStream(data)), 4096)) {
+            Future<byte[]> branch = executor.submit(() -> readAll(in.getBranch()));
+            assertArrayEquals(data, readAll(in));
+            in.finish();
+            assertArrayEquals(data, branch.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void testFinishAfterPartialRead() throws Exception {
+        byte[] data = randomBytes(100_000);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (TeeInputStream in = new TeeInputStream(Channels.newChannel(new ByteArrayInputStream(data)), 1000)) {
+            Future<byte[]> branch = executor.submit(() -> readAll(in.getBranch()));
+            byte[] start = new byte[1500];
+            ByteStreams.readFully(in, start);
+            assertArrayEquals(Arrays.copyOf(data, 1500), start);
+            in.finish();
+            assertEquals(-1, in.read());
+            assertArrayEquals(data, branch.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test(timeout = 30000, expected = IOException.class)
+    public void testCloseWithoutFinishFailsBranch() throws Exception {
+        byte[] data = randomBytes(100_000);
+        TeeInputStream in = new TeeInputStream(Channels.newChannel(new ByteArrayInputStream(data)), 1000);
+        assertTrue(in.read() >= 0);
+        in.close();
+        readAll(in.getBranch());
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        try (InputStream stream = in) {
+            return ByteStreams.toByteArray(stream);
+        }
+    }
+
+    private static byte[] randomBytes(int size) {
+        byte[] data = new byte[size];
+        new Random(42).nextBytes(data);
+        return data;
+    }
+}
@@ -1,5 +1,6 @@
 package dev.bmac.gradle.intellij;
 
+import dev.bmac.gradle.intellij.xml.JaxbPluginsCodec;
 import dev.bmac.gradle.intellij.xml.PluginsElement;
 import org.gradle.testkit.runner.GradleRunner;
 import org.junit.Before;
@@ -55,7 +56,7 @@ public class UpdateXmlTaskTest {
 
         assertTrue(testFile.exists());
 
-        PluginsElement pluginsElement = (PluginsElement) PluginUpdatesUtil.UNMARSHALLER.unmarshal(testFile);
+        PluginsElement pluginsElement = (PluginsElement) JaxbPluginsCodec.getContext().createUnmarshaller().unmarshal(testFile);
         assertEquals(1, pluginsElement.getPlugins().size());
     }
 
@@ -97,7 +98,7 @@ public class UpdateXmlTaskTest {
                 .withPluginClasspath().forwardOutput()
                 .withArguments("--stacktrace", "updateLocalPluginFile").build();
 
-        PluginsElement pluginsElement = (PluginsElement) PluginUpdatesUtil.UNMARSHALLER.unmarshal(testFile);
+        PluginsElement pluginsElement = (PluginsElement) JaxbPluginsCodec.getContext().createUnmarshaller().unmarshal(testFile);
         assertEquals(1, pluginsElement.getPlugins().size());
         assertEquals("1.0.1", pluginsElement.getPlugins().get(0).getVersion());
     }
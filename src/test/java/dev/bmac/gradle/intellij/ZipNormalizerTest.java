@@ -0,0 +1,163 @@
+package dev.bmac.gradle.intellij;
+
+import com.google.common.io.ByteStreams;
+import com.jetbrains.plugin.blockmap.core.BlockMap;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.*;
+
+public class ZipNormalizerTest {
+    private static final ZipNormalizer NORMALIZER = new ZipNormalizer(Deflater.DEFAULT_COMPRESSION, true);
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void testSameContentSameBytes() throws Exception {
+        Map<String, Map<String, byte[]>> jars = jars(new Random(1), 4);
+        File first = plugin(jars, 1_600_000_000_000L, new Random(2));
+        File second = plugin(jars, 1_700_000_000_000L, new Random(3));
+        assertFalse(Arrays.equals(Files.readAllBytes(first.toPath()), Files.readAllBytes(second.toPath())));
+
+        byte[] firstNormalized = normalize(first);
+        assertArrayEquals(firstNormalized, normalize(second));
+
+        Map<String, byte[]> entries = read(new ByteArrayInputStream(firstNormalized));
+        assertEquals(jars.keySet(), entries.keySet());
+        for (Map.Entry<String, Map<String, byte[]>> jar : jars.entrySet()) {
+            Map<String, byte[]> classes = read(new ByteArrayInputStream(entries.get(jar.getKey())));
+            assertEquals(jar.getValue().keySet(), classes.keySet());
+            for (Map.Entry<String, byte[]> clazz : jar.getValue().entrySet()) {
+                assertArrayEquals(clazz.getValue(), classes.get(clazz.getKey()));
+            }
+        }
+    }
+
+    @Test
+    public void testJarEntryOrder() throws Exception {
+        byte[] jar = NORMALIZER.normalize(zip(classes(new Random(4), 0), 1_600_000_000_000L, new Random(4)));
+        List<String> names = new ArrayList<>(read(new ByteArrayInputStream(jar)).keySet());
+        assertEquals("META-INF/MANIFEST.MF", names.get(0));
+        List<String> sorted = new ArrayList<>(names.subList(1, names.size()));
+        Collections.sort(sorted);
+        assertEquals(sorted, names.subList(1, names.size()));
+    }
+
+    /**
+     * Compares what an IDE downloads to update between two builds of a plugin where one of six jars changed, with and
+     * without normalizing
+     */
+    @Test
+    public void testDeltaSize() throws Exception {
+        Random random = new Random(5);
+        Map<String, Map<String, byte[]>> previousJars = jars(random, 6);
+        Map<String, Map<String, byte[]>> currentJars = new LinkedHashMap<>(previousJars);
+        currentJars.put("plugin/lib/lib2.jar", classes(random, 2));
+        File previous = plugin(previousJars, 1_600_000_000_000L, new Random(6));
+        File current = plugin(currentJars, 1_700_000_000_000L, new Random(7));
+
+        BlockMapDelta raw = delta(Files.readAllBytes(previous.toPath()), Files.readAllBytes(current.toPath()));
+        BlockMapDelta normalized = delta(normalize(previous), normalize(current));
+
+        assertTrue("Raw " + raw.getDownloadBytes() + ", normalized " + normalized.getDownloadBytes(),
+                normalized.getDownloadBytes() * 2 < raw.getDownloadBytes());
+        assertTrue(normalized.getChunkReuseRatio() > 0.6);
+    }
+
+    private static BlockMapDelta delta(byte[] previous, byte[] current) throws Exception {
+        return BlockMapDelta.compare("previous",
+                new BlockMap(new ByteArrayInputStream(previous), GenerateBlockMapTask.ALGORITHM),
+                new BlockMap(new ByteArrayInputStream(current), GenerateBlockMapTask.ALGORITHM));
+    }
+
+    private byte[] normalize(File plugin) throws IOException {
+        File normalized = tmp.newFile();
+        NORMALIZER.normalize(plugin, normalized);
+        return Files.readAllBytes(normalized.toPath());
+    }
+
+    private static Map<String, Map<String, byte[]>> jars(Random random, int count) {
+        Map<String, Map<String, byte[]>> jars = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            jars.put("plugin/lib/lib" + i + ".jar", classes(random, i));
+        }
+        return jars;
+    }
+
+    private static Map<String, byte[]> classes(Random random, int index) {
+        Map<String, byte[]> classes = new LinkedHashMap<>();
+        classes.put("META-INF/MANIFEST.MF", "Manifest-Version: 1.0\r\n\r\n".getBytes());
+        for (int i = 0; i < 40; i++) {
+            //Partly compressible, like class files
+            byte[] content = new byte[2000 + random.nextInt(4000)];
+            for (int j = 0; j < content.length; j++) {
+                content[j] = (byte) (j % 3 == 0 ? random.nextInt() : j % 17);
+            }
+            classes.put("dev/example/lib" + index + "/Class" + i + ".class", content);
+        }
+        return classes;
+    }
+
+    /**
+     * Builds the plugin as a build would, writing every jar again with the time of the build
+     */
+    private File plugin(Map<String, Map<String, byte[]>> jars, long time, Random order) throws IOException {
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        for (Map.Entry<String, Map<String, byte[]>> jar : jars.entrySet()) {
+            entries.put(jar.getKey(), zip(jar.getValue(), time, order));
+        }
+        File plugin = tmp.newFile();
+        try (FileOutputStream fos = new FileOutputStream(plugin)) {
+            fos.write(zip(entries, time, order));
+        }
+        return plugin;
+    }
+
+    private static byte[] zip(Map<String, byte[]> entries, long time, Random order) throws IOException {
+        List<String> names = new ArrayList<>(entries.keySet());
+        Collections.shuffle(names, order);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream zos = new ZipOutputStream(bytes)) {
+            for (String name : names) {
+                ZipEntry entry = new ZipEntry(name);
+                entry.setTime(time);
+                zos.putNextEntry(entry);
+                zos.write(entries.get(name));
+                zos.closeEntry();
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Map<String, byte[]> read(InputStream zip) throws IOException {
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        try (ZipInputStream zis = new ZipInputStream(zip)) {
+            ZipEntry entry;
+            while ((entry = zis.getNextEntry()) != null) {
+                entries.put(entry.getName(), ByteStreams.toByteArray(zis));
+            }
+        }
+        return entries;
+    }
+}
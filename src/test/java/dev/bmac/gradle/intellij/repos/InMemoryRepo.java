@@ -0,0 +1,83 @@
+package dev.bmac.gradle.intellij.repos;
+
+import org.gradle.api.logging.Logger;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Repository keeping its objects in memory, supporting conditional writes with ETags like s3 does.
+ */
+public class InMemoryRepo extends Repo {
+    private final Map<String, byte[]> objects = new HashMap<>();
+    private final Map<String, String> eTags = new HashMap<>();
+    private final AtomicLong version = new AtomicLong();
+
+    public InMemoryRepo(Logger logger) {
+        super("memory://" + System.identityHashCode(new Object()), null, logger);
+    }
+
+    @Override
+    public <T> T get(String relativePath, Function<RepoObject, T> converter) throws IOException {
+        byte[] content;
+        String eTag;
+        synchronized (this) {
+            content = objects.get(relativePath);
+            eTag = eTags.get(relativePath);
+        }
+        if (content == null) {
+            return converter.apply(RepoObject.empty());
+        }
+        return converter.apply(RepoObject.of(new ByteArrayInputStream(content), eTag));
+    }
+
+    @Override
+    public synchronized void upload(String relativePath, File file, String mediaType) throws IOException {
+        put(relativePath, Files.readAllBytes(file.toPath()));
+    }
+
+    @Override
+    public synchronized boolean conditionalUpload(String relativePath, File file, String mediaType, String eTag) throws IOException {
+        String current = eTags.get(relativePath);
+        if (eTag == null ? current != null : !eTag.equals(current)) {
+            return false;
+        }
+        put(relativePath, Files.readAllBytes(file.toPath()));
+        return true;
+    }
+
+    @Override
+    public synchronized List<String> list(String directory) throws IOException {
+        String prefix = directory.endsWith("/") ? directory : directory + "/";
+        return objects.keySet().stream().filter(path -> path.startsWith(prefix)).sorted().collect(Collectors.toList());
+    }
+
+    @Override
+    public synchronized void delete(String relativePath) throws IOException {
+        objects.remove(relativePath);
+        eTags.remove(relativePath);
+    }
+
+    public synchronized boolean exists(String relativePath) {
+        return objects.containsKey(relativePath);
+    }
+
+    public synchronized String getContent(String relativePath) {
+        byte[] content = objects.get(relativePath);
+        return content == null ? null : new String(content, StandardCharsets.UTF_8);
+    }
+
+    private void put(String relativePath, byte[] content) {
+        objects.put(relativePath, content);
+        eTags.put(relativePath, "\"" + version.incrementAndGet() + "\"");
+    }
+}
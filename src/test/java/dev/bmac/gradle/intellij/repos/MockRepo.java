@@ -2,6 +2,8 @@ package dev.bmac.gradle.intellij.repos;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
 import java.util.function.Function;
 import org.gradle.api.logging.Logger;
 
@@ -20,6 +22,16 @@ public class MockRepo extends Repo {
 
     }
 
+    @Override
+    public boolean conditionalUpload(String relativePath, File file, String mediaType, String eTag) throws IOException {
+        return true;
+    }
+
+    @Override
+    public List<String> list(String directory) throws IOException {
+        return Collections.emptyList();
+    }
+
     @Override
     public void delete(String relativePath) throws IOException {
 
@@ -0,0 +1,47 @@
+package dev.bmac.gradle.intellij.repos;
+
+import org.junit.Test;
+
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+
+import static org.junit.Assert.*;
+
+public class RepoExceptionTest {
+
+    @Test
+    public void testTransientStatus() {
+        assertTrue(RepoException.isTransientStatus(408));
+        assertTrue(RepoException.isTransientStatus(429));
+        assertTrue(RepoException.isTransientStatus(500));
+        assertTrue(RepoException.isTransientStatus(503));
+        assertFalse(RepoException.isTransientStatus(400));
+        assertFalse(RepoException.isTransientStatus(401));
+        assertFalse(RepoException.isTransientStatus(403));
+        assertFalse(RepoException.isTransientStatus(501));
+    }
+
+    @Test
+    public void testParseRetryAfterSeconds() {
+        assertEquals(Long.valueOf(120000), RepoException.parseRetryAfter("120"));
+        assertEquals(Long.valueOf(0), RepoException.parseRetryAfter("-1"));
+    }
+
+    @Test
+    public void testParseRetryAfterDate() {
+        String date = DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.now(ZoneOffset.UTC).plusMinutes(2));
+        Long retryAfter = RepoException.parseRetryAfter(date);
+
+        assertNotNull(retryAfter);
+        assertTrue(retryAfter > 60000 && retryAfter <= 120000);
+        assertEquals(Long.valueOf(0), RepoException.parseRetryAfter("Wed, 21 Oct 2015 07:28:00 GMT"));
+    }
+
+    @Test
+    public void testParseRetryAfterInvalid() {
+        assertNull(RepoException.parseRetryAfter(null));
+        assertNull(RepoException.parseRetryAfter(""));
+        assertNull(RepoException.parseRetryAfter("soon"));
+    }
+}
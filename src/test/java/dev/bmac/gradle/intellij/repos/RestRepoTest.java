@@ -0,0 +1,92 @@
+package dev.bmac.gradle.intellij.repos;
+
+import dev.bmac.gradle.intellij.PluginUploader;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RestRepoTest {
+
+    private final Logger logger = Logging.getLogger(RestRepoTest.class);
+    private MockWebServer webServer;
+    private RestRepo repo;
+
+    @Before
+    public void setup() throws Exception {
+        webServer = new MockWebServer();
+        webServer.start();
+        String url = webServer.url("/repo").toString();
+        repo = new RestRepo(url, "auth", PluginUploader.RepoType.REST_PUT, logger);
+    }
+
+    @After
+    public void teardown() throws Exception {
+        webServer.shutdown();
+    }
+
+    @Test
+    public void testListFollowsDirectoryIndex() throws Exception {
+        webServer.enqueue(new MockResponse().setResponseCode(200).setBody("<html><body>" +
+                "<a href=\"../\">Parent Directory</a>" +
+                "<a href=\"a.xml\">a.xml</a>" +
+                "<a href='sub/'>sub/</a>" +
+                "<a href=\"" + webServer.url("/repo/dir/b.xml") + "\">b.xml</a>" +
+                "<a href=\"a.xml\">a.xml</a>" +
+                "<a href=\"/other/c.xml\">c.xml</a>" +
+                "</body></html>"));
+        webServer.enqueue(new MockResponse().setResponseCode(200).setBody(
+                "<a href=\"/repo/dir/\">..</a><a href=\"/repo/dir/sub/d%20e.xml\">d e.xml</a>"));
+
+        List<String> paths = repo.list("dir");
+
+        assertEquals(Arrays.asList("dir/a.xml", "dir/b.xml", "dir/sub/d e.xml"), paths);
+        RecordedRequest request = webServer.takeRequest();
+        assertEquals("/repo/dir/", request.getPath());
+        assertEquals("auth", request.getHeader("Authorization"));
+        assertEquals("/repo/dir/sub/", webServer.takeRequest().getPath());
+    }
+
+    @Test
+    public void testFailedConditionalCreateProbeIsNotCached() throws Exception {
+        webServer.enqueue(new MockResponse().setResponseCode(503));
+        try {
+            repo.supportsConditionalCreate();
+            fail("Expected the probe to fail");
+        } catch (RepoException e) {
+            assertTrue(e.isTransient());
+        }
+
+        //Create probe, create it again and delete it
+        webServer.enqueue(new MockResponse().setResponseCode(201));
+        webServer.enqueue(new MockResponse().setResponseCode(412));
+        webServer.enqueue(new MockResponse().setResponseCode(204));
+        assertTrue(repo.supportsConditionalCreate());
+        assertEquals(4, webServer.getRequestCount());
+    }
+
+    @Test
+    public void testListMissingDirectory() throws Exception {
+        webServer.enqueue(new MockResponse().setResponseCode(404));
+
+        assertTrue(repo.list("missing/").isEmpty());
+    }
+
+    @Test(expected = RepoException.class)
+    public void testListFailure() throws Exception {
+        webServer.enqueue(new MockResponse().setResponseCode(403));
+
+        repo.list("dir/");
+    }
+}
@@ -1,18 +1,47 @@
 package dev.bmac.gradle.intellij.repos;
 
+import com.adobe.testing.s3mock.junit4.S3MockRule;
+import com.amazonaws.AmazonServiceException;
 import com.amazonaws.auth.AWSSessionCredentials;
 import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.AmazonS3ClientBuilder;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+import org.apache.commons.io.IOUtils;
+import org.apache.http.client.utils.URIBuilder;
 import org.gradle.api.logging.Logger;
 import org.gradle.api.logging.Logging;
+import org.junit.ClassRule;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
 import java.util.concurrent.atomic.AtomicReference;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.*;
 
 public class S3RepoTest {
+    @ClassRule
+    public static final S3MockRule S3_MOCK_RULE = S3MockRule.builder().withSecureConnection(false).silent().build();
+    private static final String BUCKET_NAME = "multipart-bucket";
+    private static final long PART_SIZE = S3Repo.MIN_PART_SIZE;
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
     protected final Logger logger = Logging.getLogger(S3RepoTest.class);;
 
     @Test
@@ -21,6 +50,14 @@ public class S3RepoTest {
         assertEquals("", repo.baseRepoPath);
     }
 
+    @Test
+    public void testRepoIdIncludesEndpoint() {
+        S3Repo first = new S3Repo("http://bucket@first.example.com/", null, logger);
+        S3Repo second = new S3Repo("http://bucket@second.example.com/", null, logger);
+        assertNotEquals(first.getRepoId(), second.getRepoId());
+        assertEquals(first.getRepoId(), new S3Repo("http://bucket@first.example.com/", null, logger).getRepoId());
+    }
+
     @Test
     public void testBaseKeyPathWithDirectory() {
         S3Repo repo = new S3Repo("http://example.com/folder", null, logger);
@@ -107,4 +144,110 @@ public class S3RepoTest {
         assertEquals("us-west-2", builderHolder.get().getRegion());
         assertEquals("bucket", repo.bucketName);
     }
+
+    @Test
+    public void testMultipartUpload() throws Exception {
+        byte[] content = randomContent(PART_SIZE * 2 + 1024);
+        File file = writeFile(content);
+
+        S3Repo repo = new S3Repo(getMockEndpoint(), null, logger);
+        repo.setMultipartUpload(PART_SIZE, PART_SIZE, 2);
+        repo.upload("plugin/large.zip", file, "application/zip");
+
+        assertArrayEquals(content, getObject("plugins/plugin/large.zip"));
+    }
+
+    @Test
+    public void testMultipartUploadRetriesFailedPart() throws Exception {
+        byte[] content = randomContent(PART_SIZE * 2 + 1024);
+        File file = writeFile(content);
+
+        AtomicReference<AmazonS3> clientHolder = new AtomicReference<>();
+        S3Repo repo = new S3Repo(getMockEndpoint(), null, logger) {
+            @Override
+            AmazonS3 customizeBuilder(AmazonS3ClientBuilder builder) {
+                AmazonS3 client = spy(super.customizeBuilder(builder));
+                AmazonServiceException failure = new AmazonServiceException("Service unavailable");
+                failure.setStatusCode(503);
+                doThrow(failure).doCallRealMethod().when(client)
+                        .uploadPart(argThat((UploadPartRequest request) -> request.getPartNumber() == 2));
+                clientHolder.set(client);
+                return client;
+            }
+        };
+        repo.setMultipartUpload(PART_SIZE, PART_SIZE, 3);
+        repo.upload("plugin/retried.zip", file, "application/zip");
+
+        assertArrayEquals(content, getObject("plugins/plugin/retried.zip"));
+        //Only the failed part is uploaded again
+        verify(clientHolder.get(), times(4)).uploadPart(any());
+    }
+
+    @Test
+    public void testSmallFileSkipsMultipart() throws Exception {
+        byte[] content = randomContent(1024);
+        File file = writeFile(content);
+
+        AtomicReference<AmazonS3> clientHolder = new AtomicReference<>();
+        S3Repo repo = new S3Repo(getMockEndpoint(), null, logger) {
+            @Override
+            AmazonS3 customizeBuilder(AmazonS3ClientBuilder builder) {
+                clientHolder.set(spy(super.customizeBuilder(builder)));
+                return clientHolder.get();
+            }
+        };
+        repo.upload("plugin/small.zip", file, "application/zip");
+
+        assertArrayEquals(content, getObject("plugins/plugin/small.zip"));
+        verify(clientHolder.get(), never()).initiateMultipartUpload(any());
+        //Same metadata as a multipart upload
+        assertEquals("application/zip", S3_MOCK_RULE.createS3Client()
+                .getObjectMetadata(BUCKET_NAME, "plugins/plugin/small.zip").getContentType());
+    }
+
+    @Test
+    public void testList() throws Exception {
+        File file = writeFile(randomContent(16));
+        S3Repo repo = new S3Repo(getMockEndpoint(), null, logger);
+        repo.upload("list/a.xml", file, "application/xml");
+        repo.upload("list/sub/b.xml", file, "application/xml");
+        repo.upload("listing/c.xml", file, "application/xml");
+
+        List<String> paths = repo.list("list");
+        Collections.sort(paths);
+
+        assertEquals(Arrays.asList("list/a.xml", "list/sub/b.xml"), paths);
+        assertTrue(repo.list("missing/").isEmpty());
+    }
+
+    private String getMockEndpoint() throws Exception {
+        AmazonS3 client = S3_MOCK_RULE.createS3Client();
+        if (!client.doesBucketExistV2(BUCKET_NAME)) {
+            client.createBucket(BUCKET_NAME);
+        }
+        return new URIBuilder(S3_MOCK_RULE.getServiceEndpoint())
+                .setUserInfo(BUCKET_NAME)
+                .setPath("/plugins")
+                .toString();
+    }
+
+    private byte[] getObject(String key) throws Exception {
+        try (S3Object object = S3_MOCK_RULE.createS3Client().getObject(BUCKET_NAME, key)) {
+            return IOUtils.toByteArray(object.getObjectContent());
+        }
+    }
+
+    private File writeFile(byte[] content) throws Exception {
+        File file = temporaryFolder.newFile();
+        try (FileOutputStream fos = new FileOutputStream(file)) {
+            fos.write(content);
+        }
+        return file;
+    }
+
+    private static byte[] randomContent(long length) {
+        byte[] content = new byte[(int) length];
+        new Random(length).nextBytes(content);
+        return content;
+    }
 }
@@ -0,0 +1,59 @@
+package dev.bmac.gradle.intellij.xml;
+
+import com.google.common.io.Resources;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+public class JaxbPluginsCodecTest {
+
+    @Test
+    public void testIsDefaultCodec() {
+        String previous = System.clearProperty(PluginsCodec.CODEC_PROPERTY);
+        try {
+            assertSame(JaxbPluginsCodec.INSTANCE, PluginsCodec.get());
+            System.setProperty(PluginsCodec.CODEC_PROPERTY, "stax");
+            assertSame(StaxPluginsCodec.INSTANCE, PluginsCodec.get());
+        } finally {
+            if (previous == null) {
+                System.clearProperty(PluginsCodec.CODEC_PROPERTY);
+            } else {
+                System.setProperty(PluginsCodec.CODEC_PROPERTY, previous);
+            }
+        }
+    }
+
+    @Test
+    public void testConcurrentReadsAndWrites() throws Exception {
+        String content = Resources.toString(Resources.getResource("testUpdateXmlFileWithOldVersion.existing"),
+                StandardCharsets.UTF_8);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Callable<String>> roundTrips = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                roundTrips.add(() -> {
+                    PluginsElement plugins = JaxbPluginsCodec.INSTANCE.read(
+                            new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)));
+                    StringWriter writer = new StringWriter();
+                    JaxbPluginsCodec.INSTANCE.write(plugins, writer);
+                    return writer.toString();
+                });
+            }
+            for (Future<String> result : executor.invokeAll(roundTrips)) {
+                assertEquals(content, result.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
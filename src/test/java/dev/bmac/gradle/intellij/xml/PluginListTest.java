@@ -0,0 +1,85 @@
+package dev.bmac.gradle.intellij.xml;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class PluginListTest {
+
+    @Test
+    public void testAppendAndReplace() {
+        PluginList plugins = new PluginList();
+        plugins.add(plugin("a"));
+        plugins.add(plugin("b"));
+        plugins.add(plugin("a"));
+
+        assertEquals(Arrays.asList(0, 2), plugins.positionsOf("a"));
+        assertEquals(Collections.singletonList(1), plugins.positionsOf("b"));
+        assertTrue(plugins.positionsOf("c").isEmpty());
+
+        plugins.set(0, plugin("b"));
+        assertEquals(Collections.singletonList(2), plugins.positionsOf("a"));
+        assertEquals(Arrays.asList(0, 1), plugins.positionsOf("b"));
+
+        plugins.set(2, plugin("c"));
+        assertTrue(plugins.positionsOf("a").isEmpty());
+        assertEquals(Collections.singletonList(2), plugins.positionsOf("c"));
+    }
+
+    @Test
+    public void testInsertAndRemoveShiftPositions() {
+        PluginList plugins = new PluginList(Arrays.asList(plugin("a"), plugin("b"), plugin("a")));
+        assertEquals(Arrays.asList(0, 2), plugins.positionsOf("a"));
+
+        plugins.add(1, plugin("a"));
+        assertEquals(Arrays.asList(0, 1, 3), plugins.positionsOf("a"));
+        assertEquals(Collections.singletonList(2), plugins.positionsOf("b"));
+
+        plugins.remove(0);
+        plugins.add(plugin("b"));
+        assertEquals(Arrays.asList(0, 2), plugins.positionsOf("a"));
+        assertEquals(Arrays.asList(1, 3), plugins.positionsOf("b"));
+
+        plugins.removeIf(plugin -> plugin.getId().equals("a"));
+        assertTrue(plugins.positionsOf("a").isEmpty());
+        assertEquals(Arrays.asList(0, 1), plugins.positionsOf("b"));
+    }
+
+    @Test
+    public void testMiddleInsertKeepsIndex() {
+        PluginList plugins = new PluginList();
+        plugins.add(plugin("a"));
+        plugins.add(plugin("b"));
+        plugins.add(plugin("c"));
+        assertEquals(Collections.singletonList(2), plugins.positionsOf("c"));
+
+        plugins.add(1, plugin("c"));
+        assertEquals(Collections.singletonList(0), plugins.positionsOf("a"));
+        assertEquals(Collections.singletonList(2), plugins.positionsOf("b"));
+        assertEquals(Arrays.asList(1, 3), plugins.positionsOf("c"));
+
+        plugins.remove(2);
+        assertTrue(plugins.positionsOf("b").isEmpty());
+        assertEquals(Arrays.asList(1, 2), plugins.positionsOf("c"));
+        assertEquals(plugins, new PluginList(plugins));
+        assertEquals(new PluginList(plugins).positionsOf("c"), plugins.positionsOf("c"));
+    }
+
+    @Test
+    public void testSetPluginsIsIndexed() {
+        PluginsElement pluginsElement = new PluginsElement();
+        pluginsElement.setPlugins(Arrays.asList(plugin("a"), plugin("b")));
+
+        assertTrue(pluginsElement.getPlugins() instanceof PluginList);
+        assertEquals(Collections.singletonList(1), ((PluginList) pluginsElement.getPlugins()).positionsOf("b"));
+    }
+
+    private static PluginElement plugin(String id) {
+        PluginElement plugin = new PluginElement();
+        plugin.setId(id);
+        return plugin;
+    }
+}
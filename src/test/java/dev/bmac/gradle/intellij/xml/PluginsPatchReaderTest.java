@@ -0,0 +1,123 @@
+package dev.bmac.gradle.intellij.xml;
+
+import com.google.common.io.Resources;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class PluginsPatchReaderTest {
+
+    @Test
+    public void testUnchangedDocumentIsWrittenIdentically() throws Exception {
+        String content = Resources.toString(Resources.getResource("testUpdateXmlFileWithOldVersion.existing"),
+                StandardCharsets.UTF_8);
+
+        PluginsElement plugins = read(content, Collections.singleton("pluginId"));
+
+        assertEquals(2, plugins.getPlugins().size());
+        assertFalse(plugins.getPlugins().get(0) instanceof RawPluginElement);
+        assertEquals("someOtherNotes", plugins.getPlugins().get(0).getChangeNotes());
+        assertTrue(plugins.getPlugins().get(1) instanceof RawPluginElement);
+        assertEquals("other.plugin", plugins.getPlugins().get(1).getId());
+        assertEquals(content, write(plugins));
+        assertEquals(write(StaxPluginsCodec.INSTANCE.read(
+                new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)))), write(plugins));
+    }
+
+    @Test
+    public void testOtherEntriesAreCopiedVerbatim() throws Exception {
+        String other = "<plugin id=\"o&amp;ther\" url=\"a>b\" version='1'>\n" +
+                "<description><![CDATA[</plugin> \u00e9]]></description><!-- </plugin> -->\n" +
+                "  <name/></plugin>";
+        String content = "\uFEFF<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<!-- header > -->\n<plugins>\n  " + other +
+                "\n<unknown><plugin id=\"nested\"/></unknown>\n" +
+                "<plugin id=\"pluginId\" version=\"0.1\"><name>Name</name><idea-version since-build=\"211.1\"/></plugin>\n" +
+                "</plugins>\n";
+
+        PluginsElement plugins = read(content, Collections.singleton("pluginId"));
+
+        assertEquals(2, plugins.getPlugins().size());
+        assertEquals("o&ther", plugins.getPlugins().get(0).getId());
+        assertEquals(other, ((RawPluginElement) plugins.getPlugins().get(0)).getRaw());
+        PluginElement plugin = plugins.getPlugins().get(1);
+        assertEquals("Name", plugin.getName());
+        assertEquals("211.1", plugin.getVersionInfo().getSinceBuildString());
+
+        assertEquals("<plugins>\n    " + other + "\n" +
+                "    <plugin id=\"pluginId\" version=\"0.1\">\n" +
+                "        <name>Name</name>\n" +
+                "        <idea-version since-build=\"211.1\"/>\n" +
+                "    </plugin>\n" +
+                "</plugins>", write(plugins));
+    }
+
+    @Test
+    public void testRawEntriesKeepAttributesAndIdeaVersion() throws Exception {
+        String content = "<plugins>\n" +
+                "<plugin id=\"other\" url=\"./other.zip?a=1&amp;b=2\" version=\"2.0\">\n" +
+                "  <description><![CDATA[<idea-version since-build=\"1.1\"/>]]></description>\n" +
+                "  <idea-version since-build=\"211.1\" until-build=\"221.*\"/>\n" +
+                "</plugin>\n" +
+                "<plugin id=\"bare\" version=\"1.0\"/>\n" +
+                "</plugins>";
+
+        PluginsElement plugins = read(content, Collections.emptySet());
+
+        PluginElement other = plugins.getPlugins().get(0);
+        assertTrue(other instanceof RawPluginElement);
+        assertEquals("2.0", other.getVersion());
+        assertEquals("./other.zip?a=1&b=2", other.getUrl());
+        assertEquals("211.1", other.getVersionInfo().getSinceBuildString());
+        assertEquals("221.*", other.getVersionInfo().getUntilBuildString());
+        PluginElement bare = plugins.getPlugins().get(1);
+        assertEquals("1.0", bare.getVersion());
+        assertNull(bare.getUrl());
+        assertNull(bare.getVersionInfo());
+    }
+
+    @Test
+    public void testEmptyDocument() throws Exception {
+        PluginsElement plugins = read("<!-- header --><plugins/>", Collections.emptySet());
+        assertTrue(plugins.getPlugins().isEmpty());
+        assertEquals("<plugins/>", write(plugins));
+    }
+
+    @Test
+    public void testOtherEncodingIsFullyParsed() throws Exception {
+        byte[] content = "<?xml version='1.0' encoding='ISO-8859-1'?><plugins><plugin id='other' version='1'/></plugins>"
+                .getBytes(StandardCharsets.ISO_8859_1);
+
+        PluginsElement plugins = PluginsPatchReader.read(content, Collections.emptySet());
+
+        assertEquals(1, plugins.getPlugins().size());
+        assertFalse(plugins.getPlugins().get(0) instanceof RawPluginElement);
+    }
+
+    @Test(expected = IOException.class)
+    public void testTruncatedDocument() throws Exception {
+        read("<plugins>\n    <plugin id=\"other\">\n        <name>", Collections.emptySet());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testJaxbRejectsRawEntries() throws Exception {
+        PluginsElement plugins = read("<plugins><plugin id=\"other\"/></plugins>", Collections.emptySet());
+        JaxbPluginsCodec.INSTANCE.write(plugins, new StringWriter());
+    }
+
+    private static PluginsElement read(String content, Set<String> pluginIds) throws IOException {
+        return PluginsPatchReader.read(content.getBytes(StandardCharsets.UTF_8), pluginIds);
+    }
+
+    private static String write(PluginsElement plugins) throws IOException {
+        StringWriter writer = new StringWriter();
+        StaxPluginsCodec.INSTANCE.write(plugins, writer);
+        return writer.toString();
+    }
+}
@@ -0,0 +1,110 @@
+package dev.bmac.gradle.intellij.xml;
+
+import com.google.common.io.Resources;
+import com.intellij.openapi.util.BuildNumber;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class StaxPluginsCodecTest {
+
+    private final PluginsCodec stax = StaxPluginsCodec.INSTANCE;
+    private final PluginsCodec jaxb = JaxbPluginsCodec.INSTANCE;
+
+    @Test
+    public void testRoundTripIsUnchanged() throws Exception {
+        for (String resource : new String[]{"testUpdateXmlFile.expected", "testUpdateXmlFileWithOldVersion.existing"}) {
+            String content = Resources.toString(Resources.getResource(resource), StandardCharsets.UTF_8);
+            assertEquals(content, write(stax, read(stax, content)));
+        }
+    }
+
+    @Test
+    public void testWritesSameAsJaxb() throws Exception {
+        PluginsElement plugins = new PluginsElement();
+        assertEquals(write(jaxb, plugins), write(stax, plugins));
+
+        plugins.getPlugins().add(new PluginElement("id\"<&>", "1.0", "<b>description</b>\r\nsecond line", "",
+                "name", "211.1", "221.*", "./name/plugin.zip?a=1&b=2"));
+        plugins.getPlugins().add(new PluginElement("other", "2.0", null, "notes", null, null, "212.1", "./other.zip"));
+        plugins.getPlugins().add(new PluginElement("bare", "3.0", null, null, null, null, null, (String) null));
+        assertEquals(write(jaxb, plugins), write(stax, plugins));
+    }
+
+    @Test
+    public void testReadsSameAsJaxb() throws Exception {
+        String content = "<!-- File updated on 2022-01-01 -->\n<plugins>\n" +
+                "    <plugin id=\"id\" url=\"./url\" version=\"1.0\" unknown=\"x\">\n" +
+                "        <change-notes><![CDATA[<b>notes</b>]]> &amp; more</change-notes>\n" +
+                "        <unknown><name>ignored</name></unknown>\n" +
+                "        <name>Name</name>\n" +
+                "        <idea-version since-build=\"211.1\"/>\n" +
+                "    </plugin>\n" +
+                "    <plugin id=\"other\" version=\"2.0\"/>\n" +
+                "</plugins>";
+
+        assertEquals(write(jaxb, read(jaxb, content)), write(stax, read(stax, content)));
+        PluginElement plugin = read(stax, content).getPlugins().get(0);
+        assertEquals("<b>notes</b> & more", plugin.getChangeNotes());
+        assertEquals("Name", plugin.getName());
+        assertEquals("211.1", plugin.getVersionInfo().getSinceBuildString());
+        assertNull(plugin.getVersionInfo().getUntilBuild());
+    }
+
+    @Test
+    public void testStreamingRead() throws Exception {
+        String content = Resources.toString(Resources.getResource("testUpdateXmlFileWithOldVersion.existing"),
+                StandardCharsets.UTF_8);
+        List<String> ids = new ArrayList<>();
+        StaxPluginsCodec.read(new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)),
+                plugin -> ids.add(plugin.getId()));
+        assertEquals(2, ids.size());
+        assertEquals("pluginId", ids.get(0));
+        assertEquals("other.plugin", ids.get(1));
+    }
+
+    @Test
+    public void testReadDeduplicatesStringsAndNormalizesBuilds() throws Exception {
+        String content = "<plugins>\n" +
+                "    <plugin id=\"id\" version=\"1.0\"><name>Name</name><description>Same</description>" +
+                "<idea-version since-build=\"211.1\" until-build=\"212.*\"/></plugin>\n" +
+                "    <plugin id=\"id\" version=\"2.0\"><name>Name</name><description>Same</description>" +
+                "<idea-version since-build=\"IU-213.01\" until-build=\"213\"/></plugin>\n" +
+                "</plugins>";
+
+        PluginsElement plugins = read(stax, content);
+        PluginElement first = plugins.getPlugins().get(0);
+        PluginElement second = plugins.getPlugins().get(1);
+        assertSame(first.getId(), second.getId());
+        assertSame(first.getName(), second.getName());
+        assertSame(first.getDescription(), second.getDescription());
+
+        assertEquals("212.*", first.getVersionInfo().getUntilBuildString());
+        assertEquals("IU-213.1", second.getVersionInfo().getSinceBuildString());
+        assertEquals("213.0", second.getVersionInfo().getUntilBuildString());
+        assertEquals(0, first.getVersionInfo().getSinceBuild().compareTo(BuildNumber.fromString("211.1")));
+        assertEquals(write(jaxb, read(jaxb, content)), write(stax, plugins));
+    }
+
+    @Test(expected = IOException.class)
+    public void testRejectsOtherRoot() throws Exception {
+        read(stax, "<plugin id=\"id\"/>");
+    }
+
+    private static PluginsElement read(PluginsCodec codec, String content) throws IOException {
+        return codec.read(new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static String write(PluginsCodec codec, PluginsElement plugins) throws IOException {
+        StringWriter writer = new StringWriter();
+        codec.write(plugins, writer);
+        return writer.toString();
+    }
+}